@@ -0,0 +1,110 @@
+package cloudservice.benchmarks;
+
+import cloudservice.BulkLoader;
+import cloudservice.Database;
+import cloudservice.Database.SynonymEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a CSV file with 4M pairs of synonyms over 2M words into an empty database, where each line connects
+ * a word with another word among its 10 nearest neighbors in a random order so the groups vary in size. The bulk
+ * loader is run with an increasing number of threads, and for comparison the same pairs are also added through the
+ * same path as the batch endpoint.
+ * <br/>
+ * <br/>Every invocation loads the whole file, so this measures single shots like a real import. The file is written
+ * once per fork.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BulkLoadBenchmark {
+	private static final int WORD_COUNT = 2_000_000;
+	private static final int PAIR_COUNT = 4_000_000;
+	private static final int BATCH_SIZE = 10_000;
+
+	@State(Scope.Benchmark)
+	public static class Pairs {
+		Path file;
+
+		@Setup
+		public void setUp() throws IOException {
+			Random random = new Random(0);
+			int[] permutation = new int[WORD_COUNT];
+			for (int i = 0; i < WORD_COUNT; i++) {
+				int j = random.nextInt(i + 1);
+				permutation[i] = permutation[j];
+				permutation[j] = i;
+			}
+			file = Files.createTempFile("pairs-", ".csv");
+			try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				for (int i = 0; i < PAIR_COUNT; i++) {
+					int word = random.nextInt(WORD_COUNT);
+					int synonym = Math.min(WORD_COUNT - 1, word + 1 + random.nextInt(10));
+					writer.write("word" + permutation[word] + ",word" + permutation[synonym] + "\n");
+				}
+			}
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Loader {
+		@Param({"1", "2", "4", "8"})
+		public int threads;
+	}
+
+	@Benchmark
+	public BulkLoader.Result bulkLoad(Pairs pairs, Loader loader) throws IOException {
+		return new BulkLoader(loader.threads).load(pairs.file, new Database());
+	}
+
+	@Benchmark
+	public Database addBatches(Pairs pairs) throws IOException {
+		Database database = new Database();
+		List<SynonymEntry> batch = new ArrayList<>(BATCH_SIZE);
+		try (BufferedReader reader = Files.newBufferedReader(pairs.file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int comma = line.indexOf(',');
+				batch.add(new SynonymEntry(line.substring(0, comma), Set.of(line.substring(comma + 1))));
+				if (batch.size() == BATCH_SIZE) {
+					database.addSynonyms(batch);
+					batch.clear();
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			database.addSynonyms(batch);
+		}
+		return database;
+	}
+}
@@ -0,0 +1,158 @@
+package cloudservice.benchmarks;
+
+import cloudservice.Database;
+import cloudservice.Database.SynonymPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding and querying synonyms. The <code>transitive</code> workload connects all the words into one group,
+ * which is the worst case described in the Javadoc of {@link Database}, and <code>groups</code> spreads them over
+ * groups of 10 words like a more realistic vocabulary.
+ * <br/>
+ * <br/>Looking up 20 words with one call is compared with querying them one by one, where the words are picked from
+ * the first 1000 so that some of them share groups.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DatabaseBenchmark {
+	private static final int WORD_COUNT = 300_000;
+	private static final int LOOKUP_WORDS = 20;
+
+	/**
+	 * A database that grows with every invocation, it's recreated for every iteration so the size stays about the
+	 * same between runs.
+	 */
+	@State(Scope.Benchmark)
+	public static class Additions {
+		@Param({"transitive", "groups"})
+		public String workload;
+
+		Database database;
+		int next;
+
+		@Setup(Level.Iteration)
+		public void setUp() {
+			database = new Database();
+			fill(database, workload, WORD_COUNT);
+			next = WORD_COUNT;
+		}
+
+		String nextWord() {
+			return "word" + next++;
+		}
+
+		String synonymOf(int index) {
+			return "word" + DatabaseBenchmark.synonymOf(workload, index);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Queries {
+		@Param({"transitive", "groups"})
+		public String workload;
+
+		@Param({"10", "100", "1000"})
+		public int limit;
+
+		Database database;
+		final Random random = new Random(1);
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			database = new Database();
+			fill(database, workload, WORD_COUNT);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Lookups {
+		@Param({"transitive", "groups"})
+		public String workload;
+
+		Database database;
+		final Random random = new Random(1);
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			database = new Database();
+			fill(database, workload, WORD_COUNT);
+		}
+
+		List<String> nextWords() {
+			List<String> words = new ArrayList<>(LOOKUP_WORDS);
+			for (int i = 0; i < LOOKUP_WORDS; i++) {
+				words.add("word" + random.nextInt(1000));
+			}
+			return words;
+		}
+	}
+
+	/**
+	 * Adds <code>count</code> words, either in a chain where each word is a synonym of the previous one, or in groups
+	 * of 10 where each word is a synonym of the first in its group.
+	 */
+	static void fill(Database database, String workload, int count) {
+		for (int i = 1; i < count; i++) {
+			database.addSynonyms("word" + i, Set.of("word" + synonymOf(workload, i)));
+		}
+	}
+
+	static int synonymOf(String workload, int index) {
+		if (workload.equals("transitive")) {
+			return index - 1;
+		}
+		return index % 10 == 0 ? index + 1 : index - index % 10;
+	}
+
+	@Benchmark
+	public Database addSynonyms(Additions state) {
+		int index = state.next;
+		state.database.addSynonyms(state.nextWord(), Set.of(state.synonymOf(index)));
+		return state.database;
+	}
+
+	@Benchmark
+	public SynonymPage getSynonyms(Queries state) {
+		return state.database.getSynonyms("word" + state.random.nextInt(WORD_COUNT), state.limit);
+	}
+
+	@Benchmark
+	public SynonymPage getSynonymsWithOffset(Queries state) {
+		return state.database.getSynonyms("word" + state.random.nextInt(WORD_COUNT), state.limit, state.limit);
+	}
+
+	@Benchmark
+	public Map<String, SynonymPage> lookupSynonyms(Lookups state) {
+		return state.database.getSynonyms(state.nextWords(), 10);
+	}
+
+	@Benchmark
+	public List<SynonymPage> getSynonymsOneByOne(Lookups state) {
+		List<SynonymPage> pages = new ArrayList<>(LOOKUP_WORDS);
+		for (String word : state.nextWords()) {
+			pages.add(state.database.getSynonyms(word, 10));
+		}
+		return pages;
+	}
+}
@@ -0,0 +1,83 @@
+package cloudservice.benchmarks;
+
+import cloudservice.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures fuzzy lookups of misspelled words with 1M random words of 4-11 letters in the database, in groups of 10.
+ * Each query is a known word with a random typo, or two if it's longer than 6 letters, so that it's just within the
+ * distance {@link cloudservice.FuzzyIndex} allows. The budget is 2ms at the 99th percentile, so the latency is
+ * sampled to get the percentiles and not only the average.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class FuzzyLookupBenchmark {
+	private static final int WORD_COUNT = 1_000_000;
+	private static final int QUERY_COUNT = 10_000;
+
+	private Database database;
+	private String[] queries;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(0);
+		List<String> words = new ArrayList<>(WORD_COUNT);
+		database = new Database();
+		for (int i = 0; i < WORD_COUNT; i += 10) {
+			Set<String> synonyms = new HashSet<>();
+			for (int j = 1; j < 10; j++) {
+				synonyms.add(randomWord(random, 4 + random.nextInt(8)));
+			}
+			String word = randomWord(random, 8);
+			database.addSynonyms(word, synonyms);
+			words.add(word);
+			words.addAll(synonyms);
+		}
+
+		queries = new String[QUERY_COUNT];
+		for (int i = 0; i < queries.length; i++) {
+			String word = words.get(random.nextInt(words.size()));
+			StringBuilder typo = new StringBuilder(word);
+			for (int j = 0; j < (word.length() > 6 ? 2 : 1); j++) {
+				typo.setCharAt(random.nextInt(typo.length()), (char) ('a' + random.nextInt(26)));
+			}
+			queries[i] = typo.toString();
+		}
+	}
+
+	private static String randomWord(Random random, int length) {
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			word.append((char) ('a' + random.nextInt(26)));
+		}
+		return word.toString();
+	}
+
+	@Benchmark
+	public String findClosestWord() {
+		String query = queries[next];
+		next = (next + 1) % queries.length;
+		return database.findClosestWord(query);
+	}
+}
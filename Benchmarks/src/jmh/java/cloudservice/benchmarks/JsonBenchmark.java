@@ -0,0 +1,52 @@
+package cloudservice.benchmarks;
+
+import cloudservice.Database.SynonymPage;
+import cloudservice.JsonIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding a page of synonyms to JSON, which is done for every query that isn't answered from the response
+ * cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+	@Param({"10", "100", "1000"})
+	public int limit;
+
+	private SynonymPage page;
+
+	@Setup
+	public void setUp() {
+		List<String> synonyms = new ArrayList<>();
+		for (int i = 0; i < limit; i++) {
+			// Every fourth word needs escaping or multi-byte characters
+			synonyms.add(i % 4 == 0 ? "\u00e5ngest \"" + i + "\"" : "synonym" + i);
+		}
+		page = new SynonymPage(limit * 10, synonyms, "bmV4dA");
+	}
+
+	@Benchmark
+	public byte[] encodePage() throws IOException {
+		return JsonIO.toBytes(page);
+	}
+}
@@ -0,0 +1,62 @@
+package cloudservice.benchmarks;
+
+import cloudservice.Dictionary;
+import cloudservice.MemberList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures merging two member lists, which is what an addition does when it connects two groups. Skewed merges (a few
+ * words into a large group) are the common case and should stay cheap regardless of the size of the large list, while
+ * balanced merges have to visit every word.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class MemberListBenchmark {
+	@Param({"100000"})
+	public int size;
+
+	/**
+	 * The words in the smaller list: 1 and 10 are skewed, half the size is balanced.
+	 */
+	@Param({"1", "10", "50000"})
+	public int otherSize;
+
+	private MemberList large;
+	private MemberList small;
+
+	@Setup
+	public void setUp() {
+		Dictionary dictionary = new Dictionary();
+		Random random = new Random(1);
+		int[] ids = new int[size + otherSize];
+		for (int i = 0; i < ids.length; i++) {
+			// Random words so that the two lists are interleaved
+			ids[i] = dictionary.intern(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+		}
+		large = MemberList.fromIds(dictionary, ids, size);
+		small = MemberList.fromIds(dictionary, Arrays.copyOfRange(ids, size, ids.length), otherSize);
+	}
+
+	@Benchmark
+	public MemberList merge() {
+		return large.merge(small);
+	}
+}
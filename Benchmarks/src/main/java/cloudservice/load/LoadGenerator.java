@@ -0,0 +1,548 @@
+package cloudservice.load;
+
+import cloudservice.CloudServer;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * Generates load with a constant arrival rate (an open model): request <code>i</code> is sent at
+ * <code>start + i / rate</code> no matter how long the earlier requests take, like independent users would. The
+ * latency of a request is measured from when it should have been sent, so if the generator or the server falls
+ * behind the waiting time is included. A closed loop of threads would instead stop sending while the server is slow
+ * and only record a few slow requests (coordinated omission), which hides most of the tail latency. The latency from
+ * when the request was actually sent is reported too, to show how large the difference is.
+ * <br/>
+ * <br/>Before the run the server is filled with groups whose sizes follow a Zipf distribution, so there are a few
+ * very large groups and many small ones. The words used by the requests are also picked with a Zipf distribution, but
+ * independently of the groups, since popular words aren't necessarily in large groups. Reads fetch a page of
+ * synonyms and writes add a new word to the group of the picked word.
+ * <br/>
+ * <br/>By default an embedded server is started on a random port. With <code>--targets</code> the load is sent to
+ * running servers instead, writes to the first one and reads spread over all of them, which is used to measure
+ * followers (see the replication section in the README).
+ * <br/>
+ * <br/>With <code>--http2 true</code> the requests are sent over HTTP/2 without TLS, multiplexed over one connection
+ * per server, and with <code>--gzip true</code> the reads accept compressed responses. The average response body
+ * size is reported for each operation, which together with the latencies shows what the transport settings gain.
+ * <br/>
+ * <br/>With <code>--lookup-words 20</code> each read fetches the synonyms of 20 words, picked in the same way as
+ * single words, with one request to the lookup endpoint. Add <code>--sequential true</code> to fetch them with one GET
+ * after another instead, like a client without the lookup endpoint would, to compare the two. The latency of such a
+ * read is until its last page has been received.
+ * <br/>
+ * <br/>During the measurement the number of requests in flight is sampled every millisecond, and with the embedded
+ * server also how many of its request threads are busy. Requests which are suspended while they wait for the disk
+ * don't use a thread, so with a write-heavy mix the requests in flight can be many more than the busy threads.
+ * <br/>
+ * <br/>Run it with <code>./gradlew :Benchmarks:loadTest -PloadArgs="--rate 2000 --duration 60"</code>, see
+ * {@link Options} for all the options. The percentiles are printed and written to <code>results.json</code> in the
+ * output directory, together with the full latency distribution of each operation in HdrHistogram's
+ * <code>.hgrm</code> format which can be plotted with its online plotter.
+ */
+public class LoadGenerator {
+	private static final int MAX_SYNONYMS_PER_ENTRY = 1000;
+	private static final int WORDS_PER_IMPORT = 100_000;
+
+	private final Options options;
+	private final List<URI> targets;
+	private final HttpClient client;
+
+	private final Operation reads = new Operation("read");
+	private final Operation writes = new Operation("write");
+	private final Phaser outstanding = new Phaser(1);
+	/**
+	 * The number of busy request threads of the embedded server, or null if the load is sent to running servers.
+	 */
+	private final IntSupplier busyThreads;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Histogram inFlightSamples = new Histogram(3);
+	private final Histogram busyThreadSamples = new Histogram(3);
+
+	private String[] words;
+
+	public LoadGenerator(Options options, List<URI> targets, IntSupplier busyThreads) {
+		this.options = options;
+		this.targets = targets;
+		this.busyThreads = busyThreads;
+		client = HttpClient.newBuilder()
+				.version(options.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(10))
+				.build();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = Options.parse(args);
+		CloudServer server = null;
+		List<URI> targets = options.targets;
+		IntSupplier busyThreads = null;
+		if (targets.isEmpty()) {
+			server = new CloudServer(0);
+			server.start();
+			targets = List.of(URI.create("http://localhost:" + server.getPort()));
+			busyThreads = server::getBusyThreads;
+		}
+		try {
+			new LoadGenerator(options, targets, busyThreads).run();
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	public void run() throws IOException, InterruptedException {
+		Random random = new Random(options.seed);
+		long start = System.nanoTime();
+		fill(random);
+		System.out.printf("Added %d words in %d groups in %dms%n", options.words, options.groups,
+				(System.nanoTime() - start) / 1_000_000);
+
+		ZipfDistribution popularity = new ZipfDistribution(options.words, options.keySkew);
+		int[] wordOfRank = shuffledIndices(options.words, random);
+		long interval = 1_000_000_000L / options.rate;
+		long begin = System.nanoTime();
+		long measureStart = begin + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+		long end = measureStart + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+		int addedWords = 0;
+		System.out.printf("Sending %d requests/s for %ds after %ds of warmup%n", options.rate, options.durationSeconds,
+				options.warmupSeconds);
+		if (options.lookupWords > 1) {
+			System.out.printf("Each read looks up %d words %s%n", options.lookupWords,
+					options.sequential ? "with one GET after another" : "with one lookup request");
+		}
+
+		Thread sampler = new Thread(() -> sample(measureStart, end), "load-sampler");
+		sampler.setDaemon(true);
+		sampler.start();
+
+		for (long i = 0; ; i++) {
+			long intended = begin + i * interval;
+			if (intended >= end) {
+				break;
+			}
+			long delay;
+			while ((delay = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(delay);
+			}
+
+			String word = words[wordOfRank[popularity.sample(random)]];
+			boolean write = random.nextDouble() < options.writeRatio;
+			int target = (int) (i % targets.size());
+			List<HttpRequest> requests;
+			if (write) {
+				requests = List.of(addRequest(word, "added-" + addedWords++));
+			} else if (options.lookupWords > 1) {
+				Set<String> lookedUp = new LinkedHashSet<>();
+				lookedUp.add(word);
+				while (lookedUp.size() < options.lookupWords) {
+					lookedUp.add(words[wordOfRank[popularity.sample(random)]]);
+				}
+				requests = options.sequential ? readRequests(lookedUp, target) : List.of(lookupRequest(lookedUp, target));
+			} else {
+				requests = List.of(readRequest(word, target));
+			}
+			send(requests, write ? writes : reads, intended, intended >= measureStart);
+		}
+
+		try {
+			outstanding.awaitAdvanceInterruptibly(outstanding.arrive(), 60, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			System.out.println("Some requests didn't complete within 60s after the run");
+		}
+		sampler.join();
+		report();
+		if (targets.size() > 1) {
+			reportReplication();
+		}
+	}
+
+	/**
+	 * Imports the words into the server with the batch endpoint. The group sizes follow a Zipf distribution with the
+	 * group skew as exponent, and every group has at least 2 words.
+	 */
+	private void fill(Random random) throws IOException, InterruptedException {
+		words = new String[options.words];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = "w" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + i;
+		}
+
+		int[] sizes = new int[options.groups];
+		double total = 0;
+		for (int g = 0; g < sizes.length; g++) {
+			total += ZipfDistribution.weight(g, options.groupSkew);
+		}
+		int extra = options.words - 2 * sizes.length;
+		if (extra < 0) {
+			throw new IllegalArgumentException("There must be at least 2 words per group");
+		}
+		int assigned = 0;
+		for (int g = 0; g < sizes.length; g++) {
+			sizes[g] = 2 + (int) (extra * ZipfDistribution.weight(g, options.groupSkew) / total);
+			assigned += sizes[g];
+		}
+		sizes[0] += options.words - assigned; // Rounding
+
+		StringBuilder body = new StringBuilder();
+		int wordsInBody = 0;
+		int next = 0;
+		for (int size : sizes) {
+			int first = next;
+			for (int from = first + 1; from < first + size; from += MAX_SYNONYMS_PER_ENTRY) {
+				body.append("{\"word\":\"").append(words[first]).append("\",\"synonyms\":[");
+				for (int i = from; i < Math.min(from + MAX_SYNONYMS_PER_ENTRY, first + size); i++) {
+					body.append(i > from ? ",\"" : "\"").append(words[i]).append('"');
+				}
+				body.append("]}\n");
+			}
+			next += size;
+			wordsInBody += size;
+			if (wordsInBody >= WORDS_PER_IMPORT) {
+				importBatch(body.toString());
+				body.setLength(0);
+				wordsInBody = 0;
+			}
+		}
+		importBatch(body.toString());
+	}
+
+	private void importBatch(String body) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(targets.get(0).resolve("/api/synonyms/batch"))
+				.header("Content-Type", "application/x-ndjson")
+				.POST(BodyPublishers.ofString(body))
+				.build();
+		HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
+		if (response.statusCode() != 200) {
+			throw new IOException("Failed to import the words: " + response.statusCode() + " " + response.body());
+		}
+	}
+
+	/**
+	 * Samples the requests in flight and the busy server threads every millisecond during the measurement.
+	 */
+	private void sample(long measureStart, long end) {
+		long now;
+		while ((now = System.nanoTime()) < end) {
+			if (now >= measureStart) {
+				inFlightSamples.recordValue(inFlight.get());
+				if (busyThreads != null) {
+					busyThreadSamples.recordValue(busyThreads.getAsInt());
+				}
+			}
+			LockSupport.parkNanos(1_000_000);
+		}
+	}
+
+	private static int[] shuffledIndices(int n, Random random) {
+		int[] indices = new int[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = i;
+		}
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = indices[i];
+			indices[i] = indices[j];
+			indices[j] = swap;
+		}
+		return indices;
+	}
+
+	private HttpRequest readRequest(String word, int target) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(targets.get(target).resolve("/api/synonyms?word=" + encode(word) + "&limit=" + options.limit))
+				.GET();
+		if (options.gzip) {
+			builder.header("Accept-Encoding", "gzip");
+		}
+		return builder.build();
+	}
+
+	private List<HttpRequest> readRequests(Set<String> lookedUp, int target) {
+		List<HttpRequest> requests = new ArrayList<>();
+		for (String word : lookedUp) {
+			requests.add(readRequest(word, target));
+		}
+		return requests;
+	}
+
+	private HttpRequest lookupRequest(Set<String> lookedUp, int target) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(targets.get(target).resolve("/api/synonyms/lookup?limit=" + options.limit))
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString("[\"" + String.join("\",\"", lookedUp) + "\"]"));
+		if (options.gzip) {
+			builder.header("Accept-Encoding", "gzip");
+		}
+		return builder.build();
+	}
+
+	private HttpRequest addRequest(String word, String synonym) {
+		return HttpRequest.newBuilder(targets.get(0).resolve("/api/synonyms?word=" + encode(word)))
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString("[\"" + synonym + "\"]"))
+				.build();
+	}
+
+	private static String encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sends the requests one after another, each one when the previous response has been received, and records them
+	 * as one operation.
+	 */
+	private void send(List<HttpRequest> requests, Operation operation, long intended, boolean record) {
+		outstanding.register();
+		inFlight.incrementAndGet();
+		long sent = System.nanoTime();
+		CompletableFuture<Long> bodyBytes = CompletableFuture.completedFuture(0L);
+		for (HttpRequest request : requests) {
+			// The client doesn't decompress anything, so the length of the body is what was sent over the connection
+			bodyBytes = bodyBytes.thenCompose(previous -> client.sendAsync(request, BodyHandlers.ofByteArray())
+					.thenApply(response -> {
+						if (response.statusCode() >= 400) {
+							throw new CompletionException(new IOException("Got status " + response.statusCode()));
+						}
+						return previous + response.body().length;
+					}));
+		}
+		bodyBytes.whenComplete((bytes, e) -> {
+			long now = System.nanoTime();
+			if (record) {
+				if (e != null) {
+					operation.errors.increment();
+				} else {
+					operation.latency.recordValue((now - intended) / 1000);
+					operation.uncorrectedLatency.recordValue((now - sent) / 1000);
+					operation.bodyBytes.add(bytes);
+				}
+			}
+			inFlight.decrementAndGet();
+			outstanding.arriveAndDeregister();
+		});
+	}
+
+	private void report() throws IOException {
+		System.out.println();
+		System.out.printf("%-6s %9s %7s %10s %10s %10s %10s %12s   %s%n", "", "count", "errors", "p50 ms", "p99 ms",
+				"p99.9 ms", "max ms", "body bytes", "uncorrected p99 ms");
+		for (Operation operation : List.of(reads, writes)) {
+			System.out.printf(Locale.ROOT, "%-6s %9d %7d %10.2f %10.2f %10.2f %10.2f %12.0f   %.2f%n", operation.name,
+					operation.latency.getTotalCount(), operation.errors.sum(),
+					millis(operation.latency.getValueAtPercentile(50)), millis(operation.latency.getValueAtPercentile(99)),
+					millis(operation.latency.getValueAtPercentile(99.9)), millis(operation.latency.getMaxValue()),
+					operation.getAverageBodyBytes(), millis(operation.uncorrectedLatency.getValueAtPercentile(99)));
+		}
+
+		System.out.printf(Locale.ROOT, "%nIn flight: mean %.1f, p99 %d, max %d%n", inFlightSamples.getMean(),
+				inFlightSamples.getValueAtPercentile(99), inFlightSamples.getMaxValue());
+		if (busyThreads != null) {
+			System.out.printf(Locale.ROOT, "Busy server threads: mean %.1f, p99 %d, max %d%n", busyThreadSamples.getMean(),
+					busyThreadSamples.getValueAtPercentile(99), busyThreadSamples.getMaxValue());
+		}
+
+		Path directory = Paths.get(options.output);
+		Files.createDirectories(directory);
+		Files.writeString(directory.resolve("results.json"), toJson());
+		for (Operation operation : List.of(reads, writes)) {
+			try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(operation.name + ".hgrm")), false, StandardCharsets.UTF_8)) {
+				operation.latency.outputPercentileDistribution(out, 1000.0);
+			}
+		}
+		System.out.println("Wrote the results to " + directory.toAbsolutePath());
+	}
+
+	private String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append(String.format(Locale.ROOT, "{\"rate\":%d,\"durationSeconds\":%d,\"writeRatio\":%s,\"words\":%d,"
+						+ "\"groups\":%d,\"groupSkew\":%s,\"keySkew\":%s,\"limit\":%d,\"targets\":%d,\"http2\":%s,"
+						+ "\"gzip\":%s,\"lookupWords\":%d,\"sequential\":%s,\"operations\":{",
+				options.rate, options.durationSeconds, options.writeRatio, options.words, options.groups,
+				options.groupSkew, options.keySkew, options.limit, targets.size(), options.http2, options.gzip,
+				options.lookupWords, options.sequential));
+		List<Operation> operations = List.of(reads, writes);
+		for (int i = 0; i < operations.size(); i++) {
+			Operation operation = operations.get(i);
+			json.append(i > 0 ? "," : "").append('"').append(operation.name).append("\":{")
+					.append("\"count\":").append(operation.latency.getTotalCount())
+					.append(",\"errors\":").append(operation.errors.sum())
+					.append(",\"averageBodyBytes\":").append(String.format(Locale.ROOT, "%.1f", operation.getAverageBodyBytes()))
+					.append(",\"latencyMillis\":").append(percentilesJson(operation.latency))
+					.append(",\"uncorrectedLatencyMillis\":").append(percentilesJson(operation.uncorrectedLatency))
+					.append('}');
+		}
+		json.append("},\"inFlight\":").append(samplesJson(inFlightSamples));
+		if (busyThreads != null) {
+			json.append(",\"busyThreads\":").append(samplesJson(busyThreadSamples));
+		}
+		return json.append("}\n").toString();
+	}
+
+	private static String percentilesJson(ConcurrentHistogram histogram) {
+		return String.format(Locale.ROOT, "{\"p50\":%.3f,\"p99\":%.3f,\"p99.9\":%.3f,\"max\":%.3f,\"mean\":%.3f}",
+				millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+				millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()), histogram.getMean() / 1000);
+	}
+
+	private static String samplesJson(Histogram samples) {
+		return String.format(Locale.ROOT, "{\"mean\":%.1f,\"p99\":%d,\"max\":%d}", samples.getMean(),
+				samples.getValueAtPercentile(99), samples.getMaxValue());
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	private void reportReplication() throws IOException, InterruptedException {
+		System.out.println();
+		for (URI target : targets) {
+			HttpRequest request = HttpRequest.newBuilder(target.resolve("/api/replication/status")).build();
+			HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
+			System.out.println(target + ": " + response.body());
+		}
+	}
+
+	private static class Operation {
+		final String name;
+		/**
+		 * Latencies in microseconds from when the request should have been sent.
+		 */
+		final ConcurrentHistogram latency = new ConcurrentHistogram(3);
+		/**
+		 * Latencies in microseconds from when the request was actually sent.
+		 */
+		final ConcurrentHistogram uncorrectedLatency = new ConcurrentHistogram(3);
+		final LongAdder errors = new LongAdder();
+		/**
+		 * The total size of the recorded response bodies, as they were sent.
+		 */
+		final LongAdder bodyBytes = new LongAdder();
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		double getAverageBodyBytes() {
+			long count = latency.getTotalCount();
+			return count > 0 ? (double) bodyBytes.sum() / count : 0;
+		}
+	}
+
+	/**
+	 * The options are given as <code>--name value</code>, all of them are optional.
+	 */
+	public static class Options {
+		/**
+		 * Requests per second.
+		 */
+		int rate = 1000;
+		int durationSeconds = 30;
+		/**
+		 * The requests during the warmup are sent but not recorded.
+		 */
+		int warmupSeconds = 10;
+		/**
+		 * The fraction of the requests that add synonyms, the rest are reads.
+		 */
+		double writeRatio = 0.1;
+		int words = 100_000;
+		int groups = 10_000;
+		/**
+		 * The exponent of the Zipf distribution of the group sizes, 0 makes all groups the same size.
+		 */
+		double groupSkew = 1.0;
+		/**
+		 * The exponent of the Zipf distribution of how popular the words are, 0 makes them all equally popular.
+		 */
+		double keySkew = 0.99;
+		/**
+		 * The page size of the reads.
+		 */
+		int limit = 100;
+		long seed = 1;
+		/**
+		 * Send the requests over HTTP/2 without TLS instead of HTTP/1.1.
+		 */
+		boolean http2;
+		/**
+		 * Accept gzip compressed responses to the reads.
+		 */
+		boolean gzip;
+		/**
+		 * The number of words each read fetches the synonyms of.
+		 */
+		int lookupWords = 1;
+		/**
+		 * Fetch the words of a read with one GET after another instead of one lookup request.
+		 */
+		boolean sequential;
+		String output = "build/load-results";
+		/**
+		 * Comma separated addresses of running servers, if empty an embedded server is started.
+		 */
+		List<URI> targets = new ArrayList<>();
+
+		static Options parse(String[] args) {
+			Map<String, String> values = new HashMap<>();
+			for (int i = 0; i < args.length; i += 2) {
+				if (!args[i].startsWith("--") || i + 1 == args.length) {
+					throw new IllegalArgumentException("Expected --name value but got " + args[i]);
+				}
+				values.put(args[i].substring(2), args[i + 1]);
+			}
+
+			Options options = new Options();
+			options.rate = Integer.parseInt(values.getOrDefault("rate", Integer.toString(options.rate)));
+			options.durationSeconds = Integer.parseInt(values.getOrDefault("duration", Integer.toString(options.durationSeconds)));
+			options.warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", Integer.toString(options.warmupSeconds)));
+			options.writeRatio = Double.parseDouble(values.getOrDefault("writes", Double.toString(options.writeRatio)));
+			options.words = Integer.parseInt(values.getOrDefault("words", Integer.toString(options.words)));
+			options.groups = Integer.parseInt(values.getOrDefault("groups", Integer.toString(options.groups)));
+			options.groupSkew = Double.parseDouble(values.getOrDefault("group-skew", Double.toString(options.groupSkew)));
+			options.keySkew = Double.parseDouble(values.getOrDefault("key-skew", Double.toString(options.keySkew)));
+			options.limit = Integer.parseInt(values.getOrDefault("limit", Integer.toString(options.limit)));
+			options.seed = Long.parseLong(values.getOrDefault("seed", Long.toString(options.seed)));
+			options.http2 = Boolean.parseBoolean(values.getOrDefault("http2", Boolean.toString(options.http2)));
+			options.gzip = Boolean.parseBoolean(values.getOrDefault("gzip", Boolean.toString(options.gzip)));
+			options.lookupWords = Integer.parseInt(values.getOrDefault("lookup-words", Integer.toString(options.lookupWords)));
+			options.sequential = Boolean.parseBoolean(values.getOrDefault("sequential", Boolean.toString(options.sequential)));
+			options.output = values.getOrDefault("output", options.output);
+			String targets = values.getOrDefault("targets", "");
+			for (String target : targets.split(",")) {
+				if (!target.isBlank()) {
+					options.targets.add(URI.create(target.trim()));
+				}
+			}
+			return options;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package cloudservice.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples ranks from <code>0</code> to <code>n - 1</code> where rank <code>k</code> has a probability proportional to
+ * <code>1 / (k + 1)^exponent</code>. An exponent of 0 gives a uniform distribution, and around 1 a few ranks get most
+ * of the samples like the popularity of words usually does. The cumulative distribution is precomputed so sampling
+ * is a binary search.
+ */
+public class ZipfDistribution {
+	private final double[] cumulative;
+
+	public ZipfDistribution(int n, double exponent) {
+		cumulative = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += weight(k, exponent);
+			cumulative[k] = sum;
+		}
+		for (int k = 0; k < n; k++) {
+			cumulative[k] /= sum;
+		}
+	}
+
+	/**
+	 * Returns the relative weight of rank <code>k</code>, which is not normalized.
+	 */
+	public static double weight(int k, double exponent) {
+		return 1 / Math.pow(k + 1, exponent);
+	}
+
+	public int sample(Random random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		int rank = index >= 0 ? index : -index - 1;
+		return Math.min(rank, cumulative.length - 1);
+	}
+}
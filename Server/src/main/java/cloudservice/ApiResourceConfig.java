@@ -1,21 +1,80 @@
 package cloudservice;
 
-import jakarta.inject.Singleton;
+import cloudservice.admission.AdmissionController;
+import cloudservice.metrics.MetricsResource;
+import cloudservice.metrics.MetricsSource;
+import cloudservice.metrics.RequestMetrics;
+import cloudservice.replication.Follower;
+import cloudservice.replication.FollowerResource;
+import cloudservice.replication.ReadOnlyFilter;
+import cloudservice.replication.ReplicationLog;
+import cloudservice.replication.ReplicationResource;
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public class ApiResourceConfig extends ResourceConfig {
+	private final List<MetricsSource> metricsSources = new CopyOnWriteArrayList<>();
+
 	public ApiResourceConfig() {
+		this(new Database());
+	}
+
+	public ApiResourceConfig(Database database) {
+		this(database, new ResponseCache(ResponseCache.DEFAULT_MAX_BYTES));
+	}
+
+	public ApiResourceConfig(Database database, ResponseCache responseCache) {
+		this(database, responseCache, new WritePipeline(database));
+	}
+
+	public ApiResourceConfig(Database database, ResponseCache responseCache, WritePipeline writePipeline) {
+		RequestMetrics requestMetrics = new RequestMetrics();
+		register(requestMetrics);
 		register(LoggingExceptionMapper.class);
-		register(JsonIO.class);
+		register(new JsonIO(requestMetrics.jsonEncoding));
 
 		register(new AbstractBinder() {
 			@Override
 			protected void configure() {
-				bind(Database.class).to(Database.class).in(Singleton.class);
+				bind(database).to(Database.class);
+				bind(responseCache).to(ResponseCache.class);
+				bind(writePipeline).to(WritePipeline.class);
+				bind(requestMetrics).to(RequestMetrics.class);
 			}
 		});
 
 		register(SynonymResource.class);
+		metricsSources.add(requestMetrics);
+		metricsSources.add(database.getMetrics());
+		register(new MetricsResource(database, metricsSources));
+	}
+
+	/**
+	 * Limits how many reads and writes of synonyms are handled at once, see {@link AdmissionController}.
+	 */
+	public ApiResourceConfig withAdmissionControl(AdmissionController admissionController) {
+		register(admissionController);
+		metricsSources.add(admissionController);
+		return this;
+	}
+
+	/**
+	 * Adds the endpoints which followers use to replicate the database, see {@link ReplicationResource}.
+	 */
+	public ApiResourceConfig withLeader(Database database, ReplicationLog replicationLog) {
+		register(new ReplicationResource(database, replicationLog));
+		return this;
+	}
+
+	/**
+	 * Makes the API read-only and adds the replication status of the follower.
+	 */
+	public ApiResourceConfig withFollower(Follower follower) {
+		register(new ReadOnlyFilter(follower.getLeader()));
+		register(new FollowerResource(follower));
+		return this;
 	}
 }
@@ -0,0 +1,521 @@
+package cloudservice;
+
+import cloudservice.Database.SynonymEntry;
+import cloudservice.SynonymBatchReader.InvalidEntryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Seeds an empty database from a large file of synonyms. Importing the same file through the batch endpoint merges
+ * the groups one entry at a time while holding the database lock, which takes hours for tens of millions of synonyms.
+ * This builds all the groups in parallel instead and installs them at once:
+ * <ol>
+ * <li>The file is split into chunks at line breaks and the chunks are parsed in parallel. The words get their ids
+ * from a shared concurrent map, and each chunk collects its pairs of synonyms as longs.</li>
+ * <li>The pairs are sorted in parallel to remove duplicates, and the groups are found with a lock-free union-find
+ * where a root is always linked below a root with a smaller id, so concurrent unions can't create cycles.</li>
+ * <li>The collation keys are computed in parallel and all the words are sorted with a parallel merge sort. Taking the
+ * members of each group from the sorted words keeps them in order, so the groups don't need to be sorted on their
+ * own.</li>
+ * <li>The result is installed with {@link Database#restoreBulk}, which doesn't compute any keys or compare any
+ * words.</li>
+ * </ol>
+ * Everything runs in a dedicated {@link ForkJoinPool}, which the parallel sorts and streams use as well since they
+ * run in the pool of the thread that starts them.
+ * <br/>
+ * <br/>Files ending with <code>.csv</code> have a group of synonyms on each line, where the first field is the word and
+ * the rest are its synonyms. Fields can be quoted like <code>"a, b"</code>, with <code>""</code> for a quote inside
+ * them. Other files are newline delimited JSON with the same entries as the batch endpoint and the export. Since the
+ * file is split at line breaks, quoted fields can't contain line breaks and JSON arrays are not supported. Invalid
+ * entries are skipped and counted, like in the batch endpoint.
+ * <br/>
+ * <br/>Nothing is written to the write-ahead log, so a checkpoint should be written right after loading.
+ */
+public class BulkLoader {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BulkLoader.class);
+
+	private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+	/**
+	 * Ranges smaller than this are sorted by a single thread.
+	 */
+	private static final int SEQUENTIAL_SORT_SIZE = 8192;
+
+	private final int parallelism;
+	private final int chunkSize;
+
+	public BulkLoader(int parallelism) {
+		this(parallelism, DEFAULT_CHUNK_SIZE);
+	}
+
+	BulkLoader(int parallelism, int chunkSize) {
+		if (parallelism < 1 || chunkSize < 1) {
+			throw new IllegalArgumentException("Invalid parallelism " + parallelism + " or chunk size " + chunkSize);
+		}
+		this.parallelism = parallelism;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Loads the file into the database, which must be empty.
+	 *
+	 * @throws IOException If the file can't be read or contains malformed JSON, in which case nothing is loaded
+	 */
+	public Result load(Path file, Database database) throws IOException {
+		if (database.getWordCount() > 0) {
+			throw new IllegalStateException("A bulk load requires an empty database, but it has " + database.getWordCount() + " words");
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.submit(() -> loadInPool(file, database)).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading " + file);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private Result loadInPool(Path file, Database database) throws IOException {
+		long start = System.nanoTime();
+		boolean csv = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+		Result result = new Result();
+
+		// Parse the chunks and give every word an id
+		List<Chunk> chunks;
+		Map<String, Integer> ids = new ConcurrentHashMap<>();
+		AtomicInteger nextId = new AtomicInteger();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			chunks = split(channel);
+			chunks.parallelStream().forEach(chunk -> {
+				try {
+					chunk.parse(channel, csv, ids, nextId);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		String[] words = new String[nextId.get()];
+		chunks.parallelStream().forEach(chunk -> {
+			for (String word : chunk.newWords) {
+				words[ids.get(word)] = word;
+			}
+		});
+		int pairCount = 0;
+		for (Chunk chunk : chunks) {
+			result.entries += chunk.entries;
+			result.skipped += chunk.skipped;
+			pairCount += chunk.pairCount;
+		}
+		result.words = words.length;
+		LOGGER.info("Parsed {} entries with {} words from {} in {} chunks in {}ms, skipped {} invalid entries",
+				result.entries, words.length, file, chunks.size(), millisSince(start), result.skipped);
+
+		// Remove duplicate pairs and find the groups
+		long phaseStart = System.nanoTime();
+		long[] pairs = new long[pairCount];
+		int offset = 0;
+		for (Chunk chunk : chunks) {
+			System.arraycopy(chunk.pairs, 0, pairs, offset, chunk.pairCount);
+			offset += chunk.pairCount;
+		}
+		chunks = null;
+		Arrays.parallelSort(pairs);
+		int edgeCount = 0;
+		for (int i = 0; i < pairs.length; i++) {
+			if (i == 0 || pairs[i] != pairs[i - 1]) {
+				pairs[edgeCount++] = pairs[i];
+			}
+		}
+		long[] edges = pairs;
+		AtomicIntegerArray parents = new AtomicIntegerArray(words.length);
+		IntStream.range(0, words.length).parallel().forEach(id -> parents.set(id, id));
+		IntStream.range(0, edgeCount).parallel().forEach(i -> union(parents, first(edges[i]), second(edges[i])));
+		int[] roots = new int[words.length];
+		Arrays.parallelSetAll(roots, id -> find(parents, id));
+		result.synonyms = edgeCount;
+		LOGGER.info("Found the groups of {} synonyms in {}ms", edgeCount, millisSince(phaseStart));
+
+		// Sort all the words, which also sorts the members of every group
+		phaseStart = System.nanoTime();
+		byte[][] keys = new byte[words.length][];
+		Arrays.parallelSetAll(keys, id -> Dictionary.collationKey(words[id]));
+		int[] sortedIds = new int[words.length];
+		Arrays.parallelSetAll(sortedIds, id -> id);
+		new SortTask(sortedIds, new int[words.length], 0, words.length, keys, words).invoke();
+		LOGGER.info("Sorted {} words in {}ms", words.length, millisSince(phaseStart));
+
+		phaseStart = System.nanoTime();
+		int[] degrees = new int[words.length];
+		for (int i = 0; i < edgeCount; i++) {
+			degrees[first(edges[i])]++;
+			degrees[second(edges[i])]++;
+		}
+		int[][] neighbors = new int[words.length][];
+		for (int id = 0; id < words.length; id++) {
+			if (degrees[id] > 0) {
+				neighbors[id] = new int[degrees[id] + 1];
+				if (roots[id] == id) {
+					result.groups++; // Every word in a group has a synonym, so this is a root with others below it
+				}
+			}
+		}
+		for (int i = 0; i < edgeCount; i++) {
+			int id1 = first(edges[i]);
+			int id2 = second(edges[i]);
+			neighbors[id1][++neighbors[id1][0]] = id2;
+			neighbors[id2][++neighbors[id2][0]] = id1;
+		}
+		database.restoreBulk(words, keys, sortedIds, roots, neighbors);
+		LOGGER.info("Installed {} groups in {}ms", result.groups, millisSince(phaseStart));
+
+		result.millis = millisSince(start);
+		LOGGER.info("Loaded {} words in {} groups from {} in {}ms", result.words, result.groups, file, result.millis);
+		return result;
+	}
+
+	/**
+	 * Splits the file into chunks of about the chunk size which end at line breaks.
+	 */
+	private List<Chunk> split(FileChannel channel) throws IOException {
+		long size = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		List<Chunk> chunks = new ArrayList<>();
+		long start = 0;
+		while (start < size) {
+			long end = Math.min(size, start + chunkSize);
+			long position = end - 1;
+			end = size;
+			while (position < size && end == size) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				for (int i = 0; i < read; i++) {
+					if (buffer.get(i) == '\n') {
+						end = position + i + 1;
+						break;
+					}
+				}
+				position += read;
+			}
+			if (end - start > Integer.MAX_VALUE - 8) {
+				throw new IOException("The line at byte " + start + " is too long");
+			}
+			chunks.add(new Chunk(start, (int) (end - start)));
+			start = end;
+		}
+		return chunks;
+	}
+
+	private static long pair(int id1, int id2) {
+		return (long) Math.min(id1, id2) << 32 | Math.max(id1, id2);
+	}
+
+	private static int first(long pair) {
+		return (int) (pair >>> 32);
+	}
+
+	private static int second(long pair) {
+		return (int) pair;
+	}
+
+	/**
+	 * Links the roots of the two words, always the one with the larger id below the other. Parents only ever get
+	 * smaller, so concurrent unions can't create a cycle, and the compare-and-set fails if the root got a parent from
+	 * another thread meanwhile.
+	 */
+	private static void union(AtomicIntegerArray parents, int id1, int id2) {
+		while (true) {
+			int root1 = find(parents, id1);
+			int root2 = find(parents, id2);
+			if (root1 == root2) {
+				return;
+			}
+			if (parents.compareAndSet(Math.max(root1, root2), Math.max(root1, root2), Math.min(root1, root2))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Finds the root with path halving. A parent is only ever replaced by one of its ancestors, so it doesn't matter
+	 * if other threads are compressing the same path.
+	 */
+	private static int find(AtomicIntegerArray parents, int id) {
+		while (true) {
+			int parent = parents.get(id);
+			if (parent == id) {
+				return id;
+			}
+			int grandparent = parents.get(parent);
+			if (grandparent != parent) {
+				parents.compareAndSet(id, parent, grandparent);
+			}
+			id = grandparent;
+		}
+	}
+
+	private static long millisSince(long start) {
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	/**
+	 * Splits a line of CSV into fields. Quoted fields are taken as they are, unquoted fields are trimmed.
+	 */
+	static List<String> parseCsvLine(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		int i = 0;
+		while (i <= line.length()) {
+			field.setLength(0);
+			while (i < line.length() && line.charAt(i) == ' ') {
+				i++;
+			}
+			if (i < line.length() && line.charAt(i) == '"') {
+				for (i++; i < line.length(); i++) {
+					char c = line.charAt(i);
+					if (c == '"') {
+						if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+							i++;
+						} else {
+							i++;
+							break;
+						}
+					}
+					field.append(c);
+				}
+				while (i < line.length() && line.charAt(i) != ',') {
+					i++; // Anything between the closing quote and the comma is ignored
+				}
+				fields.add(field.toString());
+			} else {
+				int end = line.indexOf(',', i);
+				end = end < 0 ? line.length() : end;
+				fields.add(line.substring(i, end).trim());
+				i = end;
+			}
+			i++;
+		}
+		return fields;
+	}
+
+	/**
+	 * A part of the file which is parsed by one thread.
+	 */
+	private static final class Chunk {
+		final long start;
+		final int length;
+
+		int entries;
+		int skipped;
+		long[] pairs = new long[64];
+		int pairCount;
+		/**
+		 * The words which got their ids while parsing this chunk.
+		 */
+		final List<String> newWords = new ArrayList<>();
+
+		private Map<String, Integer> ids;
+		private AtomicInteger nextId;
+
+		Chunk(long start, int length) {
+			this.start = start;
+			this.length = length;
+		}
+
+		void parse(FileChannel channel, boolean csv, Map<String, Integer> ids, AtomicInteger nextId) throws IOException {
+			this.ids = ids;
+			this.nextId = nextId;
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) < 0) {
+					throw new IOException("The file was truncated while loading it");
+				}
+			}
+			String text = new String(buffer.array(), StandardCharsets.UTF_8);
+			if (csv) {
+				parseCsv(text);
+			} else {
+				parseJson(text);
+			}
+		}
+
+		private void parseCsv(String text) {
+			int lineStart = 0;
+			while (lineStart < text.length()) {
+				int lineEnd = text.indexOf('\n', lineStart);
+				lineEnd = lineEnd < 0 ? text.length() : lineEnd;
+				String line = text.substring(lineStart, lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd);
+				lineStart = lineEnd + 1;
+				if (line.isBlank()) {
+					continue;
+				}
+				List<String> fields = parseCsvLine(line);
+				fields.removeIf(String::isBlank);
+				if (fields.size() < 2) {
+					skipped++;
+					continue;
+				}
+				add(fields.get(0), fields.subList(1, fields.size()));
+			}
+		}
+
+		private void parseJson(String text) throws IOException {
+			try (SynonymBatchReader reader = new SynonymBatchReader(new StringReader(text))) {
+				while (reader.hasNext()) {
+					SynonymEntry entry;
+					try {
+						entry = reader.next();
+					} catch (InvalidEntryException e) {
+						skipped++;
+						continue;
+					}
+					add(entry.word, entry.synonyms);
+				}
+			} catch (IOException e) {
+				throw new IOException("Malformed JSON in the chunk at byte " + start + ": " + e.getMessage(), e);
+			}
+		}
+
+		private void add(String word, Collection<String> synonyms) {
+			int wordId = id(word);
+			for (String synonym : synonyms) {
+				int synonymId = id(synonym);
+				if (synonymId != wordId) {
+					if (pairCount == pairs.length) {
+						pairs = Arrays.copyOf(pairs, pairs.length * 2);
+					}
+					pairs[pairCount++] = pair(wordId, synonymId);
+				}
+			}
+			entries++;
+		}
+
+		private int id(String word) {
+			Integer id = ids.get(word);
+			if (id == null) {
+				id = ids.computeIfAbsent(word, w -> {
+					newWords.add(w);
+					return nextId.getAndIncrement();
+				});
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * A parallel merge sort of word ids in the order of {@link MemberList#ORDER}, using precomputed keys.
+	 */
+	private static final class SortTask extends RecursiveAction {
+		private final int[] ids;
+		private final int[] buffer;
+		private final int from;
+		private final int to;
+		private final byte[][] keys;
+		private final String[] words;
+
+		SortTask(int[] ids, int[] buffer, int from, int to, byte[][] keys, String[] words) {
+			this.ids = ids;
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.keys = keys;
+			this.words = words;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SEQUENTIAL_SORT_SIZE) {
+				sort(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new SortTask(ids, buffer, from, middle, keys, words), new SortTask(ids, buffer, middle, to, keys, words));
+			merge(from, middle, to);
+		}
+
+		private void sort(int from, int to) {
+			if (to - from <= 16) {
+				for (int i = from + 1; i < to; i++) {
+					int id = ids[i];
+					int j = i;
+					for (; j > from && compare(ids[j - 1], id) > 0; j--) {
+						ids[j] = ids[j - 1];
+					}
+					ids[j] = id;
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			sort(from, middle);
+			sort(middle, to);
+			merge(from, middle, to);
+		}
+
+		private void merge(int from, int middle, int to) {
+			if (compare(ids[middle - 1], ids[middle]) <= 0) {
+				return; // Already in order
+			}
+			System.arraycopy(ids, from, buffer, from, to - from);
+			int left = from;
+			int right = middle;
+			for (int i = from; i < to; i++) {
+				if (right == to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) {
+					ids[i] = buffer[left++];
+				} else {
+					ids[i] = buffer[right++];
+				}
+			}
+		}
+
+		private int compare(int id1, int id2) {
+			int c = Arrays.compareUnsigned(keys[id1], keys[id2]);
+			return c != 0 ? c : words[id1].compareTo(words[id2]);
+		}
+	}
+
+	public static class Result {
+		/**
+		 * The number of valid entries, which are lines in CSV files.
+		 */
+		public int entries;
+		public int skipped;
+		public int words;
+		public int groups;
+		/**
+		 * The number of distinct pairs of synonyms that were added explicitly.
+		 */
+		public int synonyms;
+		public long millis;
+	}
+}
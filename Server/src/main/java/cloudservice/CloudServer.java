@@ -1,52 +1,399 @@
 package cloudservice;
 
+import cloudservice.admission.AdmissionController;
+import cloudservice.admission.AimdLimit;
+import cloudservice.persistence.Checkpointer;
+import cloudservice.persistence.WriteAheadLog;
+import cloudservice.persistence.WriteAheadLog.FsyncPolicy;
+import cloudservice.replication.Follower;
+import cloudservice.replication.ReplicationLog;
+import jakarta.servlet.DispatcherType;
+import jakarta.ws.rs.core.MediaType;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.DefaultHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.servlets.CrossOriginFilter;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class CloudServer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CloudServer.class);
 
-	public void run() throws Exception {
-		Server server = new Server(getPort());
+	private WriteAheadLog writeAheadLog;
+	private ReplicationLog replicationLog;
+	private Follower follower;
+	private WritePipeline writePipeline;
+	private ScheduledExecutorService checkpointExecutor;
+
+	private final int port;
+	private Server server;
+	private ServerConnector connector;
+
+	/**
+	 * Creates a server on the port in the environment, in AWS Elastic Beanstalk the port is configured as an
+	 * environment variable.
+	 */
+	public CloudServer() {
+		this(Integer.parseInt(System.getenv().getOrDefault("PORT", "8080")));
+	}
+
+	/**
+	 * Creates a server on the specified port, or on any free port if it's 0. The rest of the configuration is still
+	 * read from the environment.
+	 */
+	public CloudServer(int port) {
+		this.port = port;
+	}
+
+	public void start() throws Exception {
+		URI leader = getLeader();
+		Database database = leader != null ? createFollower(leader) : createDatabase();
+		writePipeline = createWritePipeline(database);
+		int compressionMinBytes = getCompressionMinBytes();
+
+		server = new Server(createThreadPool());
+		connector = createConnector(server);
+		server.addConnector(connector);
 
 		ServletContextHandler servletContextHandler = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
-		servletContextHandler.addServlet(new ServletHolder("root-servlet", new ServletContainer(new ApiResourceConfig())), "/api/*");
-		servletContextHandler.addFilter(CrossOriginFilter.class, "/*", null);
+		// Writes suspend their requests while waiting for the write-ahead log, which requires async support in both
+		// the servlet and the filters in front of it
+		ApiResourceConfig resourceConfig = new ApiResourceConfig(database, createResponseCache(compressionMinBytes), writePipeline);
+		if (replicationLog != null) {
+			resourceConfig.withLeader(database, replicationLog);
+		} else if (follower != null) {
+			resourceConfig.withFollower(follower);
+		}
+		AdmissionController admissionController = createAdmissionController();
+		if (admissionController != null) {
+			resourceConfig.withAdmissionControl(admissionController);
+		}
+		ServletHolder servletHolder = new ServletHolder("root-servlet", new ServletContainer(resourceConfig));
+		servletHolder.setAsyncSupported(true);
+		servletContextHandler.addServlet(servletHolder, "/api/*");
+		FilterHolder corsFilter = servletContextHandler.addFilter(CrossOriginFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+		corsFilter.setAsyncSupported(true);
+
+		Handler apiHandler = servletContextHandler;
+		if (compressionMinBytes > 0) {
+			apiHandler = withCompression(servletContextHandler, compressionMinBytes);
+		}
 
 		HandlerList handlerList = new HandlerList();
-		handlerList.addHandler(servletContextHandler);
+		handlerList.addHandler(apiHandler);
 		handlerList.addHandler(new DefaultHandler());
 
 		server.setHandler(handlerList);
 
 		server.start();
-		LOGGER.info("Server started...");
+		LOGGER.info("Server started on port {}...", getPort());
+	}
+
+	/**
+	 * Returns the port the server is listening on, which is only known after starting if it was created with port 0.
+	 */
+	public int getPort() {
+		return connector.getLocalPort();
+	}
+
+	/**
+	 * Returns how many threads of the request thread pool are busy, which includes Jetty's acceptor and selector
+	 * threads. Suspended requests don't use a thread.
+	 */
+	public int getBusyThreads() {
+		return ((QueuedThreadPool) server.getThreadPool()).getBusyThreads();
+	}
+
+	public void stop() {
+		LOGGER.info("Shutting down...");
+		try {
+			server.stop();
+		} catch (Exception e) {
+			LOGGER.error("Failed to stop the Jetty server");
+		}
+		closeDatabase();
+	}
+
+	/**
+	 * Creates the database and restores it from the latest checkpoint and the write-ahead log, if persistence is
+	 * enabled.
+	 */
+	private Database createDatabase() throws IOException {
+		int replicationLogSize = getReplicationLogSize();
+		if (replicationLogSize > 0) {
+			replicationLog = new ReplicationLog(replicationLogSize);
+			LOGGER.info("Running as replication leader, keeping the last {} changes for the followers", replicationLogSize);
+		}
+
+		WriteAheadLog.Config logConfig = getLogConfig();
+		if (logConfig == null) {
+			LOGGER.warn("No write-ahead log configured, changes will be lost on restart");
+			Database database = new Database(null, replicationLog);
+			bulkLoad(database);
+			return database;
+		}
+
+		writeAheadLog = new WriteAheadLog(logConfig);
+		Database database = new Database(writeAheadLog, replicationLog);
+		Checkpointer checkpointer = new Checkpointer(database, writeAheadLog, logConfig.directory);
+
+		long start = System.nanoTime();
+		long checkpointSequence = checkpointer.restore();
+		writeAheadLog.replay(checkpointSequence, database::restore);
+		LOGGER.info("Restored the database from {} in {}ms", logConfig.directory, (System.nanoTime() - start) / 1_000_000);
+		if (bulkLoad(database)) {
+			checkpointer.forceCheckpoint(); // The loaded synonyms are not in the write-ahead log
+		}
+
+		long checkpointInterval = getCheckpointIntervalMinutes();
+		if (checkpointInterval > 0) {
+			checkpointExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "checkpointer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			checkpointExecutor.scheduleWithFixedDelay(checkpointer, checkpointInterval, checkpointInterval, TimeUnit.MINUTES);
+		}
+		return database;
+	}
+
+	/**
+	 * Seeds the database from the file in <code>BULK_LOAD_FILE</code>, see {@link BulkLoader}. This is only done if
+	 * the database is empty, so the variable can stay set when the server is restarted. The load uses
+	 * <code>BULK_LOAD_THREADS</code> threads, by default one per processor.
+	 *
+	 * @return True if the file was loaded
+	 */
+	private boolean bulkLoad(Database database) throws IOException {
+		Map<String, String> env = System.getenv();
+		String file = env.get("BULK_LOAD_FILE");
+		if (file == null) {
+			return false;
+		}
+		if (database.getWordCount() > 0) {
+			LOGGER.info("The database already has {} words, skipping the bulk load of {}", database.getWordCount(), file);
+			return false;
+		}
+		int threads = Integer.parseInt(env.getOrDefault("BULK_LOAD_THREADS",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		new BulkLoader(threads).load(Paths.get(file), database);
+		return true;
+	}
+
+	/**
+	 * Creates the thread pool for the requests. Requests which can't get a thread right away wait in a bounded queue,
+	 * when it's full new connections are rejected instead of piling up in memory.
+	 */
+	private QueuedThreadPool createThreadPool() {
+		Map<String, String> env = System.getenv();
+		int maxThreads = Integer.parseInt(env.getOrDefault("SERVER_MAX_THREADS", "200"));
+		int minThreads = Integer.parseInt(env.getOrDefault("SERVER_MIN_THREADS", "8"));
+		int queueSize = Integer.parseInt(env.getOrDefault("SERVER_QUEUE_SIZE", "10000"));
+		QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, 60_000, new BlockingArrayQueue<>(queueSize));
+		threadPool.setName("http");
+		return threadPool;
+	}
 
-		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-			LOGGER.info("Shutting down...");
+	/**
+	 * Creates the connector, which speaks HTTP/1.1 and unless <code>HTTP2_ENABLED</code> is false also HTTP/2 without
+	 * TLS (h2c). TLS is terminated in front of the server, so h2c is what lets a client send many concurrent queries
+	 * over a single connection, either by upgrading an HTTP/1.1 connection or with prior knowledge.
+	 * <br/>
+	 * <br/>Idle connections are kept open for <code>SERVER_IDLE_TIMEOUT_MS</code> (default 65000), which is longer
+	 * than the 60s idle timeout of the AWS load balancers so that the server doesn't close a connection the balancer is
+	 * about to reuse. The number of acceptor and selector threads are Jetty's defaults, based on the number of CPUs,
+	 * unless they are set.
+	 */
+	private ServerConnector createConnector(Server server) {
+		Map<String, String> env = System.getenv();
+		HttpConfiguration httpConfiguration = new HttpConfiguration();
+		List<ConnectionFactory> factories = new ArrayList<>();
+		factories.add(new HttpConnectionFactory(httpConfiguration));
+		if (Boolean.parseBoolean(env.getOrDefault("HTTP2_ENABLED", "true"))) {
+			HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(httpConfiguration);
+			http2.setMaxConcurrentStreams(Integer.parseInt(env.getOrDefault("HTTP2_MAX_CONCURRENT_STREAMS", "128")));
+			factories.add(http2);
+		}
+		int acceptors = Integer.parseInt(env.getOrDefault("SERVER_ACCEPTORS", "-1"));
+		int selectors = Integer.parseInt(env.getOrDefault("SERVER_SELECTORS", "-1"));
+
+		ServerConnector connector = new ServerConnector(server, acceptors, selectors, factories.toArray(new ConnectionFactory[0]));
+		connector.setPort(port);
+		connector.setIdleTimeout(Long.parseLong(env.getOrDefault("SERVER_IDLE_TIMEOUT_MS", "65000")));
+		connector.setAcceptQueueSize(Integer.parseInt(env.getOrDefault("SERVER_ACCEPT_QUEUE_SIZE", "0")));
+		return connector;
+	}
+
+	/**
+	 * Compresses JSON and text responses for clients which accept gzip. Synonym pages are compressed by
+	 * {@link SynonymResource} so that the compressed pages can be cached, and the handler leaves responses which
+	 * already have a <code>Content-Encoding</code> alone. Compressed request bodies are decompressed too, which makes
+	 * large batch imports faster to upload.
+	 */
+	private Handler withCompression(Handler handler, int minBytes) {
+		GzipHandler gzipHandler = new GzipHandler();
+		gzipHandler.setMinGzipSize(minBytes);
+		gzipHandler.setIncludedMethods("GET", "POST");
+		gzipHandler.setIncludedMimeTypes(MediaType.APPLICATION_JSON, SynonymResource.NDJSON, MediaType.TEXT_PLAIN);
+		gzipHandler.setInflateBufferSize(8192);
+		gzipHandler.setHandler(handler);
+		return gzipHandler;
+	}
+
+	/**
+	 * Creates a database which is a read-only copy of the leader's. A follower doesn't have a write-ahead log of its
+	 * own, it gets everything from the leader when it starts. If it falls too far behind it exits so that it's
+	 * restarted with a new snapshot.
+	 */
+	private Database createFollower(URI leader) throws InterruptedException {
+		if (getLogConfig() != null) {
+			LOGGER.warn("Ignoring the write-ahead log configuration, followers get their data from the leader");
+		}
+		Database database = new Database();
+		follower = new Follower(database, leader, () -> {
+			LOGGER.error("Exiting so that the follower is restarted with a new snapshot");
+			System.exit(1);
+		});
+		follower.start();
+		LOGGER.info("Running as replication follower of {}", leader);
+		return database;
+	}
+
+	/**
+	 * Creates the limits on how many synonym reads and writes are handled at once, unless <code>ADMISSION_CONTROL</code>
+	 * is false. By default the limits add up to less than the number of request threads, so requests are rejected
+	 * before they would have to queue for a thread.
+	 */
+	private AdmissionController createAdmissionController() {
+		Map<String, String> env = System.getenv();
+		if (!Boolean.parseBoolean(env.getOrDefault("ADMISSION_CONTROL", "true"))) {
+			return null;
+		}
+		int maxReads = Integer.parseInt(env.getOrDefault("ADMISSION_MAX_READS", "150"));
+		int maxWrites = Integer.parseInt(env.getOrDefault("ADMISSION_MAX_WRITES", "40"));
+		long readTarget = Long.parseLong(env.getOrDefault("ADMISSION_READ_TARGET_MS", "50"));
+		long writeTarget = Long.parseLong(env.getOrDefault("ADMISSION_WRITE_TARGET_MS", "500"));
+		int retryAfter = Integer.parseInt(env.getOrDefault("ADMISSION_RETRY_AFTER_SECONDS", "1"));
+		LOGGER.info("Admitting up to {} reads and {} writes at once, with a read latency target of {}ms", maxReads,
+				maxWrites, readTarget);
+		// Writes back off faster than reads, so they give way first even when both are slow
+		return new AdmissionController(new AimdLimit(Math.min(8, maxReads), maxReads, 0.9),
+				new AimdLimit(1, maxWrites, 0.75), readTarget, writeTarget, retryAfter);
+	}
+
+	private ResponseCache createResponseCache(int compressionMinBytes) {
+		String megabytes = System.getenv("RESPONSE_CACHE_MB");
+		long maxBytes = megabytes != null ? Long.parseLong(megabytes) * 1024 * 1024 : ResponseCache.DEFAULT_MAX_BYTES;
+		return new ResponseCache(maxBytes, compressionMinBytes);
+	}
+
+	/**
+	 * Returns the size from which responses are compressed, set with <code>COMPRESSION_MIN_BYTES</code>. Smaller
+	 * responses would barely shrink, 0 disables compression.
+	 */
+	private int getCompressionMinBytes() {
+		return Integer.parseInt(System.getenv().getOrDefault("COMPRESSION_MIN_BYTES", "1024"));
+	}
+
+	/**
+	 * Creates the pipeline for additions, which uses a single writer thread if <code>WRITE_QUEUE_SIZE</code> is larger
+	 * than 0. Otherwise each request applies its own changes.
+	 */
+	private WritePipeline createWritePipeline(Database database) {
+		Map<String, String> env = System.getenv();
+		int queueSize = Integer.parseInt(env.getOrDefault("WRITE_QUEUE_SIZE", "0"));
+		int batchSize = Integer.parseInt(env.getOrDefault("WRITE_BATCH_SIZE", "1000"));
+		if (queueSize > 0) {
+			LOGGER.info("Additions are applied by a single writer in batches of up to {}", batchSize);
+		}
+		return new WritePipeline(database, queueSize, batchSize);
+	}
+
+	private void closeDatabase() {
+		if (follower != null) {
+			follower.close();
+		}
+		if (writePipeline != null) {
+			writePipeline.close();
+		}
+		if (checkpointExecutor != null) {
+			checkpointExecutor.shutdownNow();
+		}
+		if (writeAheadLog != null) {
 			try {
-				server.stop();
-			} catch (Exception e) {
-				LOGGER.error("Failed to stop the Jetty server");
+				writeAheadLog.close();
+			} catch (IOException e) {
+				LOGGER.error("Failed to close the write-ahead log", e);
 			}
-		}));
+		}
+	}
+
+	/**
+	 * Returns the configuration of the write-ahead log, or null if persistence is disabled. Persistence is enabled by
+	 * setting <code>WAL_DIRECTORY</code>.
+	 */
+	private WriteAheadLog.Config getLogConfig() {
+		Map<String, String> env = System.getenv();
+		String directory = env.get("WAL_DIRECTORY");
+		if (directory == null) {
+			return null;
+		}
+		return new WriteAheadLog.Config(Paths.get(directory),
+				FsyncPolicy.valueOf(env.getOrDefault("WAL_FSYNC_POLICY", "batch").toUpperCase()),
+				Integer.parseInt(env.getOrDefault("WAL_BATCH_SIZE", "256")),
+				Long.parseLong(env.getOrDefault("WAL_COMMIT_DELAY_MS", "2")),
+				Long.parseLong(env.getOrDefault("WAL_FSYNC_INTERVAL_MS", "1000")));
+	}
+
+	/**
+	 * Returns the address of the leader if this node is a follower, set with <code>REPLICATION_LEADER</code>.
+	 */
+	private URI getLeader() {
+		String leader = System.getenv("REPLICATION_LEADER");
+		return leader != null ? URI.create(leader) : null;
 	}
 
 	/**
-	 * Returns the port to use, in AWS Elastic Beanstalk the port is configured as an environment variable.
+	 * Returns how many changes the leader keeps for the followers, 0 if this node isn't a leader.
 	 */
-	private int getPort() {
-		return Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
+	private int getReplicationLogSize() {
+		return Integer.parseInt(System.getenv().getOrDefault("REPLICATION_LOG_SIZE", "0"));
+	}
+
+	/**
+	 * Returns how often to write checkpoints when persistence is enabled, 0 disables checkpoints.
+	 */
+	private long getCheckpointIntervalMinutes() {
+		return Long.parseLong(System.getenv().getOrDefault("CHECKPOINT_INTERVAL_MINUTES", "30"));
 	}
 
 	public static void main(String[] args) throws Exception {
-		new CloudServer().run();
+		CloudServer server = new CloudServer();
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
 	}
 }
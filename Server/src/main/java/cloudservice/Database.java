@@ -1,206 +1,1527 @@
 package cloudservice;
 
+import cloudservice.metrics.DatabaseMetrics;
+import cloudservice.metrics.Histogram;
+import cloudservice.persistence.WriteAheadLog;
+import cloudservice.replication.ReplicationLog;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableList.Builder;
 
-import java.text.Collator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 /**
- * This class stores all the synonyms in memory. Updates are implemented using Union-Find to make them go faster since
- * we are only interested in adding synonyms. To support removals as well we would need to redesign.
+ * This class stores all the synonyms in memory. The main priority is to make queries fast, so as much as possible is
+ * pre-computed when synonyms are added, and queries never take a lock. The worst case we need to handle is when all
+ * the words are connected by transitivity, so that every write changes the same group.
  * <br/>
- * <br/>The main priority is to make queries fast, so it's important that we pre-compute as much as possible, and that we use
- * a good locking mechanism.
+ * <br/>The words are stored once in a {@link Dictionary}, which gives them integer ids and precomputed collation keys,
+ * and everything else is arrays indexed by id. The groups are a union-find forest, and the state of each group is
+ * stored at its root. That includes the sorted list of its words, a {@link MemberList} where merging a few words into
+ * a large group only copies a few small chunks, so the time to add a synonym stays about the same regardless of the
+ * size of the group.
  * <br/>
- * <br/>To do some benchmarking I added 300k synonyms using 10 workers (see <code>LoadTest</code>}, and then ran 100k
- * modifications/queries as quickly as possible in three separate tests. In this test all synonyms are connected by
- * transitivity since that is the worst case we need to handle.
- * <ul>
- *     <li>When testing modifications, response time for adding synonyms went from 40ms to 330ms during the test (as
- *     more synonyms were added). Part of this time is merging the synonym lists in the database and part of it is
- *     contention for the lock since only 1 of 10 workers can have access at a time.</li>
- *     <li>When testing queries, response time for querying synonyms was consistently sub 0.3ms during the test (with
- *     300k synonyms in the database)</li>
- *     <li>When testing both modifications and queries at the same time, response time for querying synonyms was above
- *     100ms throughout the test, which isn't surprising since the modifications lock the database a lot of the time.</li>
- * </ul>
- * <br/>My conclusion is that this is good enough performance if this is what the final system should look like. The
- * worst case is when there is a heavy load with both queries and modifications at the same time but realistically I
- * think that scenario is unlikely.
+ * <br/>The member lists are immutable, so a write computes the merged list on the side while readers keep using the
+ * old one, and then publishes the result by swapping a few references. Readers only have to retry if they overlap
+ * with that swap, which is detected using a sequence counter (a seqlock), and path compression is only done by writers
+ * so reads never modify shared state. Writes lock the roots of the groups they merge, so writes to different groups
+ * are computed in parallel, and only the publication is serialized.
  * <br/>
- * <br/>We could improve performance in the last test by having two versions of the database,
- * one live and one that is being modified, and then just swapping them when we are done, then I think we would have
- * vastly better response times for queries. We could also use binary search when merging the synonym lists to speed up
- * the modification queries as well.
+ * <br/>To support removals the synonyms that were explicitly added are stored as well, as a list of neighbors for
+ * every word. The forest still decides which group a word is in, and the edges are only used to find out if a group
+ * falls apart when one of them is removed. That is done with a search from both ends of the removed edge which stops
+ * as soon as they meet, or when one side runs out of words, in which case that side is the part that was
+ * disconnected. Either way only the smaller part is visited, so removing a synonym from a large group is cheap unless
+ * it splits the group in halves. Removals hold the state lock exclusively, and queries keep running meanwhile.
+ * <br/>
+ * <br/>Reads of several groups, such as lookups and exports, are also done without a lock and retried if a write was
+ * published meanwhile. Only if writes keep getting in the way they block publication for a moment, see
+ * {@link #readConsistently(Supplier)}. Checkpoints only block writes while they copy the references to the groups.
  */
 public class Database {
-	private final ReadWriteLock lock = new ReentrantReadWriteLock();
-	private final Lock readLock = lock.readLock();
-	private final Lock writeLock = lock.writeLock();
+	private static final int ROOT_LOCK_STRIPES = 1024;
+	/**
+	 * How many times {@link #readConsistently(Supplier)} reads the groups without a lock before it blocks publication
+	 * instead.
+	 */
+	private static final int MAX_OPTIMISTIC_SCANS = 4;
+	private static final int PAGE_SHIFT = Dictionary.PAGE_SHIFT;
+	private static final int PAGE_MASK = Dictionary.PAGE_SIZE - 1;
+
+	private static final VarHandle PARENTS = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle ROOTS = MethodHandles.arrayElementVarHandle(Root[].class);
+	private static final VarHandle EDGES = MethodHandles.arrayElementVarHandle(int[][].class);
+	private static final VarHandle NEIGHBORS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	/**
+	 * The neighbors of a word without any, see {@link #edges}.
+	 */
+	private static final int[] NO_EDGES = new int[1];
+
+	/**
+	 * Normal writes take this lock in shared mode so that they can run at the same time. Operations which need all the
+	 * groups to stay the same, such as batches, checkpoints and restores, take it in exclusive mode.
+	 */
+	private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+	/**
+	 * A write locks the roots of all the groups it merges, so writes to different groups don't block each other. The
+	 * locks are striped by the id of the root so we don't need a lock object for every word.
+	 */
+	private final Lock[] rootLocks = new Lock[ROOT_LOCK_STRIPES];
+	/**
+	 * Serializes the publication of changes so that the sequence below stays consistent. Only a few references are
+	 * assigned while holding it, all the expensive work is done before.
+	 */
+	private final Lock publishLock = new ReentrantLock();
+
+	/**
+	 * Incremented before and after a write publishes its changes, so it's odd while a publication is in progress.
+	 */
+	private volatile long publishSequence;
+	/**
+	 * Incremented before and after a removal splits a group, so it's odd while a split is in progress. A split moves
+	 * words to their new group before it publishes the rest of the group, so readers which need all the groups to be
+	 * consistent with each other check this as well. It's only modified while holding the publish lock.
+	 */
+	private volatile long splitSequence;
+
+	private final Dictionary dictionary = new Dictionary();
+	/**
+	 * The union-find forest, indexed by word id and split into pages like the dictionary. Each entry contains the id
+	 * of the parent plus one, so that 0 means the word is a root. New words are roots, so they don't need to be
+	 * initialized, and pages are only allocated when some word in them gets a parent.
+	 */
+	private volatile int[][] parents = new int[16][];
+	/**
+	 * The state of each group, stored at the id of its root. Words without any synonyms don't have any state.
+	 */
+	private volatile Root[][] roots = new Root[16][];
+	/**
+	 * The ids of the words each word was explicitly added as a synonym of or with, stored in pages like the forest.
+	 * Each array starts with the number of neighbors, followed by the neighbors and some free space. New neighbors are
+	 * appended in place, but the neighbors that are already counted are never modified, a removal creates a new array.
+	 * That way a checkpoint only needs a copy of the counts to keep using the arrays without any locks. They are only
+	 * modified while holding the lock of the word's root or the exclusive state lock, and the count is written last
+	 * with release semantics so that a checkpoint can read it while additions continue.
+	 */
+	private volatile int[][][] edges = new int[16][][];
+
+	private final WriteAheadLog writeAheadLog;
+	private final ReplicationLog replicationLog;
+
+	/**
+	 * Random for each database instance, so that versions from before a restart are never mistaken for current ones.
+	 */
+	private final long epoch = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+	private final AtomicLong lastVersion = new AtomicLong();
 
-	private final Map<String, Node> wordToNode = new LinkedHashMap<>();
+	private final DatabaseMetrics metrics = new DatabaseMetrics();
+
+	public Database() {
+		this(null);
+	}
+
+	/**
+	 * Creates a database where all changes are written to the log before they are acknowledged. The log must be
+	 * replayed into the database using {@link #restore(WriteAheadLog.Entry)} before any changes are made.
+	 */
+	public Database(WriteAheadLog writeAheadLog) {
+		this(writeAheadLog, null);
+	}
 
 	/**
-	 * Add new synonyms, this method will lock the database from reads during the operation.
+	 * Creates a database which also appends all changes to a replication log, in the same order as they are written to
+	 * the write-ahead log, so that they can be streamed to followers. Either log may be null.
+	 */
+	public Database(WriteAheadLog writeAheadLog, ReplicationLog replicationLog) {
+		this.writeAheadLog = writeAheadLog;
+		this.replicationLog = replicationLog;
+		for (int i = 0; i < rootLocks.length; i++) {
+			rootLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Add new synonyms, all changes are computed first and then made visible to queries at once. Writes to different
+	 * groups run in parallel, and queries are never blocked by them.
+	 * <br/>
+	 * <br/>If there is a write-ahead log the change is appended to it before it's applied. Writes to different groups
+	 * can be applied in a different order than they are in the log, but that doesn't matter since adding synonyms gives
+	 * the same groups in any order. Removals don't commute with additions, but they hold the state lock exclusively
+	 * so they are always applied in the same order as they are logged. Waiting for it to be written to disk is done
+	 * after applying the change, so that other writers can join the same fsync. This means a change can be visible to
+	 * queries slightly before it's durable.
 	 */
 	public void addSynonyms(String word, Set<String> synonyms) {
-		writeLock.lock();
+		awaitDurable(logAndApply(word, synonyms));
+	}
+
+	/**
+	 * Same as {@link #addSynonyms(String, Set)}, but instead of blocking until the change is durable the returned
+	 * future is completed when it is. The change itself is applied before this returns.
+	 */
+	public CompletableFuture<Void> addSynonymsAsync(String word, Set<String> synonyms) {
 		try {
-			Node wordNode = getNode(word);
-			for (String synonym : synonyms) {
-				Node synonymNode = getNode(synonym);
-				wordNode.union(synonymNode);
+			return whenDurable(logAndApply(word, synonyms));
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Appends the change to the write-ahead log and applies it, returning its sequence number in the log.
+	 */
+	private long logAndApply(String word, Set<String> synonyms) {
+		long sequence = 0;
+		long acquired = lock(stateLock.readLock(), metrics.stateReadLockWait);
+		try {
+			if (writeAheadLog != null) {
+				sequence = writeAheadLog.append(word, synonyms);
 			}
+			if (replicationLog != null) {
+				replicationLog.append(word, synonyms, false);
+			}
+			applySynonyms(word, synonyms);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write to the write-ahead log", e);
 		} finally {
-			writeLock.unlock();
+			unlock(stateLock.readLock(), acquired, metrics.stateReadLockHold);
 		}
+		return sequence;
 	}
 
-	private Node getNode(String word) {
-		return wordToNode.computeIfAbsent(word, k -> new Node(word));
+	/**
+	 * Locks the lock and records how long that took, returning when the lock was acquired so that the caller can
+	 * record how long it was held with {@link #unlock(Lock, long, Histogram)}.
+	 */
+	private static long lock(Lock lock, Histogram wait) {
+		long start = System.nanoTime();
+		lock.lock();
+		long acquired = System.nanoTime();
+		wait.record(acquired - start);
+		return acquired;
+	}
+
+	private static void unlock(Lock lock, long acquired, Histogram hold) {
+		long released = System.nanoTime();
+		lock.unlock();
+		hold.record(released - acquired);
+	}
+
+	private void awaitDurable(long sequence) {
+		if (writeAheadLog != null && sequence > 0) {
+			try {
+				writeAheadLog.awaitDurable(sequence);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to write to the write-ahead log", e);
+			}
+		}
+	}
+
+	private CompletableFuture<Void> whenDurable(long sequence) {
+		if (writeAheadLog == null || sequence <= 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		writeAheadLog.whenDurable(sequence).whenComplete((ignored, e) -> {
+			if (e == null) {
+				result.complete(null);
+			} else if (e instanceof IOException) {
+				result.completeExceptionally(new UncheckedIOException("Failed to write to the write-ahead log", (IOException) e));
+			} else {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
 	}
 
 	/**
-	 * Returns the synonyms of the specified word, limited to at most the specified limit amount of results. The total
-	 * count is also returned as part of the result.
+	 * Adds many synonym entries at once. The database is locked once for the whole batch, and the entries are first
+	 * grouped by which groups they connect so that every group that changes is only merged and published once, instead
+	 * of once per entry. The entries are appended to the write-ahead log one by one so replaying them gives the same
+	 * result, and we only wait for the last one to be durable.
 	 */
-	public SynonymPage getSynonyms(String word, int limit) {
-		readLock.lock();
+	public void addSynonyms(List<SynonymEntry> entries) {
+		awaitDurable(logAndApply(entries));
+	}
+
+	/**
+	 * Same as {@link #addSynonyms(List)}, but returns a future which is completed when the entries are durable instead
+	 * of blocking.
+	 */
+	public CompletableFuture<Void> addSynonymsAsync(List<SynonymEntry> entries) {
+		try {
+			return whenDurable(logAndApply(entries));
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private long logAndApply(List<SynonymEntry> entries) {
+		long sequence = 0;
+		long acquired = lock(stateLock.writeLock(), metrics.stateWriteLockWait);
 		try {
-			Node node = wordToNode.get(word);
-			if (node == null) {
-				return new SynonymPage(0, ImmutableList.of());
+			if (writeAheadLog != null) {
+				for (SynonymEntry entry : entries) {
+					sequence = writeAheadLog.append(entry.word, entry.synonyms);
+				}
+			}
+			if (replicationLog != null) {
+				for (SynonymEntry entry : entries) {
+					replicationLog.append(entry.word, entry.synonyms, false);
+				}
+			}
+			applyBatch(entries);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write to the write-ahead log", e);
+		} finally {
+			unlock(stateLock.writeLock(), acquired, metrics.stateWriteLockHold);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Applies an entry from the write-ahead log without writing it to the log again, used when restoring the database
+	 * from the log.
+	 */
+	public void restore(WriteAheadLog.Entry entry) {
+		if (entry.removal) {
+			for (String synonym : entry.synonyms) {
+				restoreRemoval(entry.word, synonym);
+			}
+		} else {
+			restoreSynonyms(entry.word, entry.synonyms);
+		}
+	}
+
+	/**
+	 * Adds synonyms without writing them to the write-ahead log, used when restoring the database from the log.
+	 */
+	public void restoreSynonyms(String word, Set<String> synonyms) {
+		stateLock.readLock().lock();
+		try {
+			applySynonyms(word, synonyms);
+		} finally {
+			stateLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Merges the groups of all the words. The roots of the groups are locked in a fixed order to avoid deadlocks, but
+	 * another writer may have merged one of them into some other group before we got the lock, in which case we
+	 * release the locks and try again with the new roots.
+	 */
+	private void applySynonyms(String word, Set<String> synonyms) {
+		int[] ids = new int[synonyms.size() + 1];
+		int count = 0;
+		ids[count++] = dictionary.intern(word);
+		for (String synonym : synonyms) {
+			ids[count++] = dictionary.intern(synonym);
+		}
+
+		while (true) {
+			int[] roots = findRoots(ids);
+			long start = System.nanoTime();
+			int[] stripes = lockRoots(roots);
+			long acquired = System.nanoTime();
+			metrics.rootLockWait.record(acquired - start);
+			try {
+				if (areRoots(roots)) {
+					if (roots.length > 1) {
+						union(roots);
+					}
+					addEdges(ids, count);
+					return;
+				}
+			} finally {
+				long released = System.nanoTime();
+				for (int i = stripes.length - 1; i >= 0; i--) {
+					rootLocks[stripes[i]].unlock();
+				}
+				metrics.rootLockHold.record(released - acquired);
+			}
+		}
+	}
+
+	private int[] findRoots(int[] ids) {
+		int[] roots = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			roots[i] = find(ids[i]);
+		}
+		return Arrays.stream(roots).distinct().toArray();
+	}
+
+	private int[] lockRoots(int[] roots) {
+		int[] stripes = Arrays.stream(roots)
+				.map(root -> root & (ROOT_LOCK_STRIPES - 1))
+				.sorted()
+				.distinct()
+				.toArray();
+		for (int stripe : stripes) {
+			rootLocks[stripe].lock();
+		}
+		return stripes;
+	}
+
+	private boolean areRoots(int[] roots) {
+		for (int root : roots) {
+			if (parentOf(root) != root) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Applies a batch of entries in two steps. First the existing roots are linked using a temporary union-find which
+	 * is local to the batch, without touching the database. Then each set of linked roots is merged with
+	 * {@link #union(int[])}, which merges the smaller lists into the largest one. This way a group which is touched by
+	 * many entries in the batch is only copied once.
+	 */
+	private void applyBatch(List<SynonymEntry> entries) {
+		Map<Integer, Integer> batchParent = new HashMap<>();
+		for (SynonymEntry entry : entries) {
+			int[] ids = new int[entry.synonyms.size() + 1];
+			int count = 0;
+			ids[count++] = dictionary.intern(entry.word);
+			int first = batchFind(batchParent, find(ids[0]));
+			for (String synonym : entry.synonyms) {
+				ids[count] = dictionary.intern(synonym);
+				int other = batchFind(batchParent, find(ids[count++]));
+				if (other != first) {
+					batchParent.put(other, first);
+				}
+			}
+			addEdges(ids, count);
+		}
+
+		Map<Integer, List<Integer>> components = new HashMap<>();
+		for (int root : batchParent.keySet()) {
+			components.computeIfAbsent(batchFind(batchParent, root), r -> new ArrayList<>()).add(root);
+		}
+		for (Map.Entry<Integer, List<Integer>> component : components.entrySet()) {
+			List<Integer> roots = component.getValue();
+			roots.add(component.getKey());
+			union(roots.stream().mapToInt(Integer::intValue).toArray());
+		}
+	}
+
+	private static int batchFind(Map<Integer, Integer> batchParent, int id) {
+		int root = id;
+		Integer parent;
+		while ((parent = batchParent.get(root)) != null) {
+			root = parent;
+		}
+		while ((parent = batchParent.get(id)) != null && parent != root) {
+			batchParent.put(id, root);
+			id = parent;
+		}
+		return root;
+	}
+
+	/**
+	 * Finds the root and compresses the path on the way. This is safe to do while other writers are merging groups
+	 * since a word's parent is only ever replaced by one of its ancestors, but it's only done by writers so that reads
+	 * never modify shared state.
+	 */
+	private int find(int id) {
+		int root = findRoot(id);
+		while (id != root) {
+			int parent = parentOf(id);
+			if (parent != root) {
+				setParent(id, root);
+			}
+			id = parent;
+		}
+		return root;
+	}
+
+	/**
+	 * Finds the root without modifying anything, this is safe to call without any locks.
+	 */
+	private int findRoot(int id) {
+		int parent = parentOf(id);
+		while (parent != id) {
+			id = parent;
+			parent = parentOf(id);
+		}
+		return id;
+	}
+
+	private int parentOf(int id) {
+		int[][] parents = this.parents;
+		int pageIndex = id >>> PAGE_SHIFT;
+		int[] page = pageIndex < parents.length ? parents[pageIndex] : null;
+		if (page == null) {
+			return id;
+		}
+		int parent = (int) PARENTS.getVolatile(page, id & PAGE_MASK);
+		return parent == 0 ? id : parent - 1;
+	}
+
+	private void setParent(int id, int parent) {
+		int pageIndex = id >>> PAGE_SHIFT;
+		int[][] parents = this.parents;
+		if (pageIndex >= parents.length || parents[pageIndex] == null) {
+			parents = allocateParentPage(pageIndex);
+		}
+		PARENTS.setVolatile(parents[pageIndex], id & PAGE_MASK, parent + 1);
+	}
+
+	private synchronized int[][] allocateParentPage(int pageIndex) {
+		int[][] parents = this.parents;
+		if (pageIndex >= parents.length) {
+			parents = Arrays.copyOf(parents, Math.max(pageIndex + 1, parents.length * 2));
+		}
+		if (parents[pageIndex] == null) {
+			parents[pageIndex] = new int[Dictionary.PAGE_SIZE];
+		}
+		this.parents = parents;
+		return parents;
+	}
+
+	/**
+	 * Returns the state of the group with the specified root, or null if the word doesn't have any synonyms.
+	 */
+	private Root rootOf(int id) {
+		Root[][] roots = this.roots;
+		int pageIndex = id >>> PAGE_SHIFT;
+		Root[] page = pageIndex < roots.length ? roots[pageIndex] : null;
+		return page != null ? (Root) ROOTS.getVolatile(page, id & PAGE_MASK) : null;
+	}
+
+	private void setRoot(int id, Root root) {
+		int pageIndex = id >>> PAGE_SHIFT;
+		Root[][] roots = this.roots;
+		if (pageIndex >= roots.length || roots[pageIndex] == null) {
+			roots = allocateRootPage(pageIndex);
+		}
+		ROOTS.setVolatile(roots[pageIndex], id & PAGE_MASK, root);
+	}
+
+	private synchronized Root[][] allocateRootPage(int pageIndex) {
+		Root[][] roots = this.roots;
+		if (pageIndex >= roots.length) {
+			roots = Arrays.copyOf(roots, Math.max(pageIndex + 1, roots.length * 2));
+		}
+		if (roots[pageIndex] == null) {
+			roots[pageIndex] = new Root[Dictionary.PAGE_SIZE];
+		}
+		this.roots = roots;
+		return roots;
+	}
+
+	/**
+	 * Returns the neighbors of the word, the caller must hold the lock of its root or the exclusive state lock.
+	 */
+	private int[] edgesOf(int id) {
+		int[][][] edges = this.edges;
+		int pageIndex = id >>> PAGE_SHIFT;
+		int[][] page = pageIndex < edges.length ? edges[pageIndex] : null;
+		int[] neighbors = page != null ? (int[]) EDGES.getVolatile(page, id & PAGE_MASK) : null;
+		return neighbors != null ? neighbors : NO_EDGES;
+	}
+
+	private void setEdges(int id, int[] neighbors) {
+		int pageIndex = id >>> PAGE_SHIFT;
+		int[][][] edges = this.edges;
+		if (pageIndex >= edges.length || edges[pageIndex] == null) {
+			edges = allocateEdgePage(pageIndex);
+		}
+		EDGES.setVolatile(edges[pageIndex], id & PAGE_MASK, neighbors[0] > 0 ? neighbors : null);
+	}
+
+	private synchronized int[][][] allocateEdgePage(int pageIndex) {
+		int[][][] edges = this.edges;
+		if (pageIndex >= edges.length) {
+			edges = Arrays.copyOf(edges, Math.max(pageIndex + 1, edges.length * 2));
+		}
+		if (edges[pageIndex] == null) {
+			edges[pageIndex] = new int[Dictionary.PAGE_SIZE][];
+		}
+		this.edges = edges;
+		return edges;
+	}
+
+	/**
+	 * Adds edges between the first word and each of the others, unless they already exist. All the words must be in
+	 * the same group, and the caller must hold the lock of its root.
+	 */
+	private void addEdges(int[] ids, int count) {
+		int word = ids[0];
+		for (int i = 1; i < count; i++) {
+			int synonym = ids[i];
+			if (synonym != word && !hasEdge(word, synonym)) {
+				appendEdge(word, synonym);
+				appendEdge(synonym, word);
 			}
-			List<String> allSynonyms = node.find().members;
-			List<String> result = new ArrayList<>();
-			for (String synonym : allSynonyms) {
-				if (result.size() == limit) {
-					break;
+		}
+	}
+
+	/**
+	 * Appends a neighbor in place if there is space, otherwise the array is replaced by a larger copy. The neighbor is
+	 * written before the count is increased, so the array is consistent for anyone who has copied the count.
+	 */
+	private void appendEdge(int id, int neighbor) {
+		int[] neighbors = edgesOf(id);
+		int count = neighbors[0];
+		if (count + 1 == neighbors.length) {
+			neighbors = Arrays.copyOf(neighbors, count + 2 + (count >> 1));
+			neighbors[count + 1] = neighbor;
+			neighbors[0] = count + 1;
+			setEdges(id, neighbors);
+		} else {
+			neighbors[count + 1] = neighbor;
+			NEIGHBORS.setRelease(neighbors, 0, count + 1);
+		}
+	}
+
+	/**
+	 * Returns true if there is an edge between the words, only the neighbors of the one with fewest are searched.
+	 */
+	private boolean hasEdge(int id1, int id2) {
+		int[] neighbors1 = edgesOf(id1);
+		int[] neighbors2 = edgesOf(id2);
+		return neighbors1[0] <= neighbors2[0] ? contains(neighbors1, id2) : contains(neighbors2, id1);
+	}
+
+	private static boolean contains(int[] neighbors, int id) {
+		for (int i = 1; i <= neighbors[0]; i++) {
+			if (neighbors[i] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void removeEdge(int id, int neighbor) {
+		int[] neighbors = edgesOf(id);
+		int[] updated = new int[neighbors[0]];
+		for (int i = 1; i <= neighbors[0]; i++) {
+			if (neighbors[i] != neighbor) {
+				updated[++updated[0]] = neighbors[i];
+			}
+		}
+		setEdges(id, updated);
+	}
+
+	private MemberList membersOf(int root) {
+		Root state = rootOf(root);
+		return state != null ? state.members : MemberList.of(dictionary, root);
+	}
+
+	private int rankOf(int root) {
+		Root state = rootOf(root);
+		return state != null ? state.rank : 1;
+	}
+
+	/**
+	 * Merges all the specified roots into the one with the highest rank, the caller must have locked all the roots. The
+	 * merged list is computed before anything is modified so that the publication itself is only a couple of
+	 * assignments.
+	 * <br/>
+	 * <br/>When many groups are merged at once, which happens in batches, all but the largest group are sorted
+	 * together using {@link MemberList#fromIds(Dictionary, int[], int)} and then merged into the largest one. Merging
+	 * them one by one would compare and copy the growing result once for every source.
+	 */
+	private void union(int[] roots) {
+		MemberList[] members = new MemberList[roots.length];
+		int target = 0;
+		int largest = 0;
+		int smallerCount = 0;
+		for (int i = 0; i < roots.length; i++) {
+			members[i] = membersOf(roots[i]);
+			if (rankOf(roots[i]) > rankOf(roots[target])) {
+				target = i;
+			}
+			if (members[i].size() > members[largest].size()) {
+				largest = i;
+			}
+			smallerCount += members[i].size();
+		}
+		smallerCount -= members[largest].size();
+
+		int targetRank = rankOf(roots[target]);
+		int rank = targetRank;
+		for (int i = 0; i < roots.length; i++) {
+			if (i != target && rankOf(roots[i]) == targetRank) {
+				rank = targetRank + 1;
+			}
+		}
+
+		MemberList merged;
+		if (roots.length > 3) {
+			int[] ids = new int[smallerCount];
+			int position = 0;
+			for (int i = 0; i < roots.length; i++) {
+				if (i != largest) {
+					members[i].copyIds(ids, position);
+					position += members[i].size();
+				}
+			}
+			merged = members[largest].merge(MemberList.fromIds(dictionary, ids, ids.length));
+		} else {
+			merged = members[target];
+			for (int i = 0; i < roots.length; i++) {
+				if (i != target) {
+					merged = merged.merge(members[i]);
+				}
+			}
+		}
+		metrics.mergeSize.record(merged.size());
+		Root state = new Root(merged, lastVersion.incrementAndGet(), rank);
+
+		publishLock.lock();
+		try {
+			publishSequence++;
+			setRoot(roots[target], state);
+			for (int i = 0; i < roots.length; i++) {
+				if (i != target) {
+					setParent(roots[i], roots[target]);
+					setRoot(roots[i], null);
 				}
+			}
+		} finally {
+			publishSequence++;
+			publishLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes a synonym which was added to a word, or that the word was added to. If this was the only connection
+	 * between two parts of the group, the group is split in two, otherwise the groups stay the same. Returns false if
+	 * the synonym was never added to the word, which includes words that are only synonyms by transitivity.
+	 * <br/>
+	 * <br/>This holds the state lock exclusively, so it's not done in parallel with other writes, but queries keep
+	 * running. A split is published in two steps: first the words in the part which gets a new root are moved to it
+	 * one by one, and then the remaining group is replaced under the seqlock. Queries for a moved word see the new
+	 * group immediately, while queries for the others see the old group until the last step.
+	 */
+	public boolean removeSynonym(String word, String synonym) {
+		long sequence = logAndRemove(word, synonym);
+		awaitDurable(sequence);
+		return sequence >= 0;
+	}
+
+	/**
+	 * Same as {@link #removeSynonym(String, String)}, but returns a future which is completed when the removal is
+	 * durable instead of blocking.
+	 */
+	public CompletableFuture<Boolean> removeSynonymAsync(String word, String synonym) {
+		try {
+			long sequence = logAndRemove(word, synonym);
+			return sequence >= 0 ? whenDurable(sequence).thenApply(ignored -> true) : CompletableFuture.completedFuture(false);
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Logs and applies the removal, returning its sequence number in the log or -1 if there was nothing to remove.
+	 */
+	private long logAndRemove(String word, String synonym) {
+		long sequence = 0;
+		long acquired = lock(stateLock.writeLock(), metrics.stateWriteLockWait);
+		try {
+			int id1 = dictionary.lookup(word);
+			int id2 = dictionary.lookup(synonym);
+			if (id1 < 0 || id2 < 0 || !hasEdge(id1, id2)) {
+				return -1;
+			}
+			if (writeAheadLog != null) {
+				sequence = writeAheadLog.appendRemoval(word, synonym);
+			}
+			if (replicationLog != null) {
+				replicationLog.append(word, Collections.singleton(synonym), true);
+			}
+			applyRemoval(id1, id2);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write to the write-ahead log", e);
+		} finally {
+			unlock(stateLock.writeLock(), acquired, metrics.stateWriteLockHold);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Removes a synonym without writing it to the write-ahead log, used when restoring the database from the log.
+	 */
+	public void restoreRemoval(String word, String synonym) {
+		stateLock.writeLock().lock();
+		try {
+			int id1 = dictionary.lookup(word);
+			int id2 = dictionary.lookup(synonym);
+			if (id1 >= 0 && id2 >= 0 && hasEdge(id1, id2)) {
+				applyRemoval(id1, id2);
+			}
+		} finally {
+			stateLock.writeLock().unlock();
+		}
+	}
+
+	private void applyRemoval(int id1, int id2) {
+		removeEdge(id1, id2);
+		removeEdge(id2, id1);
+		Set<Integer> disconnected = findDisconnected(id1, id2);
+		if (disconnected != null) {
+			split(find(id1), disconnected);
+		}
+	}
+
+	/**
+	 * Searches breadth first from both words at the same time, one word at a time from each side. If the searches
+	 * meet the words are still connected and null is returned. Otherwise the search which runs out of words first has
+	 * found everything that is connected to its word, which is returned. This visits at most about twice as many words
+	 * as the smaller of the two parts.
+	 */
+	private Set<Integer> findDisconnected(int id1, int id2) {
+		Set<Integer> visited1 = new HashSet<>();
+		Set<Integer> visited2 = new HashSet<>();
+		ArrayDeque<Integer> queue1 = new ArrayDeque<>();
+		ArrayDeque<Integer> queue2 = new ArrayDeque<>();
+		visited1.add(id1);
+		visited2.add(id2);
+		queue1.add(id1);
+		queue2.add(id2);
+		while (true) {
+			if (queue1.isEmpty()) {
+				return visited1;
+			}
+			if (queue2.isEmpty()) {
+				return visited2;
+			}
+			if (visitNext(queue1, visited1, visited2) || visitNext(queue2, visited2, visited1)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Visits the neighbors of the next word in the queue and returns true if any of them has been visited by the
+	 * other search.
+	 */
+	private boolean visitNext(ArrayDeque<Integer> queue, Set<Integer> visited, Set<Integer> otherVisited) {
+		int[] neighbors = edgesOf(queue.poll());
+		for (int i = 1; i <= neighbors[0]; i++) {
+			int neighbor = neighbors[i];
+			if (otherVisited.contains(neighbor)) {
+				return true;
+			}
+			if (visited.add(neighbor)) {
+				queue.add(neighbor);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Splits the group with the specified root into the specified part and the rest. The part which doesn't contain
+	 * the root gets a new root. First all words are made children of the root directly, which doesn't change any
+	 * groups, so that moving a word to the new root can't move any other words along with it.
+	 */
+	private void split(int root, Set<Integer> part) {
+		MemberList members = membersOf(root);
+		int[] sortedPart = part.stream().mapToInt(Integer::intValue).sorted().toArray();
+		int[] inside = new int[part.size()];
+		int[] outside = new int[members.size() - part.size()];
+		int insideCount = 0;
+		int outsideCount = 0;
+		PrimitiveIterator.OfInt iterator = members.idIterator(0);
+		while (iterator.hasNext()) {
+			int id = iterator.nextInt();
+			if (id != root && parentOf(id) != root) {
+				setParent(id, root);
+			}
+			if (Arrays.binarySearch(sortedPart, id) >= 0) {
+				inside[insideCount++] = id;
+			} else {
+				outside[outsideCount++] = id;
+			}
+		}
+		int[] kept = Arrays.binarySearch(sortedPart, root) >= 0 ? inside : outside;
+		int[] moved = kept == inside ? outside : inside;
+
+		publishLock.lock();
+		try {
+			splitSequence++;
+		} finally {
+			publishLock.unlock();
+		}
+		// The moved words are still in the old group, so they can be moved one by one without confusing queries
+		int newRoot = moved[0];
+		setRoot(newRoot, createRoot(moved, 2));
+		setParent(newRoot, newRoot);
+		for (int i = 1; i < moved.length; i++) {
+			setParent(moved[i], newRoot);
+		}
+
+		Root state = createRoot(kept, rankOf(root));
+		publishLock.lock();
+		try {
+			publishSequence++;
+			setRoot(root, state);
+		} finally {
+			splitSequence++;
+			publishSequence++;
+			publishLock.unlock();
+		}
+	}
+
+	/**
+	 * Creates the state of a group with the specified sorted members, or null if it only has one member.
+	 */
+	private Root createRoot(int[] ids, int rank) {
+		return ids.length > 1 ? new Root(MemberList.fromSorted(dictionary, ids, ids.length), lastVersion.incrementAndGet(), rank) : null;
+	}
 
-				if (!synonym.equals(word)) {
-					result.add(synonym);
+	/**
+	 * Returns a point-in-time copy of all the groups in the database, together with the sequence numbers of the last
+	 * change in the write-ahead log and in the replication log that are included. The state lock is only held
+	 * exclusively until the writes in progress have finished, so that every change up to those sequence numbers has
+	 * been applied. It's then held in shared mode while the edges and the groups are copied, which keeps removals and
+	 * batches out but lets single additions continue. Additions after the sequence numbers may be partly included,
+	 * which is fine since they are replayed on top of the copy and applying an addition twice doesn't change anything.
+	 */
+	public Partition getPartition() {
+		long acquired = lock(stateLock.writeLock(), metrics.stateWriteLockWait);
+		long sequence = writeAheadLog != null ? writeAheadLog.getLastSequence() : 0;
+		long replicationSequence = replicationLog != null ? replicationLog.getLastSequence() : 0;
+		stateLock.readLock().lock();
+		unlock(stateLock.writeLock(), acquired, metrics.stateWriteLockHold);
+		int[][][] edges;
+		int[][] edgeCounts;
+		Root[][] roots;
+		try {
+			// The counted neighbors are never modified so it's enough to copy the references and the counts
+			int[][][] pages = this.edges;
+			edges = new int[pages.length][][];
+			edgeCounts = new int[pages.length][];
+			for (int i = 0; i < pages.length; i++) {
+				if (pages[i] != null) {
+					edges[i] = new int[pages[i].length][];
+					edgeCounts[i] = new int[pages[i].length];
+					for (int j = 0; j < pages[i].length; j++) {
+						int[] neighbors = (int[]) EDGES.getAcquire(pages[i], j);
+						if (neighbors != null) {
+							edges[i][j] = neighbors;
+							edgeCounts[i][j] = (int) NEIGHBORS.getAcquire(neighbors, 0);
+						}
+					}
 				}
 			}
-			return new SynonymPage(allSynonyms.size() - 1, result); // Remove one since 'word' is included
+			roots = copyRoots();
 		} finally {
-			readLock.unlock();
+			stateLock.readLock().unlock();
+		}
+
+		// The words which aren't in any of the groups don't have any synonyms, they are included as groups of their
+		// own. The size is read after the copy so that it includes all the words in the groups.
+		List<MemberList> groups = new ArrayList<>();
+		collectGroups(roots, groups);
+		int size = dictionary.size();
+		BitSet grouped = new BitSet(size);
+		for (MemberList group : groups) {
+			PrimitiveIterator.OfInt iterator = group.idIterator(0);
+			while (iterator.hasNext()) {
+				grouped.set(iterator.nextInt());
+			}
 		}
+		for (int id = grouped.nextClearBit(0); id < size; id = grouped.nextClearBit(id + 1)) {
+			groups.add(MemberList.of(dictionary, id));
+		}
+		return new Partition(sequence, replicationSequence, groups, edges, edgeCounts);
 	}
 
 	/**
-	 * This data structure uses Union-Find to merge groups of synonyms. The twist is that we also want to keep track
-	 * of the complete set of synonyms included in the group to speed up queries.
+	 * Returns a point-in-time view of all the groups with at least two words, sorted by their first word so that they
+	 * are in the same order as {@link MemberList#ORDER}. This is used for exports, which can take minutes, so it
+	 * doesn't take the state lock and doesn't block any writes while the groups are collected.
+	 * <br/>
+	 * <br/>The states of the groups are copied with {@link #copyRoots()}, which is a plain copy of the pages they are
+	 * stored in, and the groups are collected from the copy afterwards. The member lists are immutable so the caller
+	 * can take its time with them.
+	 * <br/>
+	 * <br/>This isn't lazy: the copy has one reference per word, and the returned list has one per group and is sorted
+	 * in <code>O(groups log groups)</code>. The members themselves aren't copied, so for 10 million words that's
+	 * about 40MB of references on top of the database, which is freed once the export is done.
 	 */
-	private static class Node {
-		private static final Collator COLLATOR;
+	public List<MemberList> getSortedGroups() {
+		List<MemberList> groups = new ArrayList<>();
+		collectGroups(copyRoots(), groups);
+		groups.sort((members1, members2) -> dictionary.compare(members1.firstId(), members2.firstId()));
+		return groups;
+	}
 
-		private Node parent;
-		private int rank;
+	private static void collectGroups(Root[][] roots, List<MemberList> groups) {
+		for (Root[] page : roots) {
+			if (page != null) {
+				for (Root root : page) {
+					if (root != null) {
+						groups.add(root.members);
+					}
+				}
+			}
+		}
+	}
 
-		private List<String> members;
+	/**
+	 * Returns a copy of the pages of {@link #roots} where all the groups are from the same point in time, see
+	 * {@link #readConsistently(Supplier)}. Copying the references is much faster than going through the groups, so
+	 * it's usually done in between two publications, and otherwise the publish lock is only held during the copy.
+	 */
+	private Root[][] copyRoots() {
+		return readConsistently(() -> {
+			Root[][] roots = this.roots;
+			Root[][] copy = new Root[roots.length][];
+			for (int i = 0; i < roots.length; i++) {
+				if (roots[i] != null) {
+					copy[i] = roots[i].clone();
+				}
+			}
+			return copy;
+		});
+	}
 
-		static {
-			COLLATOR = Collator.getInstance();
-			COLLATOR.setStrength(Collator.PRIMARY);
+	/**
+	 * Reads something which depends on several groups so that all of them are from the same point in time. The read
+	 * is done optimistically like in {@link #readGroup(int)}, and again if a change was published or a split was in
+	 * progress meanwhile, since a split moves words to their new group before it publishes. Batches don't need to be
+	 * kept out since each set of groups they merge is published at once, so a read sees some of the entries or all
+	 * of them like it would with single additions. If the writes keep interfering, the last attempt is made while
+	 * holding the publish lock once no split is in progress, so the read must be quick.
+	 */
+	private <T> T readConsistently(Supplier<T> read) {
+		for (int attempt = 1; attempt < MAX_OPTIMISTIC_SCANS; attempt++) {
+			long splits = splitSequence;
+			long sequence = publishSequence;
+			if (((splits | sequence) & 1) == 0) {
+				T result = read.get();
+				// The read may use plain loads, which must not be moved after the check
+				VarHandle.acquireFence();
+				if (sequence == publishSequence && splits == splitSequence) {
+					return result;
+				}
+			}
+			Thread.onSpinWait();
+		}
+		while (true) {
+			publishLock.lock();
+			try {
+				// A split starts while holding the publish lock, so none can start until we are done
+				if ((splitSequence & 1) == 0) {
+					return read.get();
+				}
+			} finally {
+				publishLock.unlock();
+			}
+			Thread.yield();
 		}
+	}
+
+	/**
+	 * Adds a complete group without writing it to the write-ahead log, used when restoring the database from a
+	 * checkpoint. The words must be sorted according to {@link MemberList#ORDER}, and none of them may exist in the
+	 * database already.
+	 */
+	public void restoreGroup(String[] words, int count) {
+		restoreGroup(words, count, new int[0], 0);
+	}
 
-		public Node(String text) {
-			parent = this;
-			rank = 1;
-			members = ImmutableList.of(text);
+	/**
+	 * Same as {@link #restoreGroup(String[], int)} but also restores the edges of the group. Edge <code>i</code> is
+	 * between <code>words[edges[2i]]</code> and <code>words[edges[2i + 1]]</code>.
+	 */
+	public void restoreGroup(String[] words, int count, int[] edges, int edgeCount) {
+		stateLock.writeLock().lock();
+		try {
+			for (int i = 0; i < count; i++) {
+				if (dictionary.lookup(words[i]) >= 0) {
+					throw new IllegalStateException("The word '" + words[i] + "' is already in the database");
+				}
+			}
+
+			// New words are roots without synonyms until their parent is set, so publishing is only needed for the root
+			int[] ids = new int[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = dictionary.intern(words[i]);
+			}
+
+			// Count the neighbors first so that every word only gets one array
+			int[] degrees = new int[count];
+			for (int i = 0; i < edgeCount * 2; i++) {
+				degrees[edges[i]]++;
+			}
+			int[][] neighbors = new int[count][];
+			for (int i = 0; i < count; i++) {
+				neighbors[i] = new int[degrees[i] + 1];
+			}
+			for (int i = 0; i < edgeCount; i++) {
+				int index1 = edges[2 * i];
+				int index2 = edges[2 * i + 1];
+				neighbors[index1][++neighbors[index1][0]] = ids[index2];
+				neighbors[index2][++neighbors[index2][0]] = ids[index1];
+			}
+			for (int i = 0; i < count; i++) {
+				setEdges(ids[i], neighbors[i]);
+			}
+
+			if (count > 1) {
+				publishLock.lock();
+				try {
+					publishSequence++;
+					setRoot(ids[0], new Root(MemberList.fromSorted(dictionary, ids, count), lastVersion.incrementAndGet(), 2));
+					for (int i = 1; i < count; i++) {
+						setParent(ids[i], ids[0]);
+					}
+				} finally {
+					publishSequence++;
+					publishLock.unlock();
+				}
+			}
+		} finally {
+			stateLock.writeLock().unlock();
 		}
+	}
 
-		public Node find() {
-			if (parent != this) {
-				parent = parent.find();
+	/**
+	 * Installs all the groups built by a {@link BulkLoader} into an empty database in one step, without writing them to
+	 * the write-ahead log. Word <code>i</code> gets id <code>i</code>, and the arrays are indexed by it:
+	 * <code>keys</code> are the collation keys, <code>roots</code> the id of the word each word is grouped with (a word
+	 * in a group of its own is its own root) and <code>neighbors</code> the edges in the same format as
+	 * {@link #edges}, or null for words without any. <code>sortedIds</code> are all the ids sorted according to
+	 * {@link MemberList#ORDER}.
+	 * <br/>
+	 * <br/>Since the ids are sorted once for all the words, the members of every group come out in order when they
+	 * are taken from the sorted ids, so no words are compared here. Queries wait while the groups are published, so
+	 * this is meant to be used before the server starts.
+	 */
+	void restoreBulk(String[] words, byte[][] keys, int[] sortedIds, int[] roots, int[][] neighbors) {
+		long acquired = lock(stateLock.writeLock(), metrics.stateWriteLockWait);
+		try {
+			if (dictionary.size() > 0) {
+				throw new IllegalStateException("A bulk load requires an empty database, but it has " + dictionary.size() + " words");
+			}
+			// New words are roots without synonyms until their parent is set, like in restoreGroup
+			dictionary.addAll(words, keys, sortedIds);
+
+			int count = words.length;
+			int[] offsets = new int[count + 1];
+			for (int id = 0; id < count; id++) {
+				offsets[roots[id] + 1]++;
+			}
+			for (int i = 0; i < count; i++) {
+				offsets[i + 1] += offsets[i];
 			}
-			return parent;
+			int[] members = new int[count];
+			int[] positions = Arrays.copyOf(offsets, count);
+			for (int id : sortedIds) {
+				members[positions[roots[id]]++] = id;
+			}
+
+			for (int id = 0; id < count; id++) {
+				if (neighbors[id] != null) {
+					setEdges(id, neighbors[id]);
+				}
+			}
+			publishLock.lock();
+			try {
+				publishSequence++;
+				for (int id = 0; id < count; id++) {
+					int size = offsets[id + 1] - offsets[id];
+					if (size > 1) {
+						int[] group = Arrays.copyOfRange(members, offsets[id], offsets[id + 1]);
+						setRoot(id, new Root(MemberList.fromSorted(dictionary, group, size), lastVersion.incrementAndGet(), 2));
+					}
+					if (roots[id] != id) {
+						setParent(id, roots[id]);
+					}
+				}
+			} finally {
+				publishSequence++;
+				publishLock.unlock();
+			}
+		} finally {
+			unlock(stateLock.writeLock(), acquired, metrics.stateWriteLockHold);
 		}
+	}
 
-		public void union(Node other) {
-			Node n1 = find();
-			Node n2 = other.find();
+	public DatabaseMetrics getMetrics() {
+		return metrics;
+	}
 
-			if (n1 == n2) {
-				return;
+	/**
+	 * Returns the distribution of the sizes of all the groups with synonyms. This goes through the state of every
+	 * group without taking any locks, so a group which is being merged may be counted twice or not at all.
+	 */
+	public Histogram getGroupSizes() {
+		Histogram sizes = Histogram.sizes();
+		for (Root[] page : roots) {
+			if (page != null) {
+				for (int i = 0; i < page.length; i++) {
+					Root root = (Root) ROOTS.getVolatile(page, i);
+					if (root != null) {
+						sizes.record(root.members.size());
+					}
+				}
 			}
+		}
+		return sizes;
+	}
+
+	public int getWordCount() {
+		return dictionary.size();
+	}
+
+	/**
+	 * Returns up to <code>limit</code> known words which start with the prefix, see {@link Dictionary#suggest}. This
+	 * doesn't take any locks, new words are included as soon as they have been added.
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		return dictionary.suggest(prefix, limit);
+	}
+
+	/**
+	 * Returns the known word which is most similar to the specified word, or null if there is no word that is similar
+	 * enough. This is used to find the group of a misspelled word, see {@link FuzzyIndex}.
+	 */
+	public String findClosestWord(String word) {
+		return dictionary.findClosest(word);
+	}
+
+	/**
+	 * Returns the synonyms of the specified word, limited to at most the specified limit amount of results. The total
+	 * count is also returned as part of the result.
+	 */
+	public SynonymPage getSynonyms(String word, int limit) {
+		return getSynonyms(word, 0, limit);
+	}
+
+	/**
+	 * Returns the synonyms of the specified word starting at the specified offset. The start position is found using
+	 * binary search, so the time it takes only depends on the size of the page and not on the offset.
+	 */
+	public SynonymPage getSynonyms(String word, int offset, int limit) {
+		Group group = getGroup(word);
+		return getSynonyms(word, group != null ? group.members : null, offset, limit);
+	}
+
+	/**
+	 * Returns the synonyms that come after the page which returned the specified cursor. The cursor refers to the last
+	 * synonym in that page rather than to a position, so it stays valid even if the group is merged with others in
+	 * between the requests.
+	 *
+	 * @throws IllegalArgumentException If the cursor is invalid
+	 */
+	public SynonymPage getSynonymsAfter(String word, String cursor, int limit) {
+		Group group = getGroup(word);
+		return getSynonymsAfter(word, group != null ? group.members : null, cursor, limit);
+	}
+
+	/**
+	 * Returns a snapshot of the group of the specified word, or null if the word doesn't exist. Every change to a group
+	 * replaces the member list and gives the group a new version, so two snapshots of the same group have the same
+	 * member list instance and version if and only if the group hasn't changed in between.
+	 */
+	public Group getGroup(String word) {
+		int id = dictionary.lookup(word);
+		return id >= 0 ? readGroup(id) : null;
+	}
+
+	/**
+	 * Returns the first page of synonyms of each of the words, keyed by the word in the same order as the words. All
+	 * the pages come from the same point in time, see {@link #getGroups(Collection)}, so two words which are synonyms
+	 * always get each other, which isn't guaranteed when they are fetched one by one while groups are being changed.
+	 */
+	public Map<String, SynonymPage> getSynonyms(Collection<String> words, int limit) {
+		Map<String, SynonymPage> pages = new LinkedHashMap<>(capacityFor(words.size()));
+		for (Map.Entry<String, Group> entry : getGroups(words).entrySet()) {
+			Group group = entry.getValue();
+			pages.put(entry.getKey(), getSynonyms(entry.getKey(), group != null ? group.members : null, 0, limit));
+		}
+		return pages;
+	}
 
-			if (n1.rank > n2.rank) {
-				merge(n2, n1);
-			} else if (n2.rank > n1.rank) {
-				merge(n1, n2);
+	/**
+	 * Returns snapshots of the groups of all the words taken at the same point in time, keyed by the word in the same
+	 * order as the words and with null for words which don't exist. Words in the same group share the snapshot, so
+	 * the state of each group is only read once no matter how many of its words are requested.
+	 * <br/>
+	 * <br/>The groups are read with {@link #readConsistently(Supplier)}, so no lock is taken unless the writes keep
+	 * interfering, and then only the publish lock for as long as it takes to find the roots of the words.
+	 */
+	public Map<String, Group> getGroups(Collection<String> words) {
+		return readConsistently(() -> readGroups(words));
+	}
+
+	private Map<String, Group> readGroups(Collection<String> words) {
+		Map<String, Group> groups = new LinkedHashMap<>(capacityFor(words.size()));
+		Map<Integer, Group> groupsByRoot = new HashMap<>(capacityFor(words.size()));
+		for (String word : words) {
+			int id = dictionary.lookup(word);
+			if (id < 0) {
+				groups.put(word, null);
 			} else {
-				merge(n2, n1);
-				n1.rank += 1;
+				int root = findRoot(id);
+				Group group = groupsByRoot.get(root);
+				if (group == null) {
+					group = groupAt(root);
+					groupsByRoot.put(root, group);
+				}
+				groups.put(word, group);
 			}
 		}
+		return groups;
+	}
+
+	/**
+	 * Returns an identifier of the current state of the group of the word, which changes every time the group
+	 * changes and is never reused, not even after a restart. This can be used e.g. as an ETag.
+	 */
+	public String getVersionTag(Group group) {
+		return Long.toString(epoch, 36) + "-" + (group != null ? group.version : 0);
+	}
+
+	/**
+	 * Same as {@link #getSynonyms(String, int, int)} but for the members of a group snapshot from
+	 * {@link #getGroup(String)}.
+	 */
+	public static SynonymPage getSynonyms(String word, MemberList group, int offset, int limit) {
+		if (group == null) {
+			return new SynonymPage(0, ImmutableList.of());
+		}
+		if (offset == 0) {
+			return getPage(word, group, 0, limit);
+		}
+		int wordIndex = group.indexAfter(word) - 1;
+		return getPage(word, group, offset < wordIndex ? offset : offset + 1, limit);
+	}
 
-		private void merge(Node source, Node target) {
-			source.parent = target;
-			target.members = mergeLists(target.members, source.members);
-			source.members = ImmutableList.of();
+	/**
+	 * Same as {@link #getSynonymsAfter(String, String, int)} but for the members of a group snapshot from
+	 * {@link #getGroup(String)}.
+	 *
+	 * @throws IllegalArgumentException If the cursor is invalid
+	 */
+	public static SynonymPage getSynonymsAfter(String word, MemberList group, String cursor, int limit) {
+		String previous = decodeCursor(cursor);
+		if (group == null) {
+			return new SynonymPage(0, ImmutableList.of());
 		}
+		return getPage(word, group, group.indexAfter(previous), limit);
+	}
 
+	private static SynonymPage getPage(String word, MemberList allSynonyms, int startIndex, int limit) {
+		List<String> result = new ArrayList<>();
+		String next = null;
+		Iterator<String> iterator = allSynonyms.iterator(startIndex);
+		while (iterator.hasNext()) {
+			String synonym = iterator.next();
+			if (synonym.equals(word)) {
+				continue;
+			}
+
+			if (result.size() == limit) {
+				if (limit > 0) {
+					next = encodeCursor(result.get(limit - 1));
+				}
+				break;
+			}
+			result.add(synonym);
+		}
+		return new SynonymPage(allSynonyms.size() - 1, result, next); // Remove one since 'word' is included
+	}
+
+	private static String encodeCursor(String synonym) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(synonym.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String decodeCursor(String cursor) {
+		return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the group the word belongs to without taking any locks. If a write is published while we are reading we
+	 * might see a mix of the old and new state, in that case we just try again.
+	 */
+	private Group readGroup(int id) {
+		while (true) {
+			long sequence = publishSequence;
+			if ((sequence & 1) == 0) {
+				Group group = groupAt(findRoot(id));
+				if (sequence == publishSequence) {
+					return group;
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	private static int capacityFor(int size) {
+		return size * 4 / 3 + 1;
+	}
+
+	private Group groupAt(int root) {
+		Root state = rootOf(root);
+		return state != null ? new Group(state.members, state.version) : new Group(MemberList.of(dictionary, root), 0);
+	}
+
+	/**
+	 * The state of a group, stored at its root in the union-find forest. This is replaced as a whole every time the
+	 * group changes, so a reader which gets one always sees a consistent state.
+	 */
+	private static class Root {
+		final MemberList members;
 		/**
-		 * This is relatively fast but can take 200ms if you have 300k words that are synonyms (and you are unlucky with
-		 * the input). Binary searching would most likely help for the most cases since we seldom merge two large lists.
+		 * A new value from a database wide counter is assigned every time the group changes.
 		 */
-		private ImmutableList<String> mergeLists(List<String> l1, List<String> l2) {
-			Builder<String> builder = new Builder<>();
-
-			int idx1 = 0;
-			int idx2 = 0;
-			while (true) {
-				if (idx1 == l1.size()) {
-					builder.addAll(l2.subList(idx2, l2.size()));
-					break;
-				}
-				if (idx2 == l2.size()) {
-					builder.addAll(l1.subList(idx1, l1.size()));
-					break;
-				}
-
-				String head1 = l1.get(idx1);
-				String head2 = l2.get(idx2);
-
-				int c = COLLATOR.compare(head1, head2);
-				if (c < 0) {
-					builder.add(head1);
-					idx1++;
-				} else if (c > 0) {
-					builder.add(head2);
-					idx2++;
-				} else {
-					if (head1.equals(head2)) {
-						throw new IllegalStateException("Multiple sets contain the same element!");
+		final long version;
+		final int rank;
+
+		Root(MemberList members, long version, int rank) {
+			this.members = members;
+			this.version = version;
+			this.rank = rank;
+		}
+	}
+
+	/**
+	 * A snapshot of a group, see {@link #getGroup(String)}.
+	 */
+	public static class Group {
+		public final MemberList members;
+		public final long version;
+
+		public Group(MemberList members, long version) {
+			this.members = members;
+			this.version = version;
+		}
+	}
+
+	public static class SynonymEntry {
+		public final String word;
+		public final Set<String> synonyms;
+
+		public SynonymEntry(String word, Set<String> synonyms) {
+			this.word = word;
+			this.synonyms = synonyms;
+		}
+	}
+
+	public static class Partition {
+		/**
+		 * The sequence number of the last change in the write-ahead log that is included.
+		 */
+		public final long sequence;
+		/**
+		 * The sequence number of the last change in the replication log that is included.
+		 */
+		public final long replicationSequence;
+		public final List<MemberList> groups;
+		/**
+		 * A copy of the edge pages of the database and the number of neighbors of each word when the copy was made, see
+		 * {@link Database#edges}.
+		 */
+		private final int[][][] edges;
+		private final int[][] edgeCounts;
+
+		public Partition(long sequence, List<MemberList> groups) {
+			this(sequence, 0, groups, new int[0][][], new int[0][]);
+		}
+
+		Partition(long sequence, long replicationSequence, List<MemberList> groups, int[][][] edges, int[][] edgeCounts) {
+			this.sequence = sequence;
+			this.replicationSequence = replicationSequence;
+			this.groups = groups;
+			this.edges = edges;
+			this.edgeCounts = edgeCounts;
+		}
+
+		/**
+		 * Returns the edges within one of the groups as pairs of indices into the group, with each edge included once.
+		 */
+		public int[] getEdges(MemberList group) {
+			Map<Integer, Integer> indices = new HashMap<>();
+			PrimitiveIterator.OfInt iterator = group.idIterator(0);
+			while (iterator.hasNext()) {
+				indices.put(iterator.nextInt(), indices.size());
+			}
+
+			int[] result = new int[16];
+			int count = 0;
+			for (Map.Entry<Integer, Integer> member : indices.entrySet()) {
+				int id = member.getKey();
+				int pageIndex = id >>> PAGE_SHIFT;
+				if (pageIndex >= edges.length || edges[pageIndex] == null) {
+					continue;
+				}
+				int[] neighbors = edges[pageIndex][id & PAGE_MASK];
+				int neighborCount = edgeCounts[pageIndex][id & PAGE_MASK];
+				for (int i = 1; i <= neighborCount; i++) {
+					Integer index = indices.get(neighbors[i]);
+					if (index != null && index > member.getValue()) {
+						if (count + 2 > result.length) {
+							result = Arrays.copyOf(result, result.length * 2);
+						}
+						result[count++] = member.getValue();
+						result[count++] = index;
 					}
-					// Differed in capitalization, e.g. a vs. A
-					builder.add(head1);
-					builder.add(head2);
-					idx1++;
-					idx2++;
 				}
 			}
-			return builder.build();
+			return Arrays.copyOf(result, count);
 		}
 	}
 
 	public static class SynonymPage {
 		public final int total;
 		public final List<String> synonyms;
+		/**
+		 * Cursor to use to get the next page, or null if this is the last page.
+		 */
+		public final String next;
+		/**
+		 * The word the synonyms are for if it's not the requested word, which happens when the requested word was
+		 * misspelled and a fuzzy lookup was made. Null otherwise.
+		 */
+		public final String match;
 
 		public SynonymPage(int total, List<String> synonyms) {
+			this(total, synonyms, null);
+		}
+
+		public SynonymPage(int total, List<String> synonyms, String next) {
+			this(total, synonyms, next, null);
+		}
+
+		public SynonymPage(int total, List<String> synonyms, String next, String match) {
 			this.total = total;
 			this.synonyms = synonyms;
+			this.next = next;
+			this.match = match;
 		}
 	}
 }
@@ -0,0 +1,336 @@
+package cloudservice;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+/**
+ * Maps every word to an integer id, so that the rest of the database can store ints instead of references, and keeps
+ * a precomputed collation key for every word so that sorting doesn't need the collator. Ids are assigned in
+ * increasing order starting from 0 and are never removed.
+ * <br/>
+ * <br/>The words are found using an open addressing hash table of ids, and the words and keys are stored in pages so
+ * that the dictionary can grow without copying everything. The collation keys of a page are packed into a single byte
+ * array. Lookups don't take any locks, adding words is serialized.
+ * <br/>
+ * <br/>The collation keys are the primary weights from the collator, encoded with 1-3 bytes per weight in a way that
+ * keeps the order when compared bytewise. Most characters only need one byte.
+ * <br/>
+ * <br/>All the words are also kept in a {@link MemberList} sorted by their keys, which is used as a prefix index for
+ * suggestions. Since a prefix of a word has a key which is a prefix of the word's key, the completions of a prefix
+ * are a contiguous range which is found using binary search. This only costs about 4 bytes per word, a trie would
+ * need an object per word. It's immutable like the groups, so suggestions don't need any locks.
+ * <br/>
+ * <br/>Misspelled words are matched with a {@link FuzzyIndex}, which is also updated when words are added.
+ */
+public final class Dictionary {
+	static final int PAGE_SHIFT = 14;
+	static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	/**
+	 * Collator instances are synchronized, so each thread gets its own copy to avoid contention.
+	 */
+	private static final ThreadLocal<Collator> COLLATOR = ThreadLocal.withInitial(() -> {
+		Collator collator = Collator.getInstance();
+		collator.setStrength(Collator.PRIMARY);
+		return collator;
+	});
+
+	/**
+	 * Contains <code>id + 1</code> of the word at each slot, or 0 if the slot is empty.
+	 */
+	private volatile int[] table = new int[1024];
+	private volatile Page[] pages = new Page[16];
+	private volatile int size;
+	private volatile MemberList sortedWords = MemberList.empty();
+	private final FuzzyIndex fuzzyIndex = new FuzzyIndex(this);
+
+	/**
+	 * Returns the id of the word, or -1 if it isn't in the dictionary.
+	 */
+	public int lookup(String word) {
+		int[] table = this.table;
+		int mask = table.length - 1;
+		int hash = word.hashCode();
+		for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+			int value = (int) SLOTS.getAcquire(table, slot);
+			if (value == 0) {
+				return -1;
+			}
+			String candidate = word(value - 1);
+			if (candidate.hashCode() == hash && candidate.equals(word)) {
+				return value - 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the id of the word, adding it to the dictionary if it's new.
+	 */
+	public int intern(String word) {
+		int id = lookup(word);
+		return id >= 0 ? id : add(word);
+	}
+
+	private synchronized int add(String word) {
+		int id = lookup(word);
+		if (id >= 0) {
+			return id;
+		}
+
+		id = size;
+		int pageIndex = id >>> PAGE_SHIFT;
+		Page[] pages = this.pages;
+		if (pageIndex == pages.length) {
+			pages = Arrays.copyOf(pages, pages.length * 2);
+		}
+		if (pages[pageIndex] == null) {
+			pages[pageIndex] = new Page();
+		}
+		this.pages = pages;
+		byte[] key = collationKey(word);
+		pages[pageIndex].add(id & PAGE_MASK, word, key);
+
+		if ((id + 1) * 4L > table.length * 3L) {
+			resize();
+		}
+		insert(table, id);
+		size = id + 1;
+		sortedWords = sortedWords.merge(MemberList.of(this, id));
+		fuzzyIndex.add(id, key);
+		return id;
+	}
+
+	/**
+	 * Adds many new words at once, used by the {@link BulkLoader}. The words get the ids from {@link #size()} and up in
+	 * the order of the array, <code>keys</code> must contain their collation keys and <code>sortedIndices</code> the
+	 * indices of the words sorted according to {@link MemberList#ORDER}. The words must be distinct and none of them
+	 * may be in the dictionary already.
+	 * <br/>
+	 * <br/>Adding the words one at a time would compute the keys again and merge every word separately into the sorted
+	 * words, here the sorted words are merged in one go. The table is only resized once as well.
+	 */
+	synchronized void addAll(String[] words, byte[][] keys, int[] sortedIndices) {
+		int first = size;
+		int count = words.length;
+		if (count == 0) {
+			return;
+		}
+
+		int lastPage = (first + count - 1) >>> PAGE_SHIFT;
+		Page[] pages = this.pages;
+		if (lastPage >= pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(lastPage + 1, pages.length * 2));
+		}
+		for (int i = 0; i < count; i++) {
+			int id = first + i;
+			int pageIndex = id >>> PAGE_SHIFT;
+			if (pages[pageIndex] == null) {
+				pages[pageIndex] = new Page();
+			}
+			pages[pageIndex].add(id & PAGE_MASK, words[i], keys[i]);
+		}
+		this.pages = pages;
+
+		int[] table = this.table;
+		int length = table.length;
+		while ((first + count) * 4L > length * 3L) {
+			length *= 2;
+		}
+		if (length != table.length) {
+			table = new int[length];
+			for (int id = 0; id < first; id++) {
+				insert(table, id);
+			}
+		}
+		for (int id = first; id < first + count; id++) {
+			insert(table, id);
+		}
+		this.table = table;
+		size = first + count;
+
+		int[] sortedIds = new int[count];
+		for (int i = 0; i < count; i++) {
+			sortedIds[i] = first + sortedIndices[i];
+		}
+		sortedWords = sortedWords.merge(MemberList.fromSorted(this, sortedIds, count));
+		for (int i = 0; i < count; i++) {
+			fuzzyIndex.add(first + i, keys[i]);
+		}
+	}
+
+	private void resize() {
+		int[] resized = new int[table.length * 2];
+		for (int id = 0; id < size; id++) {
+			insert(resized, id);
+		}
+		table = resized;
+	}
+
+	private void insert(int[] table, int id) {
+		int mask = table.length - 1;
+		int slot = spread(word(id).hashCode()) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		SLOTS.setRelease(table, slot, id + 1);
+	}
+
+	private static int spread(int hash) {
+		return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+	}
+
+	/**
+	 * Returns the number of words in the dictionary, all ids are smaller than this.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public String word(int id) {
+		return pages[id >>> PAGE_SHIFT].words[id & PAGE_MASK];
+	}
+
+	/**
+	 * Compares two words in the same order as {@link MemberList#ORDER}, but using the precomputed keys.
+	 */
+	public int compare(int id1, int id2) {
+		if (id1 == id2) {
+			return 0;
+		}
+		Page page1 = pages[id1 >>> PAGE_SHIFT];
+		Page page2 = pages[id2 >>> PAGE_SHIFT];
+		int index1 = id1 & PAGE_MASK;
+		int index2 = id2 & PAGE_MASK;
+		int c = Arrays.compareUnsigned(page1.keys, page1.keyOffsets[index1], page1.keyOffsets[index1 + 1],
+				page2.keys, page2.keyOffsets[index2], page2.keyOffsets[index2 + 1]);
+		return c != 0 ? c : page1.words[index1].compareTo(page2.words[index2]);
+	}
+
+	/**
+	 * Compares a word in the dictionary with any word, where the key of the other word is computed with
+	 * {@link #collationKey(String)}.
+	 */
+	public int compare(int id, byte[] key, String word) {
+		Page page = pages[id >>> PAGE_SHIFT];
+		int index = id & PAGE_MASK;
+		int c = Arrays.compareUnsigned(page.keys, page.keyOffsets[index], page.keyOffsets[index + 1], key, 0, key.length);
+		return c != 0 ? c : page.words[index].compareTo(word);
+	}
+
+	/**
+	 * Compares the collation key of a word in the dictionary with a key, without comparing the words themselves.
+	 */
+	public int compareKey(int id, byte[] key) {
+		Page page = pages[id >>> PAGE_SHIFT];
+		int index = id & PAGE_MASK;
+		return Arrays.compareUnsigned(page.keys, page.keyOffsets[index], page.keyOffsets[index + 1], key, 0, key.length);
+	}
+
+	/**
+	 * Returns true if the collation key of the word starts with the specified key.
+	 */
+	public boolean keyStartsWith(int id, byte[] prefix) {
+		Page page = pages[id >>> PAGE_SHIFT];
+		int index = id & PAGE_MASK;
+		int start = page.keyOffsets[index];
+		int end = start + prefix.length;
+		return end <= page.keyOffsets[index + 1] && Arrays.equals(page.keys, start, end, prefix, 0, prefix.length);
+	}
+
+	/**
+	 * Returns up to <code>limit</code> words which start with the prefix, in the same order as {@link MemberList#ORDER}.
+	 * The prefix is matched using the collator, so e.g. "ab" matches "Abc". This takes <code>O(log n + limit)</code>
+	 * time.
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		byte[] key = collationKey(prefix);
+		MemberList words = sortedWords;
+		List<String> result = new ArrayList<>(Math.min(limit, 16));
+		PrimitiveIterator.OfInt iterator = words.idIterator(words.indexOfPrefix(key));
+		while (result.size() < limit && iterator.hasNext()) {
+			int id = iterator.nextInt();
+			if (!keyStartsWith(id, key)) {
+				break;
+			}
+			result.add(word(id));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the known word which is closest to the specified word, or null if there is none which is close enough.
+	 * See {@link FuzzyIndex} for what counts as close.
+	 */
+	public String findClosest(String word) {
+		int id = fuzzyIndex.findClosest(word);
+		return id >= 0 ? word(id) : null;
+	}
+
+	byte[] key(int id) {
+		Page page = pages[id >>> PAGE_SHIFT];
+		int index = id & PAGE_MASK;
+		return Arrays.copyOfRange(page.keys, page.keyOffsets[index], page.keyOffsets[index + 1]);
+	}
+
+	/**
+	 * Computes the collation key of a word, keys can be compared using {@link Arrays#compareUnsigned(byte[], byte[])}
+	 * and give the same order as the collator.
+	 */
+	public static byte[] collationKey(String word) {
+		byte[] collatorKey = COLLATOR.get().getCollationKey(word).toByteArray();
+		byte[] key = new byte[collatorKey.length / 2 * 3];
+		int length = 0;
+		for (int i = 0; i + 1 < collatorKey.length; i += 2) {
+			int weight = ((collatorKey[i] & 0xFF) << 8) | (collatorKey[i + 1] & 0xFF);
+			if (weight == 0) {
+				break; // End of the primary weights, the rest is empty with primary strength
+			}
+			if (weight < 0x80) {
+				key[length++] = (byte) weight;
+			} else if (weight < 0x4080) {
+				int value = weight - 0x80;
+				key[length++] = (byte) (0x80 | (value >> 8));
+				key[length++] = (byte) value;
+			} else {
+				key[length++] = (byte) 0xC0;
+				key[length++] = (byte) (weight >> 8);
+				key[length++] = (byte) weight;
+			}
+		}
+		return Arrays.copyOf(key, length);
+	}
+
+	private static final class Page {
+		final String[] words = new String[PAGE_SIZE];
+		/**
+		 * The key of word <code>i</code> is stored in <code>keys[keyOffsets[i]]</code> up to
+		 * <code>keys[keyOffsets[i + 1]]</code>.
+		 */
+		final int[] keyOffsets = new int[PAGE_SIZE + 1];
+		/**
+		 * Replaced by a larger copy when it's full, readers always see an array which contains the keys of all the
+		 * words they can know about.
+		 */
+		volatile byte[] keys = new byte[1024];
+
+		void add(int index, String word, byte[] key) {
+			int offset = keyOffsets[index];
+			byte[] keys = this.keys;
+			if (offset + key.length > keys.length) {
+				keys = Arrays.copyOf(keys, Math.max(offset + key.length, keys.length * 3 / 2));
+			}
+			System.arraycopy(key, 0, keys, offset, key.length);
+			keyOffsets[index + 1] = offset + key.length;
+			words[index] = word;
+			this.keys = keys;
+		}
+	}
+}
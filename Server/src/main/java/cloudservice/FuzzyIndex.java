@@ -0,0 +1,336 @@
+package cloudservice;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds words which are similar to a misspelled word. Every word in the dictionary is split into trigrams of collation
+ * weights, so case and accents are ignored like everywhere else, and for each trigram we keep a list of the ids of the
+ * words which contain it.
+ * <br/>
+ * <br/>An insertion, deletion or substitution changes at most three trigrams, so a word which is within distance
+ * <code>d</code> of the query using those edits must contain at least <code>n - 3d</code> of the <code>n</code>
+ * trigrams of the query. That means it must be in at least one of the <code>3d + 1</code> shortest lists of the
+ * query's trigrams, so only those are read. The candidates found there are looked up in the other lists, skipping
+ * ahead since the lists are sorted, and only the ones with enough trigrams in common are checked by computing the
+ * actual edit distance. Common trigrams have huge lists, but they are never read completely as long as the query has
+ * enough rare ones, which real words usually have.
+ * <br/>
+ * <br/>A transposition of two adjacent characters changes up to four trigrams, and in short words every one of them,
+ * e.g. "odg" has none in common with "dog". Counting four per edit would mean reading most of the lists for every
+ * query, so instead each adjacent pair of the query is swapped, and the words within <code>d - 1</code> of that
+ * which weren't found above must contain most of the few trigrams that the swap created.
+ * <br/>
+ * <br/>The allowed distance depends on the length of the query: words of 1-2 characters must match exactly, 3-6
+ * characters allow 1 edit and longer words 2 edits. Shorter words have too few trigrams for the filter above to
+ * exclude anything, and 2 edits in a short word is hardly a typo anymore. Transposing two adjacent characters counts
+ * as one edit.
+ * <br/>
+ * <br/>The lists are only appended to, and readers don't take any locks. The index uses about 4 bytes per character
+ * of the words.
+ */
+final class FuzzyIndex {
+	/**
+	 * Used to pad the weights so that the first and last characters are part of as many trigrams as the others, this
+	 * is never a real weight.
+	 */
+	private static final int PADDING = 0;
+
+	private final Dictionary dictionary;
+	private final Map<Long, Postings> postings = new ConcurrentHashMap<>();
+
+	FuzzyIndex(Dictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Adds a word with the specified collation key. Words must be added in increasing id order by a single thread at
+	 * a time.
+	 */
+	void add(int id, byte[] key) {
+		int[] weights = weights(key);
+		for (long trigram : trigrams(weights)) {
+			postings.computeIfAbsent(trigram, t -> new Postings()).add(id);
+		}
+	}
+
+	/**
+	 * Returns the id of the word which is closest to the specified word, or -1 if there is no word within the allowed
+	 * distance. If several words are equally close the one which is sorted first is returned.
+	 */
+	int findClosest(String word) {
+		int[] query = weights(Dictionary.collationKey(word));
+		Match match = new Match(maxDistance(query.length));
+		search(query, query, match.bestDistance - 1, match);
+		return match.best;
+	}
+
+	/**
+	 * Checks all the words within <code>maxDistance</code> of the probe, and updates the match with the ones which are
+	 * closer to the query than the best match so far. The probe is the query itself, or the query with some pairs of
+	 * characters swapped.
+	 */
+	private void search(int[] query, int[] probe, int maxDistance, Match match) {
+		// The words which can be reached without transpositions change at most three trigrams per edit
+		long[] trigrams = trigrams(probe);
+		int minCommon = Math.max(1, trigrams.length - 3 * maxDistance);
+		check(query, trigrams, minCommon, match);
+		// The others are within one edit less of the probe with one of its pairs swapped. They have at least
+		// n - 4(d - 1) trigrams in common with the swapped probe but fewer than minCommon with the probe, so they must
+		// have the difference among the trigrams which only the swapped probe has, and those are usually rare.
+		for (int i = 0; i + 1 < probe.length; i++) {
+			// Words further away than the best match so far don't matter, which often rules out the rest
+			int distance = Math.min(maxDistance, match.bestDistance) - 1;
+			if (distance < 0) {
+				return;
+			}
+			if (probe[i] == probe[i + 1]) {
+				continue;
+			}
+			int[] swapped = probe.clone();
+			swapped[i] = probe[i + 1];
+			swapped[i + 1] = probe[i];
+			long[] swappedTrigrams = trigrams(swapped);
+			int minAdded = swappedTrigrams.length - 4 * distance - minCommon + 1;
+			if (minAdded > 0) {
+				check(query, difference(swappedTrigrams, trigrams), minAdded, match);
+			} else {
+				search(query, swapped, distance, match);
+			}
+		}
+	}
+
+	/**
+	 * Checks the distance to the query of the words which contain at least <code>minCommon</code> of the trigrams.
+	 */
+	private void check(int[] query, long[] trigrams, int minCommon, Match match) {
+		// The lists can grow while we read them, so take a snapshot of each one first
+		int[][] lists = new int[trigrams.length][];
+		int[] sizes = new int[trigrams.length];
+		int listCount = 0;
+		for (long trigram : trigrams) {
+			Postings list = postings.get(trigram);
+			if (list != null) {
+				sizes[listCount] = list.size;
+				lists[listCount] = list.ids;
+				listCount++;
+			}
+		}
+		// Missing trigrams are lists of length 0, so they count towards the lists we have to read
+		int toRead = Math.min(listCount, trigrams.length - minCommon + 1 - (trigrams.length - listCount));
+		if (toRead <= 0) {
+			return;
+		}
+		Integer[] order = new Integer[listCount];
+		for (int i = 0; i < listCount; i++) {
+			order[i] = i;
+		}
+		final int[] listSizes = sizes;
+		Arrays.sort(order, (i1, i2) -> Integer.compare(listSizes[i1], listSizes[i2]));
+
+		// The lists are sorted by id since the ids are added in increasing order, so merge the short lists to get each
+		// candidate once, and search forward in the other lists to check if the candidate is in enough of them as well
+		int[] positions = new int[toRead];
+		int[] longPositions = new int[listCount - toRead];
+		while (true) {
+			int id = Integer.MAX_VALUE;
+			for (int i = 0; i < toRead; i++) {
+				int list = order[i];
+				if (positions[i] < sizes[list]) {
+					id = Math.min(id, lists[list][positions[i]]);
+				}
+			}
+			if (id == Integer.MAX_VALUE) {
+				break;
+			}
+			int common = 0;
+			for (int i = 0; i < toRead; i++) {
+				int list = order[i];
+				if (positions[i] < sizes[list] && lists[list][positions[i]] == id) {
+					positions[i]++;
+					common++;
+				}
+			}
+			for (int i = toRead; i < listCount && common < minCommon && common + listCount - i >= minCommon; i++) {
+				int list = order[i];
+				longPositions[i - toRead] = seek(lists[list], longPositions[i - toRead], sizes[list], id);
+				if (longPositions[i - toRead] < sizes[list] && lists[list][longPositions[i - toRead]] == id) {
+					common++;
+				}
+			}
+			if (common < minCommon) {
+				continue;
+			}
+
+			int[] candidate = weights(dictionary.key(id));
+			if (Math.abs(candidate.length - query.length) > match.bestDistance) {
+				continue;
+			}
+			// Allow the best distance too, so that a distance equal to it is a real tie and not the cut off
+			int distance = distance(query, candidate, match.bestDistance);
+			if (distance < match.bestDistance
+					|| (distance == match.bestDistance && match.best >= 0 && dictionary.compare(id, match.best) < 0)) {
+				match.best = id;
+				match.bestDistance = distance;
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the first id which is at least the specified id, starting at <code>from</code>. The
+	 * distance is doubled until we pass the id and then binary search is used, so skipping <code>k</code> ids takes
+	 * <code>O(log k)</code>.
+	 */
+	private static int seek(int[] ids, int from, int size, int id) {
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < size && ids[high] < id) {
+			low = high + 1;
+			high += step;
+			step *= 2;
+		}
+		high = Math.min(high, size);
+		int index = Arrays.binarySearch(ids, low, high, id);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	static int maxDistance(int length) {
+		if (length <= 2) {
+			return 0;
+		}
+		return length <= 6 ? 1 : 2;
+	}
+
+	/**
+	 * Decodes the weights of a key from {@link Dictionary#collationKey(String)}.
+	 */
+	static int[] weights(byte[] key) {
+		int[] weights = new int[key.length];
+		int count = 0;
+		for (int i = 0; i < key.length; ) {
+			int b = key[i] & 0xFF;
+			if (b < 0x80) {
+				weights[count++] = b;
+				i += 1;
+			} else if (b < 0xC0) {
+				weights[count++] = (((b & 0x3F) << 8) | (key[i + 1] & 0xFF)) + 0x80;
+				i += 2;
+			} else {
+				weights[count++] = ((key[i + 1] & 0xFF) << 8) | (key[i + 2] & 0xFF);
+				i += 3;
+			}
+		}
+		return Arrays.copyOf(weights, count);
+	}
+
+	/**
+	 * Returns the distinct trigrams of the weights, padded with two weights at the start and one at the end. Each
+	 * trigram is three 16 bit weights packed into a long.
+	 */
+	static long[] trigrams(int[] weights) {
+		long[] trigrams = new long[weights.length + 1];
+		int count = 0;
+		for (int i = -2; i < weights.length - 1; i++) {
+			long trigram = ((long) weight(weights, i) << 32) | ((long) weight(weights, i + 1) << 16) | weight(weights, i + 2);
+			if (!contains(trigrams, count, trigram)) {
+				trigrams[count++] = trigram;
+			}
+		}
+		return Arrays.copyOf(trigrams, count);
+	}
+
+	private static int weight(int[] weights, int index) {
+		return index >= 0 && index < weights.length ? weights[index] : PADDING;
+	}
+
+	private static long[] difference(long[] trigrams, long[] others) {
+		long[] difference = new long[trigrams.length];
+		int count = 0;
+		for (long trigram : trigrams) {
+			if (!contains(others, others.length, trigram)) {
+				difference[count++] = trigram;
+			}
+		}
+		return Arrays.copyOf(difference, count);
+	}
+
+	private static boolean contains(long[] values, int count, long value) {
+		for (int i = 0; i < count; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Computes the edit distance where insertions, deletions, substitutions and transpositions of adjacent weights
+	 * cost 1 (the optimal string alignment distance). Returns <code>max + 1</code> as soon as the distance is known to
+	 * be larger than <code>max</code>.
+	 */
+	static int distance(int[] s, int[] t, int max) {
+		if (Math.abs(s.length - t.length) > max) {
+			return max + 1;
+		}
+		int[] previous2 = new int[t.length + 1];
+		int[] previous = new int[t.length + 1];
+		int[] current = new int[t.length + 1];
+		for (int j = 0; j <= t.length; j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= s.length; i++) {
+			current[0] = i;
+			int rowMin = i;
+			for (int j = 1; j <= t.length; j++) {
+				int cost = s[i - 1] == t[j - 1] ? 0 : 1;
+				int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && s[i - 1] == t[j - 2] && s[i - 2] == t[j - 1]) {
+					value = Math.min(value, previous2[j - 2] + 1);
+				}
+				current[j] = value;
+				rowMin = Math.min(rowMin, value);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+			int[] swap = previous2;
+			previous2 = previous;
+			previous = current;
+			current = swap;
+		}
+		return Math.min(previous[t.length], max + 1);
+	}
+
+	/**
+	 * The closest word found so far, which starts out as no word at one more than the allowed distance.
+	 */
+	private static final class Match {
+		int best = -1;
+		int bestDistance;
+
+		Match(int maxDistance) {
+			bestDistance = maxDistance + 1;
+		}
+	}
+
+	/**
+	 * The ids of the words containing a trigram. The array is replaced by a larger copy when it's full, which is
+	 * published before the size so that a reader never sees a size larger than its array.
+	 */
+	private static final class Postings {
+		volatile int[] ids = new int[2];
+		volatile int size;
+
+		void add(int id) {
+			int[] ids = this.ids;
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+				this.ids = ids;
+			}
+			ids[size] = id;
+			size++;
+		}
+	}
+}
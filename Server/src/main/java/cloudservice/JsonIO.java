@@ -1,6 +1,13 @@
 package cloudservice;
 
+import cloudservice.Database.SynonymPage;
+import cloudservice.SynonymResource.LookupResult;
+import cloudservice.metrics.Histogram;
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.WebApplicationException;
@@ -9,45 +16,209 @@ import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.ext.MessageBodyReader;
 import jakarta.ws.rs.ext.MessageBodyWriter;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class handles JSON serialization/deserialization so I don't have to deal with that explicitly anywhere else.
+ * <br/>
+ * <br/>The types used by the hot endpoints, {@link SynonymPage}, {@link LookupResult} and the sets of words in the
+ * bodies, are written and parsed by hand since Gson's reflection based adapters allocate a lot for large pages. Pages are
+ * encoded straight to UTF-8 in a per-thread buffer, and sets are parsed from the token stream. Everything else is
+ * handled by Gson.
+ * <br/>
+ * <br/>The time to write each page is recorded, which includes writing to the response stream when the page doesn't
+ * fit in its buffer.
  */
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class JsonIO implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
 	private static final Gson GSON = new Gson();
 
+	private static final ThreadLocal<Utf8JsonWriter> WRITER = ThreadLocal.withInitial(() -> new Utf8JsonWriter(8192));
+
+	private final Histogram pageEncoding;
+
+	public JsonIO() {
+		this(Histogram.durations());
+	}
+
+	public JsonIO(Histogram pageEncoding) {
+		this.pageEncoding = pageEncoding;
+	}
+
 	@Override
 	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-		return true;
+		return type != InputStream.class; // Streamed bodies are parsed by the resource itself
 	}
 
 	@Override
 	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
 						   MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
-		try (InputStreamReader reader = new InputStreamReader(entityStream)) {
+		try (InputStreamReader reader = new InputStreamReader(entityStream, StandardCharsets.UTF_8)) {
+			if (isStringSet(genericType)) {
+				return readStringSet(new JsonReader(reader));
+			}
 			return GSON.fromJson(reader, genericType);
 		}
 	}
 
+	private static boolean isStringSet(Type genericType) {
+		if (genericType instanceof ParameterizedType) {
+			ParameterizedType parameterizedType = (ParameterizedType) genericType;
+			return parameterizedType.getRawType() == Set.class && parameterizedType.getActualTypeArguments()[0] == String.class;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a JSON array of strings in the same way as Gson would, an empty body or <code>null</code> gives null.
+	 * Anything but whitespace after the array is rejected, like Gson does when it checks that the whole document was
+	 * read.
+	 */
+	static Set<String> readStringSet(JsonReader reader) throws IOException {
+		try {
+			Set<String> result = null;
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+			} else {
+				result = new LinkedHashSet<>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (reader.peek() == JsonToken.NULL) {
+						reader.nextNull();
+						result.add(null);
+					} else {
+						result.add(reader.nextString());
+					}
+				}
+				reader.endArray();
+			}
+			if (reader.peek() != JsonToken.END_DOCUMENT) {
+				throw new JsonSyntaxException("Expected the end of the document at " + reader.getPath());
+			}
+			return result;
+		} catch (EOFException e) {
+			return null;
+		} catch (IllegalStateException | MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
 	@Override
 	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-		return true;
+		return type != byte[].class; // Already encoded, e.g. from the response cache
 	}
 
 	@Override
 	public void writeTo(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
 						MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
-		try (OutputStreamWriter writer = new OutputStreamWriter(entityStream)) {
+		if (o instanceof SynonymPage) {
+			long start = System.nanoTime();
+			Utf8JsonWriter writer = WRITER.get();
+			writer.reset(entityStream);
+			writePage((SynonymPage) o, writer);
+			writer.flush();
+			pageEncoding.record(System.nanoTime() - start);
+			return;
+		}
+		if (o instanceof LookupResult) {
+			long start = System.nanoTime();
+			Utf8JsonWriter writer = WRITER.get();
+			writer.reset(entityStream);
+			writeLookup((LookupResult) o, writer);
+			writer.flush();
+			pageEncoding.record(System.nanoTime() - start);
+			return;
+		}
+
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(entityStream, StandardCharsets.UTF_8))) {
 			GSON.toJson(o, genericType, writer);
 		}
 	}
+
+	/**
+	 * Encodes the page to a byte array, in the same way as it's written in a response.
+	 */
+	public static byte[] toBytes(SynonymPage page) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		Utf8JsonWriter writer = WRITER.get();
+		writer.reset(out);
+		writePage(page, writer);
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the groups as newline delimited JSON with one group per line, in the same format as the entries read by
+	 * {@link SynonymBatchReader} so that an export can be imported again:
+	 * <pre>
+	 * {"word":"a","synonyms":["b","c"]}
+	 * </pre>
+	 * The word is the first member of the group and the synonyms are the rest of them. Only one buffer is used no
+	 * matter how many groups there are, it's written to the stream whenever it's full.
+	 */
+	public static void writeGroups(Iterable<MemberList> groups, OutputStream out) throws IOException {
+		Utf8JsonWriter writer = WRITER.get();
+		writer.reset(out);
+		for (MemberList group : groups) {
+			Iterator<String> words = group.iterator();
+			writer.beginObject();
+			writer.name("word").value(words.next());
+			writer.name("synonyms").beginArray();
+			while (words.hasNext()) {
+				writer.value(words.next());
+			}
+			writer.endArray();
+			writer.endObject();
+			writer.newline();
+		}
+		writer.flush();
+	}
+
+	static void writeLookup(LookupResult result, Utf8JsonWriter writer) throws IOException {
+		writer.beginObject();
+		writer.name("pages").beginObject();
+		for (Map.Entry<String, SynonymPage> page : result.pages.entrySet()) {
+			writer.escapedName(page.getKey());
+			writePage(page.getValue(), writer);
+		}
+		writer.endObject();
+		writer.endObject();
+	}
+
+	/**
+	 * Writes the page with the same structure as Gson, where the cursor and match are left out if they are null.
+	 */
+	static void writePage(SynonymPage page, Utf8JsonWriter writer) throws IOException {
+		writer.beginObject();
+		writer.name("total").value(page.total);
+		writer.name("synonyms").beginArray();
+		for (String synonym : page.synonyms) {
+			writer.value(synonym);
+		}
+		writer.endArray();
+		if (page.next != null) {
+			writer.name("next").value(page.next);
+		}
+		if (page.match != null) {
+			writer.name("match").value(page.match);
+		}
+		writer.endObject();
+	}
 }
@@ -0,0 +1,526 @@
+package cloudservice;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable sorted list of words, used to store the members of a synonym group. Internally it's a B-tree where the
+ * leaves are small sorted chunks of words. Modifications copy the path down to the affected leaf and share everything
+ * else, so adding a few words to a huge group is cheap and the old version stays valid for anyone still reading it.
+ * <br/>
+ * <br/>Merging <code>k</code> words into a list of <code>n</code> words takes <code>O(k log n)</code> when
+ * <code>k</code> is small, otherwise the lists are merged linearly and a new tree is built bottom up.
+ * <br/>
+ * <br/>The chunks store the ids of the words in a {@link Dictionary} rather than the words themselves, which takes
+ * a lot less memory, and the words are compared using the collation keys in the dictionary. All lists which are
+ * merged must use the same dictionary.
+ */
+public final class MemberList extends AbstractList<String> {
+	/**
+	 * The words are sorted using the collator, and words which are equal according to the collator (e.g. a vs. A)
+	 * are sorted by their natural order so that the order is total. This is the same order as
+	 * {@link Dictionary#compare(int, int)}.
+	 */
+	public static final Comparator<String> ORDER = Comparator.comparing(Dictionary::collationKey, Arrays::compareUnsigned)
+			.thenComparing(Comparator.naturalOrder());
+
+	private static final int MAX_CHUNK_SIZE = 64;
+	private static final MemberList EMPTY = new MemberList(null, null, 0);
+
+	private final Dictionary dictionary;
+	private final Chunk root;
+	private final int height;
+
+	private MemberList(Dictionary dictionary, Chunk root, int height) {
+		this.dictionary = dictionary;
+		this.root = root;
+		this.height = height;
+	}
+
+	public static MemberList empty() {
+		return EMPTY;
+	}
+
+	public static MemberList of(Dictionary dictionary, int id) {
+		return new MemberList(dictionary, new Leaf(new int[] { id }), 1);
+	}
+
+	/**
+	 * Builds a list from the ids of words that are already sorted according to {@link #ORDER}.
+	 */
+	public static MemberList fromSorted(Dictionary dictionary, int[] ids, int length) {
+		if (length == 0) {
+			return EMPTY;
+		}
+
+		Chunk[] level = new Chunk[(length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE];
+		for (int i = 0; i < level.length; i++) {
+			int start = i * MAX_CHUNK_SIZE;
+			level[i] = new Leaf(Arrays.copyOfRange(ids, start, Math.min(length, start + MAX_CHUNK_SIZE)));
+		}
+
+		int height = 1;
+		while (level.length > 1) {
+			Chunk[] parents = new Chunk[(level.length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE];
+			for (int i = 0; i < parents.length; i++) {
+				int start = i * MAX_CHUNK_SIZE;
+				parents[i] = new Branch(Arrays.copyOfRange(level, start, Math.min(level.length, start + MAX_CHUNK_SIZE)));
+			}
+			level = parents;
+			height++;
+		}
+		return new MemberList(dictionary, level[0], height);
+	}
+
+	/**
+	 * Builds a list from the ids of unsorted words, which must be unique. This is a lot faster than merging the words
+	 * one by one when there are many of them. The array is used as scratch space and is modified.
+	 */
+	public static MemberList fromIds(Dictionary dictionary, int[] ids, int length) {
+		int[] sorted = sort(dictionary, ids, new int[length], length);
+		for (int i = 1; i < length; i++) {
+			if (sorted[i] == sorted[i - 1]) {
+				throw new IllegalStateException("Multiple sets contain the same element!");
+			}
+		}
+		return fromSorted(dictionary, sorted, length);
+	}
+
+	/**
+	 * Bottom up merge sort, since there is no way to sort an int array with a comparator without boxing. Runs of
+	 * a few elements are insertion sorted first. Returns whichever of the two arrays ended up sorted.
+	 */
+	private static int[] sort(Dictionary dictionary, int[] ids, int[] buffer, int length) {
+		final int run = 16;
+		for (int start = 0; start < length; start += run) {
+			int end = Math.min(length, start + run);
+			for (int i = start + 1; i < end; i++) {
+				int id = ids[i];
+				int j = i - 1;
+				for (; j >= start && dictionary.compare(ids[j], id) > 0; j--) {
+					ids[j + 1] = ids[j];
+				}
+				ids[j + 1] = id;
+			}
+		}
+
+		int[] from = ids;
+		int[] to = buffer;
+		for (int width = run; width < length; width *= 2) {
+			for (int start = 0; start < length; start += 2 * width) {
+				int middle = Math.min(length, start + width);
+				int end = Math.min(length, start + 2 * width);
+				int i = start;
+				int j = middle;
+				int k = start;
+				while (i < middle && j < end) {
+					to[k++] = dictionary.compare(from[i], from[j]) <= 0 ? from[i++] : from[j++];
+				}
+				System.arraycopy(from, i, to, k, middle - i);
+				System.arraycopy(from, j, to, k + middle - i, end - j);
+			}
+			int[] swap = from;
+			from = to;
+			to = swap;
+		}
+		return from;
+	}
+
+	/**
+	 * Copies the ids of all the words to the array starting at the specified position.
+	 */
+	void copyIds(int[] destination, int position) {
+		ChunkIterator iterator = new ChunkIterator(0);
+		while (iterator.hasNext()) {
+			destination[position++] = iterator.nextId();
+		}
+	}
+
+	@Override
+	public int size() {
+		return root == null ? 0 : root.size;
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+		}
+		return dictionary.word(root.get(index));
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return iterator(0);
+	}
+
+	/**
+	 * Returns an iterator starting at the specified index, the starting position is found in <code>O(log n)</code>.
+	 */
+	public Iterator<String> iterator(int fromIndex) {
+		return new ChunkIterator(fromIndex);
+	}
+
+	/**
+	 * Returns the index of the first word which is sorted after the specified word, or the size of the list if there
+	 * is none. The word doesn't have to be in the list. This takes <code>O(log n)</code> time.
+	 */
+	public int indexAfter(String word) {
+		byte[] key = Dictionary.collationKey(word);
+		return root == null ? 0 : root.countWhile(id -> dictionary.compare(id, key, word) <= 0);
+	}
+
+	/**
+	 * Returns the index of the first word whose collation key starts with the specified key, or where such a word would
+	 * be if there is none. This takes <code>O(log n)</code> time.
+	 */
+	int indexOfPrefix(byte[] prefix) {
+		return root == null ? 0 : root.countWhile(id -> dictionary.compareKey(id, prefix) < 0);
+	}
+
+	/**
+	 * Returns the id of the first word in <code>O(1)</code>, the list must not be empty.
+	 */
+	int firstId() {
+		return root.first();
+	}
+
+	/**
+	 * Returns an iterator over the ids of the words, starting at the specified index.
+	 */
+	PrimitiveIterator.OfInt idIterator(int fromIndex) {
+		ChunkIterator iterator = new ChunkIterator(fromIndex);
+		return new PrimitiveIterator.OfInt() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public int nextInt() {
+				return iterator.nextId();
+			}
+		};
+	}
+
+	/**
+	 * Returns a new list containing the words in both lists, the lists must not have any words in common.
+	 */
+	public MemberList merge(MemberList other) {
+		MemberList large = size() >= other.size() ? this : other;
+		MemberList small = large == this ? other : this;
+		if (small.size() == 0) {
+			return large;
+		}
+
+		// Inserting costs about log(n) comparisons plus copying a few chunks, so only do it when the other list is small
+		if ((long) small.size() * (32 - Integer.numberOfLeadingZeros(large.size())) * 4 < large.size()) {
+			MemberList result = large;
+			ChunkIterator iterator = small.new ChunkIterator(0);
+			while (iterator.hasNext()) {
+				result = result.insert(iterator.nextId());
+			}
+			return result;
+		}
+		return mergeLinear(large, small);
+	}
+
+	private MemberList insert(int id) {
+		Chunk[] result = root.insert(dictionary, id);
+		if (result.length == 1) {
+			return new MemberList(dictionary, result[0], height);
+		}
+		return new MemberList(dictionary, new Branch(result), height + 1);
+	}
+
+	private static MemberList mergeLinear(MemberList l1, MemberList l2) {
+		Dictionary dictionary = l1.dictionary;
+		int[] merged = new int[l1.size() + l2.size()];
+		int count = 0;
+
+		ChunkIterator it1 = l1.new ChunkIterator(0);
+		ChunkIterator it2 = l2.new ChunkIterator(0);
+		int head1 = it1.nextId();
+		int head2 = it2.nextId();
+		while (head1 >= 0 && head2 >= 0) {
+			int c = compare(dictionary, head1, head2);
+			if (c < 0) {
+				merged[count++] = head1;
+				head1 = it1.hasNext() ? it1.nextId() : -1;
+			} else {
+				merged[count++] = head2;
+				head2 = it2.hasNext() ? it2.nextId() : -1;
+			}
+		}
+		for (; head1 >= 0; head1 = it1.hasNext() ? it1.nextId() : -1) {
+			merged[count++] = head1;
+		}
+		for (; head2 >= 0; head2 = it2.hasNext() ? it2.nextId() : -1) {
+			merged[count++] = head2;
+		}
+		return fromSorted(dictionary, merged, count);
+	}
+
+	private static int compare(Dictionary dictionary, int id1, int id2) {
+		if (id1 == id2) {
+			throw new IllegalStateException("Multiple sets contain the same element!");
+		}
+		return dictionary.compare(id1, id2);
+	}
+
+	private abstract static class Chunk {
+		final int size;
+
+		Chunk(int size) {
+			this.size = size;
+		}
+
+		abstract int first();
+
+		abstract int get(int index);
+
+		/**
+		 * Returns the number of words at the start of this chunk which match the predicate, which must match all the
+		 * words up to some point and none after it.
+		 */
+		abstract int countWhile(IntPredicate predicate);
+
+		/**
+		 * Returns a copy of this chunk with the word inserted, or two chunks if it had to be split.
+		 */
+		abstract Chunk[] insert(Dictionary dictionary, int id);
+	}
+
+	private static final class Leaf extends Chunk {
+		final int[] ids;
+
+		Leaf(int[] ids) {
+			super(ids.length);
+			this.ids = ids;
+		}
+
+		@Override
+		int first() {
+			return ids[0];
+		}
+
+		@Override
+		int get(int index) {
+			return ids[index];
+		}
+
+		@Override
+		int countWhile(IntPredicate predicate) {
+			int low = 0;
+			int high = ids.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (predicate.test(ids[mid])) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		@Override
+		Chunk[] insert(Dictionary dictionary, int id) {
+			int low = 0;
+			int high = ids.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compare(dictionary, ids[mid], id) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			int[] result = new int[ids.length + 1];
+			System.arraycopy(ids, 0, result, 0, low);
+			result[low] = id;
+			System.arraycopy(ids, low, result, low + 1, ids.length - low);
+
+			if (result.length <= MAX_CHUNK_SIZE) {
+				return new Chunk[] { new Leaf(result) };
+			}
+			int half = result.length / 2;
+			return new Chunk[] {
+					new Leaf(Arrays.copyOfRange(result, 0, half)),
+					new Leaf(Arrays.copyOfRange(result, half, result.length))
+			};
+		}
+	}
+
+	private static final class Branch extends Chunk {
+		final Chunk[] children;
+		final int[] firsts;
+		final int[] offsets;
+
+		Branch(Chunk[] children) {
+			super(sumSizes(children));
+			this.children = children;
+			firsts = new int[children.length];
+			offsets = new int[children.length];
+			int offset = 0;
+			for (int i = 0; i < children.length; i++) {
+				firsts[i] = children[i].first();
+				offsets[i] = offset;
+				offset += children[i].size;
+			}
+		}
+
+		private static int sumSizes(Chunk[] children) {
+			int size = 0;
+			for (Chunk child : children) {
+				size += child.size;
+			}
+			return size;
+		}
+
+		@Override
+		int first() {
+			return firsts[0];
+		}
+
+		@Override
+		int get(int index) {
+			int childIdx = childAt(index);
+			return children[childIdx].get(index - offsets[childIdx]);
+		}
+
+		@Override
+		int countWhile(IntPredicate predicate) {
+			int low = 0;
+			int high = children.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (predicate.test(firsts[mid])) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			if (low == 0) {
+				return 0;
+			}
+			return offsets[low - 1] + children[low - 1].countWhile(predicate);
+		}
+
+		/**
+		 * Returns the index of the child which contains the specified index.
+		 */
+		int childAt(int index) {
+			int idx = Arrays.binarySearch(offsets, index);
+			return idx >= 0 ? idx : -idx - 2;
+		}
+
+		@Override
+		Chunk[] insert(Dictionary dictionary, int id) {
+			int low = 1;
+			int high = children.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compare(dictionary, firsts[mid], id) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			int childIdx = low - 1;
+
+			Chunk[] replacement = children[childIdx].insert(dictionary, id);
+			Chunk[] result = new Chunk[children.length + replacement.length - 1];
+			System.arraycopy(children, 0, result, 0, childIdx);
+			System.arraycopy(replacement, 0, result, childIdx, replacement.length);
+			System.arraycopy(children, childIdx + 1, result, childIdx + replacement.length, children.length - childIdx - 1);
+
+			if (result.length <= MAX_CHUNK_SIZE) {
+				return new Chunk[] { new Branch(result) };
+			}
+			int half = result.length / 2;
+			return new Chunk[] {
+					new Branch(Arrays.copyOfRange(result, 0, half)),
+					new Branch(Arrays.copyOfRange(result, half, result.length))
+			};
+		}
+	}
+
+	/**
+	 * Iterates over the leaves from left to right, keeping track of the path from the root to the current leaf.
+	 */
+	private final class ChunkIterator implements Iterator<String> {
+		private final Branch[] path;
+		private final int[] childIndices;
+		private Leaf leaf;
+		private int leafIndex;
+		private int remaining;
+
+		ChunkIterator(int fromIndex) {
+			path = new Branch[height];
+			childIndices = new int[height];
+			remaining = Math.max(0, size() - fromIndex);
+			if (remaining == 0) {
+				return;
+			}
+
+			Chunk chunk = root;
+			int index = fromIndex;
+			int depth = 0;
+			while (chunk instanceof Branch) {
+				Branch branch = (Branch) chunk;
+				int childIdx = branch.childAt(index);
+				path[depth] = branch;
+				childIndices[depth] = childIdx;
+				depth++;
+				index -= branch.offsets[childIdx];
+				chunk = branch.children[childIdx];
+			}
+			leaf = (Leaf) chunk;
+			leafIndex = index;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public String next() {
+			return dictionary.word(nextId());
+		}
+
+		int nextId() {
+			if (remaining == 0) {
+				throw new NoSuchElementException();
+			}
+			if (leafIndex == leaf.ids.length) {
+				nextLeaf();
+			}
+			remaining--;
+			return leaf.ids[leafIndex++];
+		}
+
+		private void nextLeaf() {
+			int depth = height - 2;
+			while (childIndices[depth] + 1 == path[depth].children.length) {
+				depth--;
+			}
+			childIndices[depth]++;
+			Chunk chunk = path[depth].children[childIndices[depth]];
+			for (depth++; depth < height - 1; depth++) {
+				path[depth] = (Branch) chunk;
+				childIndices[depth] = 0;
+				chunk = path[depth].children[0];
+			}
+			leaf = (Leaf) chunk;
+			leafIndex = 0;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package cloudservice;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a resource method which doesn't change anything even though it isn't a GET, usually because its arguments
+ * don't fit in a URL. Followers serve these requests like any other read (see
+ * {@link cloudservice.replication.ReadOnlyFilter}), and the admission control counts them as reads.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ReadOnly {
+}
@@ -0,0 +1,369 @@
+package cloudservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A bounded cache of encoded responses for the synonym queries, so that popular words don't need to be paged and
+ * serialized again for every request.
+ * <br/>
+ * <br/>Each entry remembers which version of the group it was computed from, which is the {@link MemberList} instance
+ * since it's replaced every time the group changes. A lookup only returns the entry if the group is still the same
+ * instance, so entries are invalidated exactly when their group is merged with another one, and all other entries are
+ * left untouched. The group is only weakly referenced so that stale entries don't keep old lists alive.
+ * <br/>
+ * <br/>The size is limited by the number of bytes, and new entries are only admitted if they are used more often than
+ * the entry they would replace (TinyLFU). The usage frequencies are approximated with a count-min sketch of 4-bit
+ * counters which is halved regularly so that old popularity fades away. The victim is the least frequently used of a
+ * few randomly sampled entries, so one-off queries can't push out the popular words.
+ * <br/>
+ * <br/>Lookups don't take any locks, only insertions do.
+ * <br/>
+ * <br/>Clients that accept gzip get their own entries, so a popular page is compressed once instead of on every
+ * request. Those entries contain what is sent to such a client: the compressed page if it's at least
+ * <code>compressionMinBytes</code>, otherwise the page as it is, see {@link #compress(byte[])}.
+ */
+public class ResponseCache {
+	/**
+	 * The size of the cache unless <code>RESPONSE_CACHE_MB</code> is set.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+	/**
+	 * Rough overhead of an entry in addition to the response bytes: the key, map node, weak reference and arrays.
+	 */
+	private static final int ENTRY_OVERHEAD = 200;
+	private static final int EVICTION_SAMPLES = 8;
+
+	private final long maxBytes;
+	private final int compressionMinBytes;
+	private final FrequencySketch sketch;
+
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final List<Entry> entryList = new ArrayList<>(); // Only accessed while holding the lock, for sampling
+	private final Lock lock = new ReentrantLock();
+	private volatile long usedBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+
+	public ResponseCache(long maxBytes) {
+		this(maxBytes, 0);
+	}
+
+	/**
+	 * @param compressionMinBytes The size from which responses are compressed for clients that accept gzip, 0 to
+	 *                            never compress them
+	 */
+	public ResponseCache(long maxBytes, int compressionMinBytes) {
+		this.maxBytes = maxBytes;
+		this.compressionMinBytes = compressionMinBytes;
+		// Assume that responses are about 1KB on average when sizing the sketch
+		sketch = new FrequencySketch((int) Math.max(1024, Math.min(1 << 22, maxBytes / 1024)));
+	}
+
+	/**
+	 * Returns the cached response for the key, or null if there is none or if the group has changed since it was
+	 * cached.
+	 */
+	public byte[] get(Key key, MemberList group) {
+		sketch.increment(key.hashCode());
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			if (entry.group.get() == group) {
+				hits.incrementAndGet();
+				return entry.response;
+			}
+			invalidations.incrementAndGet();
+			remove(entry);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Adds a response to the cache if it's used often enough to be admitted.
+	 */
+	public void put(Key key, MemberList group, byte[] response) {
+		long size = response.length + ENTRY_OVERHEAD + key.word.length() * 2L;
+		if (size > maxBytes) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			Entry old = entries.get(key);
+			if (old != null) {
+				removeLocked(old);
+			}
+
+			int frequency = sketch.frequency(key.hashCode());
+			while (usedBytes + size > maxBytes) {
+				Entry victim = sampleVictim();
+				if (sketch.frequency(victim.key.hashCode()) >= frequency) {
+					rejections.incrementAndGet();
+					return;
+				}
+				removeLocked(victim);
+				evictions.incrementAndGet();
+			}
+
+			Entry entry = new Entry(key, group, response, size);
+			entry.index = entryList.size();
+			entryList.add(entry);
+			entries.put(key, entry);
+			usedBytes += size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Entry sampleVictim() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Entry victim = null;
+		int victimFrequency = Integer.MAX_VALUE;
+		for (int i = 0; i < EVICTION_SAMPLES; i++) {
+			Entry candidate = entryList.get(random.nextInt(entryList.size()));
+			int frequency = sketch.frequency(candidate.key.hashCode());
+			if (frequency < victimFrequency) {
+				victim = candidate;
+				victimFrequency = frequency;
+			}
+		}
+		return victim;
+	}
+
+	private void remove(Entry entry) {
+		lock.lock();
+		try {
+			if (entries.get(entry.key) == entry) {
+				removeLocked(entry);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void removeLocked(Entry entry) {
+		entries.remove(entry.key);
+		Entry last = entryList.remove(entryList.size() - 1);
+		if (last != entry) {
+			last.index = entry.index;
+			entryList.set(entry.index, last);
+		}
+		usedBytes -= entry.size;
+	}
+
+	public boolean isCompressionEnabled() {
+		return compressionMinBytes > 0;
+	}
+
+	/**
+	 * Returns the response compressed with gzip if it's large enough to be worth it, otherwise the response itself.
+	 */
+	public byte[] compress(byte[] response) {
+		if (!isCompressionEnabled() || response.length < compressionMinBytes) {
+			return response;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(response.length / 4);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+			gzip.write(response);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // Can't happen when writing to memory
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns true if the response was compressed by {@link #compress(byte[])}. A gzip stream starts with 2 magic bytes
+	 * which can't be the start of a JSON document.
+	 */
+	public static boolean isCompressed(byte[] response) {
+		return response.length > 1 && response[0] == (byte) 0x1f && response[1] == (byte) 0x8b;
+	}
+
+	public Stats getStats() {
+		return new Stats(hits.get(), misses.get(), invalidations.get(), evictions.get(), rejections.get(),
+				entries.size(), usedBytes, maxBytes);
+	}
+
+	/**
+	 * Identifies a response, the group version is checked separately.
+	 */
+	public static final class Key {
+		private final String word;
+		private final int offset;
+		private final String cursor;
+		private final int limit;
+		/**
+		 * Whether the response is for a client which accepts gzip.
+		 */
+		private final boolean gzip;
+		private final int hash;
+
+		public Key(String word, int offset, String cursor, int limit) {
+			this(word, offset, cursor, limit, false);
+		}
+
+		public Key(String word, int offset, String cursor, int limit, boolean gzip) {
+			this.word = word;
+			this.offset = offset;
+			this.cursor = cursor;
+			this.limit = limit;
+			this.gzip = gzip;
+			hash = Objects.hash(word, offset, cursor, limit, gzip);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return offset == key.offset && limit == key.limit && gzip == key.gzip && word.equals(key.word)
+					&& Objects.equals(cursor, key.cursor);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+		final Key key;
+		final WeakReference<MemberList> group;
+		final byte[] response;
+		final long size;
+		int index;
+
+		Entry(Key key, MemberList group, byte[] response, long size) {
+			this.key = key;
+			this.group = new WeakReference<>(group);
+			this.response = response;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * A count-min sketch with 4 rows of 4-bit counters, packed 16 to a long. Lookups increment it without a lock, so
+	 * each counter is updated with a CAS on its long, which also makes sure that a counter stops at 15 instead of
+	 * overflowing into its neighbor. Only the count of additions before the next halving is a plain field, so it can
+	 * fall a bit behind, which just delays the halving.
+	 */
+	static final class FrequencySketch {
+		private static final VarHandle TABLE = MethodHandles.arrayElementVarHandle(long[].class);
+		private static final long[] SEEDS = { 0x97cb3127L, 0xf2f4a3f1L, 0x6c9f5b2dL, 0xa8e4f0c5L };
+
+		private final long[] table;
+		private final int mask;
+		private final int resetThreshold;
+		private int additions;
+
+		FrequencySketch(int width) {
+			int size = Integer.highestOneBit(width - 1) << 1;
+			table = new long[size];
+			mask = size - 1;
+			resetThreshold = size * 10;
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int row = 0; row < 4; row++) {
+				added |= incrementCounter(index(hash, row), counterShift(hash, row));
+			}
+			if (added && ++additions >= resetThreshold) {
+				reset();
+			}
+		}
+
+		/**
+		 * Adds one to the counter unless it's already at 15, returns false in that case.
+		 */
+		private boolean incrementCounter(int index, int shift) {
+			while (true) {
+				long value = (long) TABLE.getOpaque(table, index);
+				if (((value >>> shift) & 0xF) == 15) {
+					return false;
+				}
+				if (TABLE.weakCompareAndSetPlain(table, index, value, value + (1L << shift))) {
+					return true;
+				}
+			}
+		}
+
+		int frequency(int hash) {
+			int frequency = 15;
+			for (int row = 0; row < 4; row++) {
+				long counter = ((long) TABLE.getOpaque(table, index(hash, row)) >>> counterShift(hash, row)) & 0xF;
+				frequency = Math.min(frequency, (int) counter);
+			}
+			return frequency;
+		}
+
+		/**
+		 * Halves all the counters so that the sketch adapts when the popular words change. The CAS keeps increments
+		 * made meanwhile from being overwritten.
+		 */
+		private void reset() {
+			additions = 0;
+			for (int i = 0; i < table.length; i++) {
+				long value;
+				do {
+					value = (long) TABLE.getOpaque(table, i);
+				} while (!TABLE.weakCompareAndSetPlain(table, i, value, (value >>> 1) & 0x7777777777777777L));
+			}
+		}
+
+		private int index(int hash, int row) {
+			long h = (hash + SEEDS[row]) * 0x9e3779b97f4a7c15L;
+			return (int) (h >>> 40) & mask;
+		}
+
+		private static int counterShift(int hash, int row) {
+			// Each row uses a different counter within the long, chosen by a few bits of the hash
+			return (((hash >>> (row * 8)) & 3) + row * 4) << 2;
+		}
+	}
+
+	public static class Stats {
+		public final long hits;
+		public final long misses;
+		public final long invalidations;
+		public final long evictions;
+		public final long rejections;
+		public final int entries;
+		public final long usedBytes;
+		public final long maxBytes;
+
+		public Stats(long hits, long misses, long invalidations, long evictions, long rejections, int entries, long usedBytes, long maxBytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.invalidations = invalidations;
+			this.evictions = evictions;
+			this.rejections = rejections;
+			this.entries = entries;
+			this.usedBytes = usedBytes;
+			this.maxBytes = maxBytes;
+		}
+	}
+}
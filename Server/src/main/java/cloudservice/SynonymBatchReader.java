@@ -0,0 +1,242 @@
+package cloudservice;
+
+import cloudservice.Database.SynonymEntry;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads synonym entries one at a time from either a JSON array or newline delimited JSON, so that large imports never
+ * have to be kept in memory in their entirety. Each entry has the same format:
+ * <pre>
+ * {"word": "a", "synonyms": ["b", "c"]}
+ * </pre>
+ * Entries with invalid contents are reported using {@link InvalidEntryException} and the reader can keep going with
+ * the next entry, but if the JSON itself is malformed the rest of the input can't be read.
+ * <br/>
+ * <br/>Only strict JSON is accepted, so comments, single quotes and unquoted strings are malformed. Gson can only read
+ * several top level values in lenient mode, which accepts all of those, so newline delimited JSON is read with a new
+ * strict reader for each line instead. That also means that each entry must be on a single line.
+ */
+public class SynonymBatchReader implements Closeable {
+	private static final Pattern LOCATION = Pattern.compile(" at line (\\d+) column (\\d+) path (\\S*)");
+	/**
+	 * Gson suggests enabling lenient mode for JSON which is only accepted in that mode, which isn't for our clients.
+	 */
+	private static final Pattern LENIENT_MESSAGE = Pattern.compile("Use JsonReader\\.set\\S+ to accept malformed JSON");
+
+	private final BufferedReader input;
+	/**
+	 * Reads the whole input if it's an array, otherwise the current line. Null when the next line hasn't been read.
+	 */
+	private JsonReader reader;
+	private boolean started;
+	private boolean inArray;
+	private boolean done;
+	/**
+	 * The line of the input which the reader starts on, used to report where malformed JSON is.
+	 */
+	private int line = 1;
+	private int index = -1;
+
+	public SynonymBatchReader(Reader reader) {
+		this.input = new BufferedReader(reader);
+	}
+
+	/**
+	 * Returns the index of the last entry that was read, starting from 0. If the JSON is malformed it's the index of
+	 * the entry which couldn't be read.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public boolean hasNext() throws IOException {
+		if (done) {
+			return false;
+		}
+		if (!started) {
+			started = true;
+			if (skipWhitespace() == '[') {
+				reader = new JsonReader(input);
+				reader.beginArray();
+				inArray = true;
+			}
+		}
+		if (inArray) {
+			try {
+				if (reader.hasNext()) {
+					return true;
+				}
+				reader.endArray();
+				reader.peek(); // Strict mode fails if there's anything after the array
+			} catch (MalformedJsonException | EOFException e) {
+				index++;
+				throw malformed(e);
+			}
+			done = true;
+			return false;
+		}
+
+		while (reader == null) {
+			String text = input.readLine();
+			if (text == null) {
+				done = true;
+				return false;
+			}
+			if (!text.isBlank()) {
+				reader = new JsonReader(new StringReader(text));
+			} else {
+				line++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips whitespace at the start of the input and returns the first other character, or -1 if there is none.
+	 */
+	private int skipWhitespace() throws IOException {
+		while (true) {
+			input.mark(1);
+			int c = input.read();
+			if (c == '\n') {
+				line++;
+			} else if (c == -1 || !Character.isWhitespace(c)) {
+				input.reset();
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Returns an exception for malformed JSON with the location in the whole input, since the line numbers from Gson
+	 * are from the start of the line for newline delimited JSON. Anything Gson adds after the location is dropped.
+	 */
+	private MalformedJsonException malformed(IOException e) {
+		String message = LENIENT_MESSAGE.matcher(e.getMessage()).replaceFirst("Malformed JSON");
+		Matcher matcher = LOCATION.matcher(message);
+		if (matcher.find()) {
+			int errorLine = Integer.parseInt(matcher.group(1)) + line - 1;
+			message = message.substring(0, matcher.start()) + " at line " + errorLine + " column " + matcher.group(2)
+					+ " path " + matcher.group(3);
+		}
+		MalformedJsonException malformed = new MalformedJsonException(message);
+		malformed.initCause(e);
+		return malformed;
+	}
+
+	/**
+	 * Reads the next entry.
+	 *
+	 * @throws InvalidEntryException If the entry is well-formed JSON but the contents are invalid
+	 * @throws IOException If the JSON is malformed
+	 */
+	public SynonymEntry next() throws IOException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		index++;
+		JsonReader entryReader = reader;
+		if (!inArray) {
+			reader = null;
+			line++;
+		}
+
+		try {
+			SynonymEntry entry = readEntry(entryReader);
+			endLine(entryReader);
+			return entry;
+		} catch (InvalidEntryException e) {
+			endLine(entryReader);
+			throw e;
+		} catch (MalformedJsonException | EOFException e) {
+			if (!inArray) {
+				line--; // Report the line of the entry
+			}
+			throw malformed(e);
+		}
+	}
+
+	/**
+	 * Checks that there is nothing after the entry on the same line for newline delimited JSON, which a strict reader
+	 * fails on.
+	 */
+	private void endLine(JsonReader entryReader) throws IOException {
+		if (!inArray) {
+			entryReader.peek();
+		}
+	}
+
+	private static SynonymEntry readEntry(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			throw new InvalidEntryException("Entry is not an object");
+		}
+
+		String word = null;
+		Set<String> synonyms = null;
+		String error = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("word") && reader.peek() == JsonToken.STRING) {
+				word = reader.nextString();
+			} else if (name.equals("synonyms") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+				synonyms = new LinkedHashSet<>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (reader.peek() != JsonToken.STRING) {
+						reader.skipValue();
+						error = "Entry contains synonym which is null or empty";
+					} else {
+						synonyms.add(reader.nextString());
+					}
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (word == null || word.isBlank()) {
+			throw new InvalidEntryException("Missing 'word'");
+		}
+		if (synonyms == null || synonyms.isEmpty()) {
+			throw new InvalidEntryException("Missing 'synonyms'");
+		}
+		if (error != null) {
+			throw new InvalidEntryException(error);
+		}
+		for (String synonym : synonyms) {
+			if (synonym.isBlank()) {
+				throw new InvalidEntryException("Entry contains synonym which is null or empty");
+			}
+		}
+		return new SynonymEntry(word, synonyms);
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	public static class InvalidEntryException extends IllegalArgumentException {
+		public InvalidEntryException(String message) {
+			super(message);
+		}
+	}
+}
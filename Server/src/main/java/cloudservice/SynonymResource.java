@@ -1,26 +1,87 @@
 package cloudservice;
 
+import cloudservice.Database.Group;
+import cloudservice.Database.SynonymEntry;
 import cloudservice.Database.SynonymPage;
+import cloudservice.SynonymBatchReader.InvalidEntryException;
+import cloudservice.metrics.RequestMetrics;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Path("synonyms")
 public class SynonymResource {
+	public static final String NDJSON = "application/x-ndjson";
+
+	private static final int BATCH_SIZE = 10_000;
+	private static final int MAX_SUGGESTIONS = 100;
+	private static final int MAX_LOOKUP_WORDS = 1000;
+	private static final int MAX_REPORTED_ERRORS = 1000;
+	/**
+	 * Shared caches may store the pages, but must revalidate them using the ETag before every use since we can't
+	 * know when the group will change.
+	 */
+	private static final String CACHE_CONTROL = "public, no-cache";
+	/**
+	 * Appended to the ETag of compressed pages, the same suffix as Jetty uses for the responses it compresses.
+	 */
+	private static final String GZIP_TAG_SUFFIX = "--gzip";
+
 	private final Database database;
+	private final ResponseCache responseCache;
+	private final WritePipeline writePipeline;
+	private final RequestMetrics requestMetrics;
 
 	@Inject
-	public SynonymResource(Database database) {
+	public SynonymResource(Database database, ResponseCache responseCache, WritePipeline writePipeline,
+						   RequestMetrics requestMetrics) {
 		this.database = database;
+		this.responseCache = responseCache;
+		this.writePipeline = writePipeline;
+		this.requestMetrics = requestMetrics;
 	}
 
+	/**
+	 * Adds the synonyms to the word. The request is suspended while the change is waiting to be written to the
+	 * write-ahead log, so the request thread can serve other requests meanwhile instead of blocking on the fsync.
+	 * <br/>
+	 * <br/>What still blocks the request thread is applying the change: when the write pipeline is disabled it waits
+	 * for the locks of the groups it changes (and for removals and checkpoints, which hold the state lock exclusively),
+	 * and when it's enabled it waits for space in the queue if it's full. These waits are short unless the server is
+	 * overloaded, and blocking on the full queue is how the clients are slowed down, so I've left them as they are.
+	 */
 	@POST
-	public void add(@QueryParam("word") String word, Set<String> synonyms) {
+	public void add(@QueryParam("word") String word, Set<String> synonyms, @Suspended AsyncResponse response) {
 		if (word == null || word.isBlank()) {
 			throw new BadRequestException("Missing 'word' argument");
 		}
@@ -33,17 +94,361 @@ public class SynonymResource {
 			}
 		}
 
-		database.addSynonyms(word, synonyms);
+		writePipeline.addSynonyms(word, synonyms).whenComplete((ignored, e) -> {
+			if (e != null) {
+				response.resume(unwrap(e));
+			} else {
+				response.resume(Response.noContent().build());
+			}
+		});
+	}
+
+	/**
+	 * Removes a synonym that was added to the word (or the word to it). The group is split if the word and the synonym
+	 * are no longer connected through other synonyms. Synonyms by transitivity can't be removed, since it's not clear
+	 * which of the synonyms in between should be removed, so they give 404 like words which aren't synonyms at all.
+	 */
+	@DELETE
+	public void remove(@QueryParam("word") String word, @QueryParam("synonym") String synonym, @Suspended AsyncResponse response) {
+		if (word == null || word.isBlank()) {
+			throw new BadRequestException("Missing 'word' argument");
+		}
+		if (synonym == null || synonym.isBlank()) {
+			throw new BadRequestException("Missing 'synonym' argument");
+		}
+
+		database.removeSynonymAsync(word, synonym).whenComplete((removed, e) -> {
+			if (e != null) {
+				response.resume(unwrap(e));
+			} else if (!removed) {
+				response.resume(new NotFoundException("'" + synonym + "' hasn't been added as a synonym of '" + word + "'"));
+			} else {
+				response.resume(Response.noContent().build());
+			}
+		});
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+
+	/**
+	 * Imports many synonym entries in one request, either as a JSON array or as newline delimited JSON with one entry
+	 * per line (see {@link SynonymBatchReader} for the format). The body is parsed while it's being received and the
+	 * valid entries are added to the database in batches of {@value #BATCH_SIZE}, each batch using a single lock.
+	 * <br/>
+	 * <br/>Invalid entries are skipped and reported in the result together with their index. If the JSON is malformed
+	 * the request fails with 400, but the batches before the error have already been added, so the result is still
+	 * returned with <code>malformed</code> set to the index of the entry that couldn't be read and where in the body
+	 * the error is. The client can then resend the entries from that index.
+	 * <br/>
+	 * <br/>Like for single additions the request thread doesn't wait for the batches to be written to disk, the next
+	 * batch is read and applied meanwhile and the request is resumed when all of them are durable. Reading the body
+	 * and applying each batch is still done by the request thread.
+	 */
+	@POST
+	@Path("batch")
+	@Consumes({MediaType.APPLICATION_JSON, NDJSON})
+	@Produces(MediaType.APPLICATION_JSON)
+	public void addBatch(InputStream body, @Suspended AsyncResponse response) throws IOException {
+		BatchResult result = new BatchResult();
+		List<SynonymEntry> batch = new ArrayList<>(BATCH_SIZE);
+		CompletableFuture<Void> durable = CompletableFuture.completedFuture(null);
+		try (SynonymBatchReader reader = new SynonymBatchReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			try {
+				while (reader.hasNext()) {
+					try {
+						batch.add(reader.next());
+					} catch (InvalidEntryException e) {
+						result.addError(reader.getIndex(), e.getMessage());
+						continue;
+					}
+					if (batch.size() == BATCH_SIZE) {
+						durable = CompletableFuture.allOf(durable, addBatch(batch, result));
+						if (durable.isCompletedExceptionally()) {
+							break; // The batch couldn't be applied, so there's no point in reading the rest
+						}
+						batch.clear();
+					}
+				}
+			} catch (IOException e) {
+				result.malformed = new EntryError(reader.getIndex(), e.getMessage());
+			}
+		}
+		if (!batch.isEmpty() && !durable.isCompletedExceptionally()) {
+			durable = CompletableFuture.allOf(durable, addBatch(batch, result));
+		}
+
+		durable.whenComplete((ignored, e) -> {
+			if (e != null) {
+				response.resume(unwrap(e));
+			} else if (result.malformed != null) {
+				response.resume(Response.status(Status.BAD_REQUEST).entity(result).type(MediaType.APPLICATION_JSON_TYPE).build());
+			} else {
+				response.resume(Response.ok(result, MediaType.APPLICATION_JSON_TYPE).build());
+			}
+		});
 	}
 
+	/**
+	 * Applies the batch and counts it as added, the returned future is completed when it's durable. The batch can be
+	 * reused once this returns.
+	 */
+	private CompletableFuture<Void> addBatch(List<SynonymEntry> batch, BatchResult result) {
+		CompletableFuture<Void> future = database.addSynonymsAsync(batch);
+		result.added += batch.size();
+		return future;
+	}
+
+	/**
+	 * Returns a page of synonyms. The next page can be fetched either with an offset, or with the cursor returned
+	 * with the previous page, which is stable even if synonyms are added between the requests.
+	 * <br/>
+	 * <br/>The encoded pages are cached in the {@link ResponseCache}, so popular words are returned directly from
+	 * there as long as their groups don't change.
+	 * <br/>
+	 * <br/>The response has an ETag based on the version of the group, so browsers and CloudFront can revalidate
+	 * their copy with <code>If-None-Match</code> and get a 304 without the page being built or sent again.
+	 * <br/>
+	 * <br/>Clients which accept gzip get the page compressed here rather than by Jetty's compression handler, so that
+	 * the compressed page can be cached too. The compressed page has the ETag of the page with <code>--gzip</code>
+	 * appended, since a strong ETag must only match the exact same bytes. Either tag gives a 304 for a client which
+	 * accepts gzip, as long as the version is the same, and <code>Vary: Accept-Encoding</code> keeps the encodings
+	 * apart in shared caches.
+	 * <br/>
+	 * <br/>With <code>fuzzy=true</code> a word which doesn't exist is replaced by the closest known word, if there is
+	 * one within 1-2 edits, and that word is returned as <code>match</code> in the page. The lookup is only done when
+	 * the word is missing, and the budget for it is 2ms at the 99th percentile (with 1M words the median is about
+	 * 0.5ms, see {@link FuzzyIndex} and <code>FuzzyLookupBenchmark</code>). These pages are not cached since misspellings
+	 * are rarely repeated.
+	 */
 	@GET
-	public SynonymPage list(@QueryParam("word") String word, @QueryParam("limit") int limit) {
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response list(@QueryParam("word") String word, @QueryParam("limit") int limit,
+						 @QueryParam("offset") int offset, @QueryParam("cursor") String cursor,
+						 @QueryParam("fuzzy") boolean fuzzy, @Context Request request,
+						 @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) throws IOException {
 		if (word == null || word.isBlank()) {
 			throw new BadRequestException("Missing 'word' argument");
 		}
 		if (limit <= 0) {
 			throw new BadRequestException("The 'limit' must be larger than 0 but was " + limit);
 		}
-		return database.getSynonyms(word, limit);
+		if (offset < 0) {
+			throw new BadRequestException("The 'offset' must not be negative but was " + offset);
+		}
+		if (cursor != null && offset != 0) {
+			throw new BadRequestException("The 'offset' and 'cursor' arguments can't be combined");
+		}
+
+		Group group = database.getGroup(word);
+		String match = null;
+		if (group == null && fuzzy) {
+			match = database.findClosestWord(word);
+			if (match != null) {
+				group = database.getGroup(match);
+			}
+		}
+		boolean gzip = responseCache.isCompressionEnabled() && acceptsGzip(acceptEncoding);
+		String versionTag = database.getVersionTag(group);
+		EntityTag tag = new EntityTag(versionTag);
+		ResponseBuilder notModified = request.evaluatePreconditions(tag);
+		if (notModified == null && gzip) {
+			notModified = request.evaluatePreconditions(new EntityTag(versionTag + GZIP_TAG_SUFFIX));
+		}
+		if (notModified != null) {
+			return notModified.header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL).build();
+		}
+
+		MemberList members = group != null ? group.members : null;
+		boolean cacheable = members != null && match == null;
+		ResponseCache.Key key = new ResponseCache.Key(word, offset, cursor, limit, gzip);
+		byte[] response = cacheable ? responseCache.get(key, members) : null;
+		if (response == null) {
+			String groupWord = match != null ? match : word;
+			SynonymPage page;
+			if (cursor != null) {
+				try {
+					page = Database.getSynonymsAfter(groupWord, members, cursor, limit);
+				} catch (IllegalArgumentException e) {
+					throw new BadRequestException("Invalid 'cursor' argument");
+				}
+			} else {
+				page = Database.getSynonyms(groupWord, members, offset, limit);
+			}
+			if (match != null) {
+				page = new SynonymPage(page.total, page.synonyms, page.next, match);
+			}
+			long start = System.nanoTime();
+			response = JsonIO.toBytes(page);
+			requestMetrics.jsonEncoding.record(System.nanoTime() - start);
+			if (gzip) {
+				response = responseCache.compress(response);
+			}
+			if (cacheable) {
+				responseCache.put(key, members, response);
+			}
+		}
+		ResponseBuilder builder = Response.ok(response, MediaType.APPLICATION_JSON_TYPE)
+				.header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+		if (responseCache.isCompressionEnabled()) {
+			builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+		if (ResponseCache.isCompressed(response)) {
+			builder.tag(new EntityTag(versionTag + GZIP_TAG_SUFFIX)).header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		} else {
+			builder.tag(tag);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the first page of synonyms of each word in the body, which is a JSON array of words like when adding
+	 * synonyms, with at most <code>limit</code> synonyms per word. This is for clients which need the synonyms of many
+	 * words at once, e.g. every word in a search query, and saves them a round trip per word. The response has the
+	 * pages keyed by word in the same order as the words:
+	 * <pre>
+	 * {"pages":{"a":{"total":2,"synonyms":["b","c"]},"x":{"total":0,"synonyms":[]}}}
+	 * </pre>
+	 * All the groups are read at the same point in time, and words in the same group only read the group once (see
+	 * {@link Database#getGroups}). The pages are not cached, neither here nor by browsers since it's a POST. It's a
+	 * POST only because the words might not fit in a URL, so it's {@link ReadOnly} and also served by followers.
+	 */
+	@POST
+	@Path("lookup")
+	@ReadOnly
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public LookupResult lookup(@QueryParam("limit") int limit, Set<String> words) {
+		if (words == null || words.isEmpty()) {
+			throw new BadRequestException("Missing word list body");
+		}
+		if (words.size() > MAX_LOOKUP_WORDS) {
+			throw new BadRequestException("At most " + MAX_LOOKUP_WORDS + " words can be looked up at once but there were " + words.size());
+		}
+		for (String word : words) {
+			if (word == null || word.isBlank()) {
+				throw new BadRequestException("Body contains word which is null or empty");
+			}
+		}
+		if (limit <= 0) {
+			throw new BadRequestException("The 'limit' must be larger than 0 but was " + limit);
+		}
+		return new LookupResult(database.getSynonyms(words, limit));
+	}
+
+	/**
+	 * Returns true if the <code>Accept-Encoding</code> header includes gzip, and doesn't give it a quality of 0.
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim();
+			if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+				for (int i = 1; i < parts.length; i++) {
+					String parameter = parts[i].trim();
+					if (parameter.matches("[qQ]=0(\\.0*)?")) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns words which start with the prefix, for autocompletion. The prefix is matched ignoring case and accents
+	 * in the same way as the synonyms are sorted.
+	 */
+	@GET
+	@Path("suggest")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Suggestions suggest(@QueryParam("prefix") String prefix, @QueryParam("limit") int limit) {
+		if (prefix == null || prefix.isBlank()) {
+			throw new BadRequestException("Missing 'prefix' argument");
+		}
+		if (limit <= 0 || limit > MAX_SUGGESTIONS) {
+			throw new BadRequestException("The 'limit' must be between 1 and " + MAX_SUGGESTIONS + " but was " + limit);
+		}
+		return new Suggestions(database.suggest(prefix, limit));
+	}
+
+	/**
+	 * Streams all the groups with at least two words as newline delimited JSON, one group per line in collation order
+	 * (see {@link JsonIO#writeGroups} for the format, which can be imported with the batch endpoint). It's meant for
+	 * backups and for feeding the synonyms to other systems.
+	 * <br/>
+	 * <br/>The groups come from a point-in-time view taken with {@link Database#getSortedGroups()}, which copies the
+	 * group references without blocking any writes. Writes made during the export are not included. That view takes
+	 * memory in proportion to the number of words and groups, but not to their members, see its doc for the bound.
+	 * The response is written in chunks through a fixed buffer, and since writing to the response blocks when the
+	 * client doesn't keep up, a slow client just slows down its own export.
+	 */
+	@GET
+	@Path("export")
+	@Produces(NDJSON)
+	public Response export() {
+		List<MemberList> groups = database.getSortedGroups();
+		StreamingOutput body = out -> JsonIO.writeGroups(groups, out);
+		return Response.ok(body, NDJSON)
+				.header(HttpHeaders.CACHE_CONTROL, "no-store")
+				.build();
+	}
+
+	@GET
+	@Path("cache")
+	public ResponseCache.Stats cacheStats() {
+		return responseCache.getStats();
+	}
+
+	public static class BatchResult {
+		public int added;
+		public int failed;
+		/**
+		 * The first 1000 errors, the rest are only counted.
+		 */
+		public final List<EntryError> errors = new ArrayList<>();
+		/**
+		 * Set if the JSON was malformed, to the index of the entry that couldn't be read and a message with the line
+		 * and column of the error. None of the entries after it were added.
+		 */
+		public EntryError malformed;
+
+		private void addError(int index, String message) {
+			failed++;
+			if (errors.size() < MAX_REPORTED_ERRORS) {
+				errors.add(new EntryError(index, message));
+			}
+		}
+	}
+
+	public static class LookupResult {
+		public final Map<String, SynonymPage> pages;
+
+		public LookupResult(Map<String, SynonymPage> pages) {
+			this.pages = pages;
+		}
+	}
+
+	public static class Suggestions {
+		public final List<String> words;
+
+		public Suggestions(List<String> words) {
+			this.words = words;
+		}
+	}
+
+	public static class EntryError {
+		public final int index;
+		public final String message;
+
+		public EntryError(int index, String message) {
+			this.index = index;
+			this.message = message;
+		}
 	}
 }
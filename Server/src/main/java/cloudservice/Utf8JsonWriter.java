@@ -0,0 +1,229 @@
+package cloudservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A minimal JSON writer which encodes directly to UTF-8 bytes in a buffer, which is written to the output stream when
+ * it's full. Unlike an <code>OutputStreamWriter</code> it doesn't need any intermediate char buffers or encoder, and
+ * the buffer is reused between responses.
+ * <br/>
+ * <br/>It doesn't keep track of the structure, so the caller is responsible for producing valid JSON except for the
+ * commas which are added automatically.
+ */
+final class Utf8JsonWriter {
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final int MAX_DEPTH = 32;
+
+	private final byte[] buffer;
+	private int position;
+	private OutputStream out;
+
+	private final boolean[] hasElements = new boolean[MAX_DEPTH];
+	private int depth;
+	private boolean afterName;
+
+	Utf8JsonWriter(int bufferSize) {
+		buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Starts writing a new document to the specified stream, the writer must not be used for anything else until
+	 * {@link #flush()} is called.
+	 */
+	void reset(OutputStream out) {
+		this.out = out;
+		position = 0;
+		depth = 0;
+		afterName = false;
+	}
+
+	Utf8JsonWriter beginObject() throws IOException {
+		beforeValue();
+		writeByte('{');
+		hasElements[++depth] = false;
+		return this;
+	}
+
+	Utf8JsonWriter endObject() throws IOException {
+		depth--;
+		writeByte('}');
+		return this;
+	}
+
+	Utf8JsonWriter beginArray() throws IOException {
+		beforeValue();
+		writeByte('[');
+		hasElements[++depth] = false;
+		return this;
+	}
+
+	Utf8JsonWriter endArray() throws IOException {
+		depth--;
+		writeByte(']');
+		return this;
+	}
+
+	/**
+	 * Writes the name of an object member, the name must not need any escaping.
+	 */
+	Utf8JsonWriter name(String name) throws IOException {
+		beforeValue();
+		writeByte('"');
+		for (int i = 0; i < name.length(); i++) {
+			writeByte(name.charAt(i));
+		}
+		writeByte('"');
+		writeByte(':');
+		afterName = true;
+		return this;
+	}
+
+	/**
+	 * Writes the name of an object member which can be any string, such as a word, escaped in the same way as values.
+	 */
+	Utf8JsonWriter escapedName(String name) throws IOException {
+		value(name);
+		writeByte(':');
+		afterName = true;
+		return this;
+	}
+
+	Utf8JsonWriter value(int value) throws IOException {
+		beforeValue();
+		if (value < 0) {
+			if (value == Integer.MIN_VALUE) {
+				writeAscii(Integer.toString(value));
+				return this;
+			}
+			writeByte('-');
+			value = -value;
+		}
+		ensureCapacity(10);
+		int digits = 1;
+		for (int rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		for (int i = position + digits - 1; i >= position; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		position += digits;
+		return this;
+	}
+
+	Utf8JsonWriter value(String value) throws IOException {
+		beforeValue();
+		if (value == null) {
+			writeAscii("null");
+			return this;
+		}
+
+		writeByte('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				if (c < 0x20 || c == '"' || c == '\\') {
+					writeEscaped(c);
+				} else {
+					writeByte(c);
+				}
+			} else if (c < 0x800) {
+				ensureCapacity(2);
+				buffer[position++] = (byte) (0xC0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (c == '\u2028' || c == '\u2029') {
+				writeEscaped(c); // Valid JSON, but not valid in JavaScript strings
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				ensureCapacity(4);
+				buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				writeByte('?'); // Unpaired surrogate, same replacement as the standard encoder
+			} else {
+				ensureCapacity(3);
+				buffer[position++] = (byte) (0xE0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		writeByte('"');
+		return this;
+	}
+
+	/**
+	 * Ends a top level value with a newline, for newline delimited JSON.
+	 */
+	Utf8JsonWriter newline() throws IOException {
+		writeByte('\n');
+		return this;
+	}
+
+	/**
+	 * Writes the remaining buffered bytes to the stream, the stream is not closed.
+	 */
+	void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+		out.flush();
+		out = null;
+	}
+
+	private void beforeValue() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (depth > 0) {
+			if (hasElements[depth]) {
+				writeByte(',');
+			}
+			hasElements[depth] = true;
+		}
+	}
+
+	private void writeEscaped(char c) throws IOException {
+		switch (c) {
+			case '"': writeAscii("\\\""); break;
+			case '\\': writeAscii("\\\\"); break;
+			case '\n': writeAscii("\\n"); break;
+			case '\r': writeAscii("\\r"); break;
+			case '\t': writeAscii("\\t"); break;
+			default:
+				ensureCapacity(6);
+				buffer[position++] = '\\';
+				buffer[position++] = 'u';
+				buffer[position++] = HEX[(c >> 12) & 0xF];
+				buffer[position++] = HEX[(c >> 8) & 0xF];
+				buffer[position++] = HEX[(c >> 4) & 0xF];
+				buffer[position++] = HEX[c & 0xF];
+		}
+	}
+
+	private void writeAscii(String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			writeByte(text.charAt(i));
+		}
+	}
+
+	private void writeByte(int b) throws IOException {
+		if (position == buffer.length) {
+			drain();
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	private void ensureCapacity(int count) throws IOException {
+		if (position + count > buffer.length) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+}
@@ -0,0 +1,170 @@
+package cloudservice;
+
+import cloudservice.Database.SynonymEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Applies the additions from the API to the database. By default every request applies its own change, which runs in
+ * parallel with other writes as long as they touch different groups. When many requests write to the same group they
+ * mostly wait for each other's locks though, so there is also a mode where all additions are put on a bounded queue
+ * and applied by a single writer thread.
+ * <br/>
+ * <br/>The writer takes everything that is waiting in the queue (up to the batch size) and applies it as one batch
+ * with {@link Database#addSynonyms(List)}. That way a burst of writes to the same group is merged once instead of
+ * once per request, and there are no lock handoffs between the requests. The future of each request is completed
+ * when its batch has been applied and is durable, so a request which gets a response will always see its own write.
+ * The writer doesn't wait for the fsync itself, it continues with the next batch while the previous one is written
+ * to disk.
+ * <br/>
+ * <br/>The queue is an array used as a ring buffer, when it's full the requests wait for space which slows down the
+ * clients instead of using up memory.
+ */
+public class WritePipeline implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WritePipeline.class);
+
+	private static final PendingWrite CLOSE = new PendingWrite(null);
+
+	private final Database database;
+	/**
+	 * Null when the pipeline is disabled and writes are applied directly.
+	 */
+	private final BlockingQueue<PendingWrite> queue;
+	private final int maxBatchSize;
+	private final Thread writer;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a pipeline which applies every write directly in the calling thread.
+	 */
+	public WritePipeline(Database database) {
+		this(database, 0, 0);
+	}
+
+	/**
+	 * Creates a pipeline with a single writer thread, unless the capacity is 0 in which case writes are applied
+	 * directly.
+	 *
+	 * @param capacity The number of writes that can be waiting before new writes have to wait for space
+	 * @param maxBatchSize The maximum number of writes that are applied together
+	 */
+	public WritePipeline(Database database, int capacity, int maxBatchSize) {
+		this.database = database;
+		this.maxBatchSize = Math.max(maxBatchSize, 1);
+		if (capacity > 0) {
+			queue = new ArrayBlockingQueue<>(capacity);
+			writer = new Thread(this::runWriter, "synonym-writer");
+			writer.setDaemon(true);
+			writer.start();
+		} else {
+			queue = null;
+			writer = null;
+		}
+	}
+
+	/**
+	 * Adds the synonyms, the returned future is completed when they are visible to queries and durable. If the write
+	 * fails the future is completed exceptionally.
+	 */
+	public CompletableFuture<Void> addSynonyms(String word, Set<String> synonyms) {
+		if (closed) {
+			return CompletableFuture.failedFuture(new IllegalStateException("The write pipeline is closed"));
+		}
+		if (queue == null) {
+			return database.addSynonymsAsync(word, synonyms);
+		}
+
+		PendingWrite write = new PendingWrite(new SynonymEntry(word, synonyms));
+		try {
+			queue.put(write);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			write.future.completeExceptionally(e);
+			return write.future;
+		}
+		// If the pipeline was closed while we waited for space, the writer may have stopped and close() may have
+		// drained the queue already. Whoever removes the write from the queue completes it, so it's failed here if
+		// nobody else got to it. Writes which were put before it was closed are ahead of the close in the queue.
+		if (closed && queue.remove(write)) {
+			write.future.completeExceptionally(new IllegalStateException("The write pipeline is closed"));
+		}
+		return write.future;
+	}
+
+	private void runWriter() {
+		List<PendingWrite> batch = new ArrayList<>();
+		List<SynonymEntry> entries = new ArrayList<>();
+		while (true) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, maxBatchSize - 1);
+
+			boolean close = false;
+			for (PendingWrite write : batch) {
+				if (write == CLOSE) {
+					close = true;
+				} else {
+					entries.add(write.entry);
+				}
+			}
+			List<PendingWrite> writes = List.copyOf(batch);
+			int size = entries.size();
+			CompletableFuture<Void> applied = entries.isEmpty() ? CompletableFuture.completedFuture(null) : database.addSynonymsAsync(entries);
+			applied.whenComplete((ignored, e) -> {
+				if (e == null) {
+					writes.forEach(write -> write.future.complete(null));
+				} else {
+					LOGGER.error("Failed to apply a batch of {} writes", size, e);
+					writes.forEach(write -> write.future.completeExceptionally(e));
+				}
+			});
+			batch.clear();
+			entries.clear();
+			if (close) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting writes and waits for the ones that are already queued to be applied.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (writer == null) {
+			return;
+		}
+		try {
+			queue.put(CLOSE);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// Writes which were queued after the writer stopped
+		PendingWrite write;
+		while ((write = queue.poll()) != null) {
+			write.future.completeExceptionally(new IllegalStateException("The write pipeline is closed"));
+		}
+	}
+
+	private static class PendingWrite {
+		final SynonymEntry entry;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		PendingWrite(SynonymEntry entry) {
+			this.entry = entry;
+		}
+	}
+}
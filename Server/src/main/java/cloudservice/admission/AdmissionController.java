@@ -0,0 +1,156 @@
+package cloudservice.admission;
+
+import cloudservice.ReadOnly;
+import cloudservice.SynonymResource;
+import cloudservice.metrics.MetricsResource;
+import cloudservice.metrics.MetricsSource;
+import cloudservice.metrics.RequestMetrics;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.DynamicFeature;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.FeatureContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protects the queries from write storms. The Javadoc of the database describes the worst case: heavy writes to the
+ * same group at the same time as queries, which used to push the query latency past 100ms. The queries no longer
+ * wait for the writes, but they still compete with them for CPU and request threads.
+ * <br/>
+ * <br/>Reads and writes of synonyms each have their own {@link AimdLimit} on the number of requests in flight, so a
+ * backlog of writes can't take all the capacity. Posted lookups marked with {@link ReadOnly} count as reads. When a
+ * read takes longer than the read target, which is the latency objective of the queries, the write limit is cut. The
+ * read limit is only cut once writes are already at their minimum, so writes are shed first and the backlog drains
+ * while the reads keep their latency. A write which is slower than the write target only cuts the write limit.
+ * <br/>
+ * <br/>Requests over the limit get a 503 with <code>Retry-After</code> right away, instead of waiting in the queue of
+ * the thread pool where they would make every request behind them slower too.
+ * <br/>
+ * <br/>Only the endpoints of {@link SynonymResource} are limited. The metrics and replication endpoints have to
+ * work even when the server is overloaded, since that's when they are needed most. The export is left out too, it
+ * runs for as long as it takes to stream the whole database and would otherwise look like an overloaded server.
+ */
+public class AdmissionController implements DynamicFeature, MetricsSource {
+	private static final String START_PROPERTY = AdmissionController.class.getName() + ".start";
+
+	private final AimdLimit reads;
+	private final AimdLimit writes;
+	private final long readTargetNanos;
+	private final long writeTargetNanos;
+	private final int retryAfterSeconds;
+
+	public AdmissionController(AimdLimit reads, AimdLimit writes, long readTargetMillis, long writeTargetMillis,
+							   int retryAfterSeconds) {
+		this.reads = reads;
+		this.writes = writes;
+		this.readTargetNanos = TimeUnit.MILLISECONDS.toNanos(readTargetMillis);
+		this.writeTargetNanos = TimeUnit.MILLISECONDS.toNanos(writeTargetMillis);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	@Override
+	public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+		if (resourceInfo.getResourceClass() == SynonymResource.class && !resourceInfo.getResourceMethod().getName().equals("export")) {
+			String method = RequestMetrics.getHttpMethod(resourceInfo.getResourceMethod());
+			boolean read = method.equals("GET") || method.equals("HEAD") || resourceInfo.getResourceMethod().isAnnotationPresent(ReadOnly.class);
+			context.register(new AdmissionFilter(read));
+		}
+	}
+
+	/**
+	 * Admits a request, or returns the response to reject it with.
+	 */
+	Response admit(boolean read) {
+		if ((read ? reads : writes).tryAcquire()) {
+			return null;
+		}
+		return Response.status(Status.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+				.entity("The server is overloaded, too many " + (read ? "reads" : "writes") + " are in progress")
+				.type(MediaType.TEXT_PLAIN)
+				.build();
+	}
+
+	/**
+	 * Releases an admitted request and adjusts the limits to its latency.
+	 */
+	void complete(boolean read, long start, long end) {
+		long latency = end - start;
+		if (read) {
+			reads.release();
+			if (latency <= readTargetNanos) {
+				reads.increase();
+			} else if (!writes.decrease(start) && writes.isAtMinimum()) {
+				reads.decrease(start);
+			}
+		} else {
+			writes.release();
+			if (latency <= writeTargetNanos) {
+				writes.increase();
+			} else {
+				writes.decrease(start);
+			}
+		}
+	}
+
+	public AimdLimit getReads() {
+		return reads;
+	}
+
+	public AimdLimit getWrites() {
+		return writes;
+	}
+
+	@Override
+	public void write(StringBuilder out) {
+		MetricsResource.writeHeader(out, "synonyms_admission_limit", "gauge", "Current limit on the requests in flight");
+		out.append("synonyms_admission_limit{kind=\"read\"} ").append(reads.getLimit()).append('\n');
+		out.append("synonyms_admission_limit{kind=\"write\"} ").append(writes.getLimit()).append('\n');
+
+		MetricsResource.writeHeader(out, "synonyms_admission_in_flight", "gauge", "Admitted requests in flight");
+		out.append("synonyms_admission_in_flight{kind=\"read\"} ").append(reads.getInFlight()).append('\n');
+		out.append("synonyms_admission_in_flight{kind=\"write\"} ").append(writes.getInFlight()).append('\n');
+
+		MetricsResource.writeHeader(out, "synonyms_admission_rejected_total", "counter", "Requests rejected with 503");
+		out.append("synonyms_admission_rejected_total{kind=\"read\"} ").append(reads.getRejected()).append('\n');
+		out.append("synonyms_admission_rejected_total{kind=\"write\"} ").append(writes.getRejected()).append('\n');
+	}
+
+	/**
+	 * Bound to each resource method of {@link SynonymResource}. The response filter also runs for requests which were
+	 * rejected or failed, the start time is only set for admitted requests so that exactly those are released.
+	 */
+	private class AdmissionFilter implements ContainerRequestFilter, ContainerResponseFilter {
+		private final boolean read;
+
+		AdmissionFilter(boolean read) {
+			this.read = read;
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request) {
+			Response rejection = admit(read);
+			if (rejection != null) {
+				request.abortWith(rejection);
+			} else {
+				request.setProperty(START_PROPERTY, System.nanoTime());
+			}
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+			Object start = request.getProperty(START_PROPERTY);
+			if (start != null) {
+				request.removeProperty(START_PROPERTY);
+				complete(read, (Long) start, System.nanoTime());
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package cloudservice.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A limit on the number of requests in flight which adapts in the same way as TCP's congestion window: additive
+ * increase, multiplicative decrease (AIMD). While requests are fast and the limit is actually being used it grows by
+ * about one per round of requests, and when a request is too slow it's cut by the backoff factor.
+ * <br/>
+ * <br/>When the server is overloaded every request that is in flight will be slow, so cutting the limit for each of
+ * them would drop it to the minimum at once. Like TCP the limit is only cut once per round: a slow request which
+ * started before the last cut was admitted under the old limit and doesn't cut it again.
+ * <br/>
+ * <br/>Admitting a request is a compare-and-set on the in-flight count, and growing the limit after a fast request is
+ * a compare-and-set on the bits of the limit, which is skipped entirely when less than half of the limit is used or
+ * it's already at the maximum. Only cutting the limit is synchronized, since it also has to check and update when the
+ * limit was last cut, and that only happens for slow requests.
+ */
+public class AimdLimit {
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoff;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+	/**
+	 * The limit as the bits of a double, so that it can be grown with compare-and-set.
+	 */
+	private final AtomicLong limitBits;
+	/**
+	 * When the limit was last cut, in {@link System#nanoTime()}.
+	 */
+	private long lastDecrease = System.nanoTime();
+
+	/**
+	 * Creates a limit which starts at the maximum.
+	 *
+	 * @param backoff The factor the limit is multiplied by when a request is too slow, between 0 and 1
+	 */
+	public AimdLimit(int minLimit, int maxLimit, double backoff) {
+		if (minLimit < 1 || maxLimit < minLimit || backoff <= 0 || backoff >= 1) {
+			throw new IllegalArgumentException("Invalid limit " + minLimit + "-" + maxLimit + " with backoff " + backoff);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoff = backoff;
+		limitBits = new AtomicLong(Double.doubleToLongBits(maxLimit));
+	}
+
+	/**
+	 * Admits a request if the limit hasn't been reached, in which case {@link #release()} must be called when it's
+	 * done.
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= getLimit()) {
+				rejected.increment();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Grows the limit after a request that was fast enough. The limit only grows while at least half of it is used,
+	 * otherwise a quiet period would raise it far above what the server has been shown to handle.
+	 */
+	public void increase() {
+		while (true) {
+			long bits = limitBits.get();
+			double limit = Double.longBitsToDouble(bits);
+			if (inFlight.get() * 2 < limit || limit >= maxLimit) {
+				return;
+			}
+			if (limitBits.compareAndSet(bits, Double.doubleToLongBits(Math.min(maxLimit, limit + 1 / limit)))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Cuts the limit after a request that was too slow, unless the request started before the last cut.
+	 *
+	 * @param start When the slow request started, in {@link System#nanoTime()}
+	 * @return True if the limit was cut, false if it was already cut during the request or is at the minimum
+	 */
+	public synchronized boolean decrease(long start) {
+		if (start - lastDecrease < 0) {
+			return false;
+		}
+		while (true) {
+			long bits = limitBits.get();
+			double limit = Double.longBitsToDouble(bits);
+			if (limit <= minLimit) {
+				return false;
+			}
+			// Increases don't take the lock, so they can race with this
+			if (limitBits.compareAndSet(bits, Double.doubleToLongBits(Math.max(minLimit, limit * backoff)))) {
+				lastDecrease = System.nanoTime();
+				return true;
+			}
+		}
+	}
+
+	public int getLimit() {
+		return (int) Double.longBitsToDouble(limitBits.get());
+	}
+
+	public boolean isAtMinimum() {
+		return getLimit() <= minLimit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+}
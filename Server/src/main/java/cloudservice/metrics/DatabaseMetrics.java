@@ -0,0 +1,43 @@
+package cloudservice.metrics;
+
+/**
+ * The measurements taken inside {@link cloudservice.Database}, so that slow writes can be attributed to waiting for
+ * locks, holding them, or merging large groups. Lock times are recorded in nanoseconds.
+ */
+public class DatabaseMetrics implements MetricsSource {
+	/**
+	 * Taken in shared mode by single additions.
+	 */
+	public final Histogram stateReadLockWait = Histogram.durations();
+	public final Histogram stateReadLockHold = Histogram.durations();
+	/**
+	 * Taken in exclusive mode by batches, removals and checkpoints.
+	 */
+	public final Histogram stateWriteLockWait = Histogram.durations();
+	public final Histogram stateWriteLockHold = Histogram.durations();
+	/**
+	 * The locks of the group roots, which are held while merging the groups of an addition.
+	 */
+	public final Histogram rootLockWait = Histogram.durations();
+	public final Histogram rootLockHold = Histogram.durations();
+	/**
+	 * The number of words in the member list produced by each merge, which is what a merge has to copy.
+	 */
+	public final Histogram mergeSize = Histogram.sizes();
+
+	@Override
+	public void write(StringBuilder out) {
+		MetricsResource.writeHeader(out, "synonyms_lock_wait_seconds", "histogram", "Time spent waiting for database locks");
+		stateReadLockWait.write(out, "synonyms_lock_wait_seconds", "lock=\"state\",mode=\"shared\"");
+		stateWriteLockWait.write(out, "synonyms_lock_wait_seconds", "lock=\"state\",mode=\"exclusive\"");
+		rootLockWait.write(out, "synonyms_lock_wait_seconds", "lock=\"root\",mode=\"exclusive\"");
+
+		MetricsResource.writeHeader(out, "synonyms_lock_hold_seconds", "histogram", "Time database locks are held");
+		stateReadLockHold.write(out, "synonyms_lock_hold_seconds", "lock=\"state\",mode=\"shared\"");
+		stateWriteLockHold.write(out, "synonyms_lock_hold_seconds", "lock=\"state\",mode=\"exclusive\"");
+		rootLockHold.write(out, "synonyms_lock_hold_seconds", "lock=\"root\",mode=\"exclusive\"");
+
+		MetricsResource.writeHeader(out, "synonyms_merge_size_words", "histogram", "Size of the member list produced by each group merge");
+		mergeSize.write(out, "synonyms_merge_size_words", "");
+	}
+}
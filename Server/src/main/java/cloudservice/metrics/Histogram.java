@@ -0,0 +1,109 @@
+package cloudservice.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed buckets which is cheap enough to record into on every request. All the buckets are allocated
+ * up front, and each one is a {@link LongAdder}, which spreads the updates over several cells when threads contend
+ * instead of having them all retry on the same counter. Recording a value is a binary search and two additions, it
+ * never allocates or takes a lock.
+ * <br/>
+ * <br/>The values are recorded as longs, usually nanoseconds or sizes, and divided by the unit when they are written
+ * so that durations can be exported in seconds as Prometheus expects.
+ */
+public class Histogram {
+	/**
+	 * The inclusive upper bound of each bucket, there is one more bucket for the values above the last bound.
+	 */
+	private final long[] bounds;
+	private final LongAdder[] counts;
+	private final LongAdder sum = new LongAdder();
+	private final long unit;
+
+	public Histogram(long[] bounds, long unit) {
+		this.bounds = bounds.clone();
+		this.unit = unit;
+		counts = new LongAdder[bounds.length + 1];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Creates a histogram for durations recorded in nanoseconds and exported in seconds, with buckets from a
+	 * microsecond to about 17s that double in size.
+	 */
+	public static Histogram durations() {
+		return new Histogram(exponentialBounds(1000, 25), 1_000_000_000);
+	}
+
+	/**
+	 * Creates a histogram for sizes, with buckets from 1 to about 16M that double in size.
+	 */
+	public static Histogram sizes() {
+		return new Histogram(exponentialBounds(1, 25), 1);
+	}
+
+	private static long[] exponentialBounds(long first, int count) {
+		long[] bounds = new long[count];
+		for (int i = 0; i < count; i++) {
+			bounds[i] = first << i;
+		}
+		return bounds;
+	}
+
+	public void record(long value) {
+		int index = Arrays.binarySearch(bounds, value);
+		counts[index >= 0 ? index : -index - 1].increment();
+		sum.add(value);
+	}
+
+	/**
+	 * Returns the number of recorded values. Like the other reads this isn't an atomic snapshot if values are recorded
+	 * at the same time, which is fine for monitoring.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : counts) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Writes the buckets, sum and count in the Prometheus text format. The labels are written inside the braces of
+	 * every line, for example <code>lock="state"</code>, and may be empty.
+	 */
+	public void write(StringBuilder out, String name, String labels) {
+		String prefix = labels.isEmpty() ? "" : labels + ",";
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; i++) {
+			cumulative += counts[i].sum();
+			out.append(name).append("_bucket{").append(prefix).append("le=\"");
+			if (i < bounds.length) {
+				appendInUnit(out, bounds[i]);
+			} else {
+				out.append("+Inf");
+			}
+			out.append("\"} ").append(cumulative).append('\n');
+		}
+		String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+		out.append(name).append("_sum").append(suffix);
+		appendInUnit(out, sum.sum());
+		out.append('\n');
+		out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+	}
+
+	private void appendInUnit(StringBuilder out, long value) {
+		if (unit == 1) {
+			out.append(value);
+		} else {
+			out.append((double) value / unit);
+		}
+	}
+}
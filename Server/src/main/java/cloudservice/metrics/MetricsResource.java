@@ -0,0 +1,49 @@
+package cloudservice.metrics;
+
+import cloudservice.Database;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+
+import java.util.List;
+
+/**
+ * Exposes the metrics in the Prometheus text format, so they can be scraped while the server is under load. Writing
+ * them only reads the counters, except for the group sizes which are collected from the database on every scrape.
+ */
+@Path("metrics")
+public class MetricsResource {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final Database database;
+	private final List<MetricsSource> sources;
+
+	/**
+	 * @param sources The other metrics to include, which may be added to later
+	 */
+	public MetricsResource(Database database, List<MetricsSource> sources) {
+		this.database = database;
+		this.sources = sources;
+	}
+
+	@GET
+	@Produces(CONTENT_TYPE)
+	public String metrics() {
+		StringBuilder out = new StringBuilder(16 * 1024);
+		for (MetricsSource source : sources) {
+			source.write(out);
+		}
+
+		writeHeader(out, "synonyms_group_size_words", "histogram", "Number of words in each group with synonyms");
+		database.getGroupSizes().write(out, "synonyms_group_size_words", "");
+
+		writeHeader(out, "synonyms_words", "gauge", "Number of words in the database");
+		out.append("synonyms_words ").append(database.getWordCount()).append('\n');
+		return out.toString();
+	}
+
+	public static void writeHeader(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+}
@@ -0,0 +1,11 @@
+package cloudservice.metrics;
+
+/**
+ * Something which has metrics to include in {@link MetricsResource}.
+ */
+public interface MetricsSource {
+	/**
+	 * Appends the metrics in the Prometheus text format, with a header for every metric family.
+	 */
+	void write(StringBuilder out);
+}
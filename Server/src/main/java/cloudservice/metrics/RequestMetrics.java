@@ -0,0 +1,110 @@
+package cloudservice.metrics;
+
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.DynamicFeature;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.FeatureContext;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Measures the latency of every endpoint, from when the request has been matched to a resource method until the
+ * response headers are ready. That includes reading the body and the time a suspended request waits for the
+ * write-ahead log. Jersey calls {@link #configure(ResourceInfo, FeatureContext)} once for every resource method when
+ * the application starts, and each method gets a filter bound to its own histogram, so there is no lookup per
+ * request.
+ * <br/>
+ * <br/>Encoding synonym pages is measured separately, since it's the part of a read that grows with the page size.
+ * Pages that are cached are encoded by {@link cloudservice.SynonymResource} before they are returned, and the others
+ * by {@link cloudservice.JsonIO} after the response filters have run.
+ */
+public class RequestMetrics implements DynamicFeature, MetricsSource {
+	private static final String START_PROPERTY = RequestMetrics.class.getName() + ".start";
+
+	private final Map<String, Histogram> latencies = new ConcurrentSkipListMap<>();
+	public final Histogram jsonEncoding = Histogram.durations();
+
+	@Override
+	public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+		String endpoint = getEndpoint(resourceInfo.getResourceClass(), resourceInfo.getResourceMethod());
+		context.register(new LatencyFilter(latencies.computeIfAbsent(endpoint, ignored -> Histogram.durations())));
+	}
+
+	/**
+	 * Returns the HTTP method and path template of a resource method, for example <code>GET /synonyms/suggest</code>.
+	 */
+	static String getEndpoint(Class<?> resourceClass, Method method) {
+		StringBuilder path = new StringBuilder();
+		appendPath(path, resourceClass.getAnnotation(Path.class));
+		appendPath(path, method.getAnnotation(Path.class));
+		return getHttpMethod(method) + " " + (path.length() > 0 ? path : "/");
+	}
+
+	/**
+	 * Returns the HTTP method of a resource method, such as <code>GET</code>, or an empty string for sub-resource
+	 * locators.
+	 */
+	public static String getHttpMethod(Method method) {
+		for (Annotation annotation : method.getAnnotations()) {
+			HttpMethod designator = annotation.annotationType().getAnnotation(HttpMethod.class);
+			if (designator != null) {
+				return designator.value();
+			}
+		}
+		return "";
+	}
+
+	private static void appendPath(StringBuilder path, Path annotation) {
+		if (annotation != null) {
+			String value = annotation.value();
+			if (!value.startsWith("/")) {
+				path.append('/');
+			}
+			path.append(value.endsWith("/") ? value.substring(0, value.length() - 1) : value);
+		}
+	}
+
+	@Override
+	public void write(StringBuilder out) {
+		MetricsResource.writeHeader(out, "synonyms_request_duration_seconds", "histogram", "Time to handle requests, by endpoint");
+		for (Map.Entry<String, Histogram> entry : latencies.entrySet()) {
+			entry.getValue().write(out, "synonyms_request_duration_seconds", "endpoint=\"" + entry.getKey() + "\"");
+		}
+
+		MetricsResource.writeHeader(out, "synonyms_json_encoding_seconds", "histogram", "Time to encode synonym pages to JSON");
+		jsonEncoding.write(out, "synonyms_json_encoding_seconds", "");
+	}
+
+	/**
+	 * The start time is boxed into a request property, which is small compared to everything else Jersey allocates for
+	 * a request. It can't be kept in a thread local since suspended requests are completed on other threads.
+	 */
+	private static class LatencyFilter implements ContainerRequestFilter, ContainerResponseFilter {
+		private final Histogram histogram;
+
+		LatencyFilter(Histogram histogram) {
+			this.histogram = histogram;
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request) {
+			request.setProperty(START_PROPERTY, System.nanoTime());
+		}
+
+		@Override
+		public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+			Object start = request.getProperty(START_PROPERTY);
+			if (start != null) { // Not set if another filter aborted the request first
+				histogram.record(System.nanoTime() - (Long) start);
+			}
+		}
+	}
+}
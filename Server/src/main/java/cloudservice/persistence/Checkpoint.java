@@ -0,0 +1,244 @@
+package cloudservice.persistence;
+
+import cloudservice.Database;
+import cloudservice.Database.Partition;
+import cloudservice.MemberList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A checkpoint is a binary copy of the whole database, used so that we don't have to replay the entire write-ahead log
+ * on startup. The file contains all the groups with their members in sorted order, which means that they can be
+ * loaded without comparing any words. The format is:
+ * <pre>
+ * [magic][sequence][group count]
+ * for each group: [member count] and for each member: [byte length][UTF-8 bytes]
+ *                 [edge count] and for each edge: [member index][member index]
+ * [crc32 of everything above]
+ * </pre>
+ * The edges are the synonyms that were added explicitly, which are needed to know if a group falls apart when one of
+ * them is removed. Checkpoints from before they were stored have a different magic number and are loaded without
+ * edges, so synonyms restored from them can't be removed.
+ * All counts and lengths are stored as variable length integers to keep the file compact. The file is loaded through
+ * memory mapped windows so that large files can be read without copying them through a stream.
+ */
+public class Checkpoint {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Checkpoint.class);
+
+	private static final int MAGIC_WITHOUT_EDGES = 0x53594E31; // "SYN1"
+	private static final int MAGIC = 0x53594E32; // "SYN2"
+	private static final long WINDOW_SIZE = 256 * 1024 * 1024;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Writes the partition to the specified file. The file is first written to a temporary file and then moved into
+	 * place, so the old checkpoint stays intact if we crash in the middle. The directory is synced after the move,
+	 * otherwise the rename could be lost in a crash after the write-ahead log has already been truncated.
+	 */
+	public static void write(Path file, Partition partition) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(Channels.newOutputStream(channel), partition, partition.sequence);
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(file.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Makes sure the entries of a directory survive a crash. Directories can't be opened on all platforms, and then
+	 * there's nothing we can do, but if the sync itself fails the checkpoint must not be trusted.
+	 */
+	private static void forceDirectory(Path directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		} catch (IOException e) {
+			LOGGER.debug("Could not open the directory {} to sync it", directory, e);
+			return;
+		}
+		try (channel) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Writes the partition to a stream in the checkpoint format, with the specified sequence number in the header. This
+	 * is used to send snapshots to replicas, which number the changes independently of the write-ahead log. The stream
+	 * is flushed but not closed.
+	 */
+	public static void write(OutputStream stream, Partition partition, long sequence) throws IOException {
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(stream, 1024 * 1024), crc));
+		out.writeInt(MAGIC);
+		out.writeLong(sequence);
+		writeVarInt(out, partition.groups.size());
+		for (MemberList group : partition.groups) {
+			writeVarInt(out, group.size());
+			for (String word : group) {
+				byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+				writeVarInt(out, bytes.length);
+				out.write(bytes);
+			}
+			int[] edges = partition.getEdges(group);
+			writeVarInt(out, edges.length / 2);
+			for (int edge : edges) {
+				writeVarInt(out, edge);
+			}
+		}
+		out.flush();
+		DataOutputStream checksum = new DataOutputStream(stream);
+		checksum.writeLong(crc.getValue());
+		checksum.flush();
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Loads the checkpoint into an empty database and returns the sequence number of the last write-ahead log entry
+	 * which is included in it.
+	 */
+	public static long load(Path file, Database database) throws IOException {
+		long start = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < 20) {
+				throw new IOException("The checkpoint " + file + " is truncated");
+			}
+			verifyChecksum(channel, size);
+
+			MappedReader reader = new MappedReader(channel, size - 8);
+			int magic = reader.readInt();
+			if (magic != MAGIC && magic != MAGIC_WITHOUT_EDGES) {
+				throw new IOException("The file " + file + " is not a checkpoint");
+			}
+			long sequence = reader.readLong();
+			int groupCount = reader.readVarInt();
+			String[] words = new String[16];
+			int[] edges = new int[16];
+			for (int i = 0; i < groupCount; i++) {
+				int memberCount = reader.readVarInt();
+				if (words.length < memberCount) {
+					words = new String[Math.max(memberCount, words.length * 2)];
+				}
+				for (int j = 0; j < memberCount; j++) {
+					words[j] = reader.readString();
+				}
+				int edgeCount = magic == MAGIC ? reader.readVarInt() : 0;
+				if (edges.length < edgeCount * 2) {
+					edges = new int[Math.max(edgeCount * 2, edges.length * 2)];
+				}
+				for (int j = 0; j < edgeCount * 2; j++) {
+					edges[j] = reader.readVarInt();
+					if (edges[j] >= memberCount) {
+						throw new IOException("The checkpoint has an edge to a word outside the group");
+					}
+				}
+				database.restoreGroup(words, memberCount, edges, edgeCount);
+			}
+
+			LOGGER.info("Loaded {} groups from checkpoint {} in {}ms", groupCount, file, (System.nanoTime() - start) / 1_000_000);
+			return sequence;
+		}
+	}
+
+	private static void verifyChecksum(FileChannel channel, long size) throws IOException {
+		CRC32 crc = new CRC32();
+		for (long position = 0; position < size - 8; position += WINDOW_SIZE) {
+			crc.update(channel.map(MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - 8 - position)));
+		}
+		long expected = channel.map(MapMode.READ_ONLY, size - 8, 8).getLong();
+		if (crc.getValue() != expected) {
+			throw new IOException("The checkpoint is corrupt, the checksum doesn't match");
+		}
+	}
+
+	/**
+	 * Reads the file through a memory mapped window which is moved forward when needed, since a single mapping is
+	 * limited to 2GB.
+	 */
+	private static class MappedReader {
+		private final FileChannel channel;
+		private final long end;
+		private MappedByteBuffer window;
+		private long windowStart;
+		private byte[] bytes = new byte[256];
+
+		MappedReader(FileChannel channel, long end) throws IOException {
+			this.channel = channel;
+			this.end = end;
+			map(0);
+		}
+
+		private void map(long position) throws IOException {
+			windowStart = position;
+			window = channel.map(MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position));
+		}
+
+		private ByteBuffer require(int count) throws IOException {
+			if (window.remaining() < count) {
+				long position = windowStart + window.position();
+				if (position + count > end) {
+					throw new IOException("Unexpected end of checkpoint");
+				}
+				map(position);
+			}
+			return window;
+		}
+
+		int readInt() throws IOException {
+			return require(4).getInt();
+		}
+
+		long readLong() throws IOException {
+			return require(8).getLong();
+		}
+
+		int readVarInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				byte b = require(1).get();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed variable length integer in checkpoint");
+		}
+
+		String readString() throws IOException {
+			int length = readVarInt();
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			require(length).get(bytes, 0, length);
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+}
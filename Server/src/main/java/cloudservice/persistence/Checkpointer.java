@@ -0,0 +1,77 @@
+package cloudservice.persistence;
+
+import cloudservice.Database;
+import cloudservice.Database.Partition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes checkpoints of the database and removes the parts of the write-ahead log which are covered by them. This is
+ * meant to run periodically in the background, it doesn't block queries and writers are only blocked while the
+ * group references are collected.
+ */
+public class Checkpointer implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Checkpointer.class);
+
+	private static final String FILE_NAME = "checkpoint.bin";
+
+	private final Database database;
+	private final WriteAheadLog writeAheadLog;
+	private final Path file;
+
+	private long lastSequence = -1;
+
+	public Checkpointer(Database database, WriteAheadLog writeAheadLog, Path directory) {
+		this.database = database;
+		this.writeAheadLog = writeAheadLog;
+		this.file = directory.resolve(FILE_NAME);
+	}
+
+	/**
+	 * Loads the latest checkpoint into the database if there is one, and returns the sequence number of the last
+	 * write-ahead log entry included in it.
+	 */
+	public long restore() throws IOException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		lastSequence = Checkpoint.load(file, database);
+		return lastSequence;
+	}
+
+	@Override
+	public void run() {
+		try {
+			checkpoint();
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Failed to write checkpoint", e);
+		}
+	}
+
+	/**
+	 * Writes a checkpoint even if nothing has been written to the write-ahead log since the last one, which is needed
+	 * after changes which bypass the log such as a bulk load.
+	 */
+	public synchronized void forceCheckpoint() throws IOException {
+		lastSequence = -1;
+		checkpoint();
+	}
+
+	public synchronized void checkpoint() throws IOException {
+		Partition partition = database.getPartition();
+		if (partition.sequence == lastSequence) {
+			return; // Nothing has changed
+		}
+
+		long start = System.nanoTime();
+		Checkpoint.write(file, partition);
+		writeAheadLog.truncate(partition.sequence);
+		lastSequence = partition.sequence;
+		LOGGER.info("Wrote checkpoint with {} groups up to sequence {} in {}ms", partition.groups.size(), partition.sequence,
+				(System.nanoTime() - start) / 1_000_000);
+	}
+}
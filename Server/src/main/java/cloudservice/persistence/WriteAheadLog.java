@@ -0,0 +1,724 @@
+package cloudservice.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log which stores all the synonyms that are added or removed so that they can be restored after a restart. Entries
+ * are appended to an in-memory buffer which is then written to disk in batches, so that one fsync covers many requests
+ * (group commit). When an entry is considered durable depends on the {@link FsyncPolicy}.
+ * <br/>
+ * <br/>The log is split into segment files named after the sequence number of their first entry. Each entry is stored
+ * as <code>[length][crc32][sequence][word count][words...]</code>. If the server crashes in the middle of a write the
+ * last entry will be incomplete, which is detected using the length and checksum and then discarded when replaying.
+ * <br/>
+ * <br/>A removal is stored like an addition but with a negated word count, so logs from before removals were supported
+ * can still be read.
+ */
+public class WriteAheadLog implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+
+	private static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	public enum FsyncPolicy {
+		/**
+		 * Fsync before acknowledging each request. Requests arriving while an fsync is in progress still share the next one.
+		 */
+		REQUEST,
+		/**
+		 * Wait up to the commit delay (or until the batch is full) to gather more requests, then fsync them all at once.
+		 * Requests are acknowledged after the fsync.
+		 */
+		BATCH,
+		/**
+		 * Fsync periodically in the background, requests are acknowledged immediately so up to one interval of changes
+		 * can be lost in a crash.
+		 */
+		INTERVAL
+	}
+
+	public static class Config {
+		public final Path directory;
+		public final FsyncPolicy fsyncPolicy;
+		public final int batchSize;
+		public final long commitDelayMillis;
+		public final long fsyncIntervalMillis;
+		/**
+		 * A new segment is started when the current one is larger than this, only complete segments can be removed
+		 * after a checkpoint.
+		 */
+		public final long segmentSize;
+
+		public Config(Path directory, FsyncPolicy fsyncPolicy, int batchSize, long commitDelayMillis, long fsyncIntervalMillis) {
+			this(directory, fsyncPolicy, batchSize, commitDelayMillis, fsyncIntervalMillis, DEFAULT_SEGMENT_SIZE);
+		}
+
+		public Config(Path directory, FsyncPolicy fsyncPolicy, int batchSize, long commitDelayMillis, long fsyncIntervalMillis, long segmentSize) {
+			this.directory = directory;
+			this.fsyncPolicy = fsyncPolicy;
+			this.batchSize = batchSize;
+			this.commitDelayMillis = commitDelayMillis;
+			this.fsyncIntervalMillis = fsyncIntervalMillis;
+			this.segmentSize = segmentSize;
+		}
+	}
+
+	public static class Entry {
+		public final long sequence;
+		public final String word;
+		public final Set<String> synonyms;
+		/**
+		 * True if the synonyms were removed from the word instead of added.
+		 */
+		public final boolean removal;
+
+		public Entry(long sequence, String word, Set<String> synonyms) {
+			this(sequence, word, synonyms, false);
+		}
+
+		public Entry(long sequence, String word, Set<String> synonyms, boolean removal) {
+			this.sequence = sequence;
+			this.word = word;
+			this.synonyms = synonyms;
+			this.removal = removal;
+		}
+	}
+
+	private final Config config;
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition flushNeeded = lock.newCondition();
+	private final Condition flushed = lock.newCondition();
+	private final Lock flushLock = new ReentrantLock();
+
+	// Guarded by lock
+	private Buffer buffer = new Buffer();
+	private final PriorityQueue<DurableFuture> durableFutures = new PriorityQueue<>();
+	private int pendingCount;
+	private long firstPendingNanos;
+	private long lastSequence;
+	private long durableSequence;
+	private IOException failure;
+	private boolean open;
+	private boolean closed;
+
+	// Guarded by flushLock
+	private Buffer flushBuffer = new Buffer();
+	private FileChannel segment;
+	private long fsyncCount;
+
+	private final Buffer payload = new Buffer();
+	private final DataOutputStream payloadOut = new DataOutputStream(payload);
+	private final CRC32 crc = new CRC32();
+
+	private Thread flusher;
+
+	public WriteAheadLog(Config config) {
+		this.config = config;
+	}
+
+	/**
+	 * Reads all the entries in the log in order and then opens it for appending. This must be called before anything
+	 * is appended. If the last entry is incomplete it's removed, but an invalid entry in any other segment than the
+	 * last one fails with an IOException since the entries after it were acknowledged and can't just be skipped.
+	 */
+	public void replay(Consumer<Entry> consumer) throws IOException {
+		replay(0, consumer);
+	}
+
+	/**
+	 * Same as {@link #replay(Consumer)} but skips all entries up to and including the specified sequence number, which
+	 * is used when the database has been restored from a checkpoint first.
+	 */
+	public void replay(long afterSequence, Consumer<Entry> consumer) throws IOException {
+		Files.createDirectories(config.directory);
+
+		long sequence = afterSequence;
+		List<Path> segments = listSegments();
+		for (int i = 0; i < segments.size(); i++) {
+			Path path = segments.get(i);
+			if (i + 1 < segments.size() && getFirstSequence(segments.get(i + 1)) <= afterSequence + 1) {
+				continue; // The whole segment is older than the checkpoint
+			}
+
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				SegmentReader reader = new SegmentReader(channel);
+				Entry entry;
+				while ((entry = reader.next()) != null) {
+					if (entry.sequence > afterSequence) {
+						sequence = entry.sequence;
+						consumer.accept(entry);
+					}
+				}
+				if (reader.position() < channel.size()) {
+					if (i + 1 < segments.size()) {
+						// Only the last segment can have been cut short by a crash, later segments depend on this one
+						throw new IOException("Corrupt entry at position " + reader.position() + " of " + path
+								+ ", which is not the last segment of the write-ahead log");
+					}
+					LOGGER.warn("Discarding incomplete entry at the end of {} ({} bytes)", path, channel.size() - reader.position());
+					channel.truncate(reader.position());
+				}
+			}
+		}
+
+		lock.lock();
+		try {
+			lastSequence = sequence;
+			durableSequence = sequence;
+			open = true;
+		} finally {
+			lock.unlock();
+		}
+
+		flushLock.lock();
+		try {
+			segment = segments.isEmpty() ? createSegment(sequence + 1) : openSegment(segments.get(segments.size() - 1));
+		} finally {
+			flushLock.unlock();
+		}
+
+		flusher = new Thread(this::runFlusher, "wal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+		LOGGER.info("Replayed write-ahead log up to sequence {}", sequence);
+	}
+
+	/**
+	 * Appends an entry to the log and returns its sequence number. The entry is only buffered, call
+	 * {@link #awaitDurable(long)} to wait for it to be persisted.
+	 */
+	public long append(String word, Set<String> synonyms) throws IOException {
+		return append(word, synonyms, false);
+	}
+
+	/**
+	 * Appends the removal of a synonym from a word, see {@link #append(String, Set)}.
+	 */
+	public long appendRemoval(String word, String synonym) throws IOException {
+		return append(word, Collections.singleton(synonym), true);
+	}
+
+	private long append(String word, Set<String> synonyms, boolean removal) throws IOException {
+		lock.lock();
+		try {
+			if (!open || closed) {
+				throw new IllegalStateException("The write-ahead log is not open");
+			}
+			if (failure != null) {
+				throw new IOException("The write-ahead log has failed", failure);
+			}
+
+			long sequence = lastSequence + 1;
+			payload.reset();
+			payloadOut.writeLong(sequence);
+			payloadOut.writeInt(removal ? -(synonyms.size() + 1) : synonyms.size() + 1);
+			writeString(payloadOut, word);
+			for (String synonym : synonyms) {
+				writeString(payloadOut, synonym);
+			}
+			crc.reset();
+			crc.update(payload.array(), 0, payload.size());
+
+			DataOutputStream out = new DataOutputStream(buffer);
+			out.writeInt(payload.size());
+			out.writeInt((int) crc.getValue());
+			payload.writeTo(out);
+
+			lastSequence = sequence;
+			if (pendingCount++ == 0) {
+				firstPendingNanos = System.nanoTime();
+			}
+			// Only the batch policy flushes when entries arrive, the interval policy flushes on its own schedule
+			if (config.fsyncPolicy == FsyncPolicy.BATCH && (pendingCount == 1 || pendingCount >= config.batchSize)) {
+				flushNeeded.signal();
+			}
+			return sequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Waits until the entry with the specified sequence number has been persisted according to the fsync policy.
+	 */
+	public void awaitDurable(long sequence) throws IOException {
+		switch (config.fsyncPolicy) {
+			case INTERVAL:
+				return;
+			case REQUEST:
+				if (getDurableSequence() < sequence) {
+					flush();
+				}
+				break;
+			case BATCH:
+				lock.lock();
+				try {
+					while (durableSequence < sequence && failure == null) {
+						flushed.awaitUninterruptibly();
+					}
+				} finally {
+					lock.unlock();
+				}
+				break;
+		}
+
+		lock.lock();
+		try {
+			if (durableSequence < sequence) {
+				throw new IOException("The write-ahead log has failed", failure);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a future which is completed when the entry with the specified sequence number has been persisted, the
+	 * same as {@link #awaitDurable(long)} but without blocking the calling thread. The future is completed by the
+	 * flusher thread, so the caller can do other things while waiting for the fsync. With the request policy the
+	 * flusher syncs as soon as someone is waiting, and with the interval policy the future is completed right away.
+	 */
+	public CompletableFuture<Void> whenDurable(long sequence) {
+		if (config.fsyncPolicy == FsyncPolicy.INTERVAL) {
+			try {
+				awaitDurable(sequence);
+				return CompletableFuture.completedFuture(null);
+			} catch (IOException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+
+		lock.lock();
+		try {
+			if (durableSequence >= sequence) {
+				return CompletableFuture.completedFuture(null);
+			}
+			if (failure != null || !open) {
+				return CompletableFuture.failedFuture(new IOException("The write-ahead log has failed", failure));
+			}
+			DurableFuture future = new DurableFuture(sequence);
+			durableFutures.add(future);
+			if (config.fsyncPolicy == FsyncPolicy.REQUEST) {
+				flushNeeded.signal();
+			}
+			return future;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the futures which are durable (or all of them if the log has failed), they must be completed after
+	 * releasing the lock since completing them runs the callers' callbacks.
+	 */
+	private List<DurableFuture> takeDurableFutures() {
+		List<DurableFuture> futures = new ArrayList<>();
+		while (!durableFutures.isEmpty() && (durableFutures.peek().sequence <= durableSequence || failure != null || !open)) {
+			futures.add(durableFutures.poll());
+		}
+		return futures;
+	}
+
+	private static void completeDurableFutures(List<DurableFuture> futures, long durableSequence, IOException failure) {
+		for (DurableFuture future : futures) {
+			if (future.sequence <= durableSequence) {
+				future.complete(null);
+			} else {
+				future.completeExceptionally(new IOException("The write-ahead log has failed", failure));
+			}
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the last appended entry, which may not be durable yet.
+	 */
+	public long getLastSequence() {
+		lock.lock();
+		try {
+			return lastSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDurableSequence() {
+		lock.lock();
+		try {
+			return durableSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of times the log has been synced to disk, which is lower than the number of entries when
+	 * group commit is effective.
+	 */
+	public long getFsyncCount() {
+		flushLock.lock();
+		try {
+			return fsyncCount;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all the buffered entries to disk and syncs them. Only one thread flushes at a time, and everything that
+	 * was buffered when the flush started is included.
+	 */
+	private void flush() throws IOException {
+		flushLock.lock();
+		try {
+			long sequence;
+			lock.lock();
+			try {
+				if (failure != null) {
+					throw new IOException("The write-ahead log has failed", failure);
+				}
+				if (pendingCount == 0) {
+					return;
+				}
+				Buffer toWrite = buffer;
+				buffer = flushBuffer;
+				flushBuffer = toWrite;
+				sequence = lastSequence;
+				pendingCount = 0;
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				ByteBuffer bytes = ByteBuffer.wrap(flushBuffer.array(), 0, flushBuffer.size());
+				while (bytes.hasRemaining()) {
+					segment.write(bytes);
+				}
+				segment.force(false);
+				fsyncCount++;
+				if (segment.size() >= config.segmentSize) {
+					segment.close();
+					segment = createSegment(sequence + 1);
+				}
+			} catch (IOException e) {
+				List<DurableFuture> futures;
+				long durable;
+				lock.lock();
+				try {
+					failure = e;
+					flushed.signalAll();
+					futures = takeDurableFutures();
+					durable = durableSequence;
+				} finally {
+					lock.unlock();
+				}
+				completeDurableFutures(futures, durable, e);
+				throw e;
+			} finally {
+				flushBuffer.reset();
+			}
+
+			List<DurableFuture> futures;
+			lock.lock();
+			try {
+				durableSequence = sequence;
+				flushed.signalAll();
+				futures = takeDurableFutures();
+			} finally {
+				lock.unlock();
+			}
+			completeDurableFutures(futures, sequence, null);
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void runFlusher() {
+		while (true) {
+			lock.lock();
+			try {
+				if (config.fsyncPolicy == FsyncPolicy.REQUEST) {
+					// Only needed for the futures from whenDurable, awaitDurable flushes in the calling thread
+					while (!closed && durableFutures.isEmpty()) {
+						flushNeeded.awaitUninterruptibly();
+					}
+				} else if (config.fsyncPolicy == FsyncPolicy.BATCH) {
+					while (!closed && pendingCount == 0) {
+						flushNeeded.awaitUninterruptibly();
+					}
+					// Give concurrent requests a chance to join the batch before syncing
+					long deadline = firstPendingNanos + TimeUnit.MILLISECONDS.toNanos(config.commitDelayMillis);
+					long remaining;
+					while (!closed && pendingCount < config.batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+						flushNeeded.awaitNanos(remaining);
+					}
+				} else {
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.fsyncIntervalMillis);
+					long remaining;
+					while (!closed && (remaining = deadline - System.nanoTime()) > 0) {
+						flushNeeded.awaitNanos(remaining);
+					}
+				}
+				if (closed) {
+					return;
+				}
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				flush();
+			} catch (IOException e) {
+				LOGGER.error("Failed to write to the write-ahead log, no more changes will be accepted", e);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			flushNeeded.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		if (flusher != null) {
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		flushLock.lock();
+		try {
+			if (segment != null) {
+				try {
+					flush();
+				} finally {
+					segment.close();
+				}
+			}
+		} finally {
+			flushLock.unlock();
+
+			// Fail the futures of entries which were appended after the last flush
+			List<DurableFuture> futures;
+			long durable;
+			IOException failed;
+			lock.lock();
+			try {
+				open = false;
+				futures = takeDurableFutures();
+				durable = durableSequence;
+				failed = failure;
+			} finally {
+				lock.unlock();
+			}
+			completeDurableFutures(futures, durable, failed);
+		}
+	}
+
+	/**
+	 * Deletes all segments that only contain entries up to and including the specified sequence number, which is
+	 * used after a checkpoint has been written. The segment currently being written to is never deleted.
+	 */
+	public void truncate(long upToSequence) throws IOException {
+		flushLock.lock();
+		try {
+			List<Path> segments = listSegments();
+			for (int i = 0; i + 1 < segments.size(); i++) {
+				if (getFirstSequence(segments.get(i + 1)) > upToSequence + 1) {
+					break;
+				}
+				Files.delete(segments.get(i));
+				LOGGER.info("Deleted write-ahead log segment {}", segments.get(i));
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private static long getFirstSequence(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private List<Path> listSegments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(config.directory)) {
+			files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX) && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+					.forEach(segments::add);
+		}
+		Collections.sort(segments); // The sequence numbers are zero padded so this sorts them by sequence
+		return segments;
+	}
+
+	private FileChannel createSegment(long firstSequence) throws IOException {
+		Path path = config.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+		FileChannel channel = openSegment(path);
+		forceDirectory();
+		return channel;
+	}
+
+	private static FileChannel openSegment(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Makes sure a newly created file survives a crash, this is not supported on all platforms.
+	 */
+	private void forceDirectory() {
+		try (FileChannel directory = FileChannel.open(config.directory, StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			LOGGER.debug("Could not sync the directory {}", config.directory, e);
+		}
+	}
+
+	/**
+	 * Reads entries from a segment sequentially, stopping at the first incomplete or corrupt entry.
+	 */
+	private static class SegmentReader {
+		private final FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+		private final CRC32 crc = new CRC32();
+		private long position;
+
+		SegmentReader(FileChannel channel) {
+			this.channel = channel;
+			buffer.limit(0);
+		}
+
+		long position() {
+			return position;
+		}
+
+		Entry next() throws IOException {
+			try {
+				fill(8);
+				int length = buffer.getInt(buffer.position());
+				int checksum = buffer.getInt(buffer.position() + 4);
+				if (length < 12 || position + 8 + length > channel.size()) {
+					return null;
+				}
+				fill(8 + length);
+				crc.reset();
+				crc.update(buffer.array(), buffer.position() + 8, length);
+				if ((int) crc.getValue() != checksum) {
+					return null;
+				}
+
+				buffer.position(buffer.position() + 8);
+				long sequence = buffer.getLong();
+				int count = buffer.getInt();
+				boolean removal = count < 0;
+				count = Math.abs(count);
+				String word = readString();
+				Set<String> synonyms = new LinkedHashSet<>();
+				for (int i = 1; i < count; i++) {
+					synonyms.add(readString());
+				}
+				position += 8 + length;
+				return new Entry(sequence, word, synonyms, removal);
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+
+		private String readString() {
+			int length = buffer.getInt();
+			String text = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return text;
+		}
+
+		/**
+		 * Makes sure at least the specified number of bytes are available in the buffer.
+		 */
+		private void fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) {
+				return;
+			}
+			if (bytes > buffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(bytes) * 2);
+				larger.put(buffer);
+				larger.flip();
+				buffer = larger;
+			}
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0) {
+					buffer.flip();
+					throw new EOFException();
+				}
+			}
+			buffer.flip();
+		}
+	}
+
+	private static class DurableFuture extends CompletableFuture<Void> implements Comparable<DurableFuture> {
+		final long sequence;
+
+		DurableFuture(long sequence) {
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(DurableFuture other) {
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer() {
+			super(64 * 1024);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package cloudservice.replication;
+
+import cloudservice.Database;
+import cloudservice.persistence.Checkpoint;
+import cloudservice.replication.ReplicationLog.Change;
+import cloudservice.replication.ReplicationResource.ChangePage;
+import cloudservice.replication.ReplicationResource.ReplicationStatus;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Keeps a read-only copy of the leader's database up to date. On start the whole database is downloaded as a
+ * snapshot, and then the changes after it are fetched from the leader's replication log and applied in the same
+ * order as on the leader, one page at a time.
+ * <br/>
+ * <br/>If the follower has fallen so far behind that the changes it needs are no longer in the log, or the leader has
+ * restarted, it has to start over from a new snapshot. The database can't be emptied while it's serving queries, so
+ * then the follower stops and calls the handler it was created with, which is expected to restart the node.
+ */
+public class Follower implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Follower.class);
+
+	private static final Gson GSON = new Gson();
+	private static final int PAGE_SIZE = 1000;
+	private static final long WAIT_MILLIS = 1000;
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	private final Database database;
+	private final URI leader;
+	private final Runnable onSnapshotNeeded;
+	private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+	private volatile String epoch;
+	private volatile long sequence;
+	private volatile long leaderSequence;
+	private volatile long lagMillis;
+	private volatile boolean closed;
+	private Thread thread;
+
+	/**
+	 * @param database An empty database, which must not be changed by anything else
+	 * @param leader The address of the leader, for example <code>http://localhost:8080</code>
+	 * @param onSnapshotNeeded Called from the replication thread if the follower needs a new snapshot
+	 */
+	public Follower(Database database, URI leader, Runnable onSnapshotNeeded) {
+		this.database = database;
+		this.leader = leader;
+		this.onSnapshotNeeded = onSnapshotNeeded;
+	}
+
+	/**
+	 * Loads the snapshot, retrying until the leader is available, and then starts applying the changes after it in
+	 * the background.
+	 */
+	public void start() throws InterruptedException {
+		while (true) {
+			try {
+				loadSnapshot();
+				break;
+			} catch (IOException e) {
+				LOGGER.warn("Failed to load a snapshot from {}, retrying: {}", leader, e.getMessage());
+				Thread.sleep(RETRY_DELAY_MILLIS);
+			}
+		}
+		thread = new Thread(this::run, "replication-follower");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void loadSnapshot() throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Path file = Files.createTempFile("snapshot-", ".bin");
+		try {
+			HttpRequest request = HttpRequest.newBuilder(leader.resolve("/api/replication/snapshot")).build();
+			HttpResponse<Path> response = client.send(request, BodyHandlers.ofFile(file));
+			if (response.statusCode() != 200) {
+				throw new IOException("The leader responded with status " + response.statusCode());
+			}
+			epoch = response.headers().firstValue(ReplicationResource.EPOCH_HEADER)
+					.orElseThrow(() -> new IOException("The snapshot has no epoch"));
+			sequence = Checkpoint.load(file, database);
+			leaderSequence = sequence;
+		} finally {
+			Files.deleteIfExists(file);
+		}
+		LOGGER.info("Loaded snapshot from {} up to sequence {} in {}ms", leader, sequence, (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private void run() {
+		while (!closed) {
+			try {
+				ChangePage page = fetchChanges();
+				if (page == null) {
+					LOGGER.error("The changes after {} are no longer available from {}, a new snapshot is needed", sequence, leader);
+					onSnapshotNeeded.run();
+					return;
+				}
+				if (!apply(page)) {
+					onSnapshotNeeded.run();
+					return;
+				}
+				leaderSequence = page.lastSequence;
+			} catch (IOException e) {
+				if (!closed) {
+					LOGGER.warn("Failed to fetch changes from {}, retrying: {}", leader, e.getMessage());
+					try {
+						Thread.sleep(RETRY_DELAY_MILLIS);
+					} catch (InterruptedException interrupted) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Applies the changes of a page in order. If one of them can't be restored the database no longer matches the
+	 * leader's, and skipping the change would only hide that, so this returns false and a new snapshot is needed.
+	 */
+	private boolean apply(ChangePage page) {
+		for (Change change : page.changes) {
+			try {
+				database.restore(change.toEntry());
+			} catch (RuntimeException e) {
+				LOGGER.error("Failed to apply change {} from {}, a new snapshot is needed", change.sequence, leader, e);
+				return false;
+			}
+			sequence = change.sequence;
+			lagMillis = System.currentTimeMillis() - change.timeMillis;
+		}
+		return true;
+	}
+
+	/**
+	 * Fetches the next page of changes, or returns null if they are no longer in the leader's log. A response that
+	 * can't be parsed is thrown as an {@link IOException} so that it's retried like a failed request.
+	 */
+	private ChangePage fetchChanges() throws IOException, InterruptedException {
+		URI uri = leader.resolve("/api/replication/log?epoch=" + URLEncoder.encode(epoch, StandardCharsets.UTF_8)
+				+ "&after=" + sequence + "&limit=" + PAGE_SIZE + "&wait=" + WAIT_MILLIS);
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.timeout(Duration.ofMillis(WAIT_MILLIS).plusSeconds(30))
+				.build();
+		HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
+		if (response.statusCode() == 410) {
+			return null;
+		}
+		if (response.statusCode() != 200) {
+			throw new IOException("The leader responded with status " + response.statusCode());
+		}
+		ChangePage page;
+		try {
+			page = GSON.fromJson(response.body(), ChangePage.class);
+		} catch (JsonParseException e) {
+			throw new IOException("The leader sent changes that can't be parsed: " + e.getMessage(), e);
+		}
+		if (page == null || page.changes == null) {
+			throw new IOException("The leader sent an empty page of changes");
+		}
+		return page;
+	}
+
+	public URI getLeader() {
+		return leader;
+	}
+
+	public ReplicationStatus getStatus() {
+		return new ReplicationStatus("follower", epoch, sequence, leaderSequence, lagMillis);
+	}
+
+	/**
+	 * Stops applying changes. This doesn't wait for the replication thread, since it may be the one closing us.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package cloudservice.replication;
+
+import cloudservice.replication.ReplicationResource.ReplicationStatus;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Shows how far a follower has come in applying the changes of the leader, see {@link Follower}.
+ */
+@Path("replication")
+public class FollowerResource {
+	private final Follower follower;
+
+	public FollowerResource(Follower follower) {
+		this.follower = follower;
+	}
+
+	@GET
+	@Path("status")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ReplicationStatus status() {
+		return follower.getStatus();
+	}
+}
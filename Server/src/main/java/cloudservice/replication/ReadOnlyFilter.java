@@ -0,0 +1,44 @@
+package cloudservice.replication;
+
+import cloudservice.ReadOnly;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+
+/**
+ * Rejects all requests which could change the database on a follower, since its changes only come from the leader.
+ * Methods marked with {@link ReadOnly} are let through even though they are posted.
+ */
+public class ReadOnlyFilter implements ContainerRequestFilter {
+	private final URI leader;
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	public ReadOnlyFilter(URI leader) {
+		this.leader = leader;
+	}
+
+	@Override
+	public void filter(ContainerRequestContext context) {
+		String method = context.getMethod();
+		if (!method.equals("GET") && !method.equals("HEAD") && !method.equals("OPTIONS") && !isReadOnly()) {
+			context.abortWith(Response.status(Status.FORBIDDEN)
+					.entity("This node is a read-only follower, send changes to the leader at " + leader)
+					.type(MediaType.TEXT_PLAIN)
+					.build());
+		}
+	}
+
+	private boolean isReadOnly() {
+		Method resourceMethod = resourceInfo != null ? resourceInfo.getResourceMethod() : null;
+		return resourceMethod != null && resourceMethod.isAnnotationPresent(ReadOnly.class);
+	}
+}
@@ -0,0 +1,123 @@
+package cloudservice.replication;
+
+import cloudservice.persistence.WriteAheadLog;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The stream of changes which the leader sends to its followers. The database appends every change here in the same
+ * order as it's written to the write-ahead log, and the followers read the changes after the last one they have
+ * applied.
+ * <br/>
+ * <br/>Only the latest changes are kept in memory, in a ring buffer with a fixed capacity. A follower which falls
+ * further behind than that (or a new follower) has to start over from a snapshot of the whole database, which contains
+ * the sequence number of the last change included in it.
+ * <br/>
+ * <br/>The sequence numbers start over from 1 every time the leader starts, so every log has a random epoch which the
+ * followers use to detect that their position is no longer valid.
+ */
+public class ReplicationLog {
+	private final String epoch = UUID.randomUUID().toString();
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+
+	// Guarded by lock
+	private final Change[] changes;
+	private long lastSequence;
+
+	public ReplicationLog(int capacity) {
+		changes = new Change[capacity];
+	}
+
+	public String getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Appends a change and returns its sequence number. The synonyms are copied, so the caller may reuse the set.
+	 */
+	public long append(String word, Set<String> synonyms, boolean removal) {
+		Set<String> copy = ImmutableSet.copyOf(synonyms);
+		lock.lock();
+		try {
+			long sequence = ++lastSequence;
+			changes[(int) (sequence % changes.length)] = new Change(sequence, System.currentTimeMillis(), word, copy, removal);
+			appended.signalAll();
+			return sequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getLastSequence() {
+		lock.lock();
+		try {
+			return lastSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns up to <code>limit</code> changes after the specified sequence number, waiting up to the timeout for new
+	 * changes if there aren't any yet. Returns null if the changes are no longer in the log, then the reader has to
+	 * start over from a snapshot.
+	 */
+	public List<Change> read(long afterSequence, int limit, long timeoutMillis) throws InterruptedException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (lastSequence == afterSequence && remaining > 0) {
+				remaining = appended.awaitNanos(remaining);
+			}
+			if (afterSequence > lastSequence || afterSequence < lastSequence - changes.length) {
+				return null;
+			}
+
+			int count = (int) Math.min(limit, lastSequence - afterSequence);
+			List<Change> result = new ArrayList<>(count);
+			for (long sequence = afterSequence + 1; sequence <= afterSequence + count; sequence++) {
+				result.add(changes[(int) (sequence % changes.length)]);
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public static class Change {
+		public final long sequence;
+		/**
+		 * When the leader accepted the change, used to measure the replication lag.
+		 */
+		public final long timeMillis;
+		public final String word;
+		public final Set<String> synonyms;
+		public final boolean removal;
+
+		public Change(long sequence, long timeMillis, String word, Set<String> synonyms, boolean removal) {
+			this.sequence = sequence;
+			this.timeMillis = timeMillis;
+			this.word = word;
+			this.synonyms = synonyms;
+			this.removal = removal;
+		}
+
+		/**
+		 * Returns the change as a log entry, which the database can apply using
+		 * {@link cloudservice.Database#restore(WriteAheadLog.Entry)}.
+		 */
+		public WriteAheadLog.Entry toEntry() {
+			return new WriteAheadLog.Entry(sequence, word, synonyms, removal);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package cloudservice.replication;
+
+import cloudservice.Database;
+import cloudservice.Database.Partition;
+import cloudservice.persistence.Checkpoint;
+import cloudservice.replication.ReplicationLog.Change;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.util.List;
+
+/**
+ * The endpoints the followers use to copy the database of the leader. A new follower first downloads a snapshot,
+ * and then polls the log for the changes after the one the snapshot ended with. The log requests wait up to a second
+ * for new changes, so the followers get them soon after they are made without polling all the time.
+ */
+@Path("replication")
+public class ReplicationResource {
+	public static final String EPOCH_HEADER = "Replication-Epoch";
+
+	private static final int MAX_CHANGES = 10_000;
+	private static final long MAX_WAIT_MILLIS = 5000;
+
+	private final Database database;
+	private final ReplicationLog replicationLog;
+
+	@Inject
+	public ReplicationResource(Database database, ReplicationLog replicationLog) {
+		this.database = database;
+		this.replicationLog = replicationLog;
+	}
+
+	/**
+	 * Returns the whole database in the checkpoint format, with the sequence number of the last change in the
+	 * replication log that is included. Like checkpoints the snapshot is written without blocking any writes.
+	 */
+	@GET
+	@Path("snapshot")
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	public Response snapshot() {
+		Partition partition = database.getPartition();
+		StreamingOutput output = stream -> Checkpoint.write(stream, partition, partition.replicationSequence);
+		return Response.ok(output, MediaType.APPLICATION_OCTET_STREAM)
+				.header(EPOCH_HEADER, replicationLog.getEpoch())
+				.build();
+	}
+
+	/**
+	 * Returns the changes after the specified sequence number. If they are no longer in the log, or the leader has
+	 * restarted since the follower got its snapshot, the response is 410 Gone and the follower has to start over.
+	 */
+	@GET
+	@Path("log")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ChangePage log(@QueryParam("epoch") String epoch, @QueryParam("after") long after,
+						  @QueryParam("limit") @DefaultValue("1000") int limit,
+						  @QueryParam("wait") @DefaultValue("1000") long waitMillis) throws InterruptedException {
+		if (!replicationLog.getEpoch().equals(epoch)) {
+			throw new WebApplicationException("The leader has restarted, a new snapshot is needed", Status.GONE);
+		}
+		List<Change> changes = replicationLog.read(after, Math.max(1, Math.min(limit, MAX_CHANGES)),
+				Math.max(0, Math.min(waitMillis, MAX_WAIT_MILLIS)));
+		if (changes == null) {
+			throw new WebApplicationException("The changes after " + after + " are no longer in the log, a new snapshot is needed", Status.GONE);
+		}
+		return new ChangePage(replicationLog.getLastSequence(), changes);
+	}
+
+	@GET
+	@Path("status")
+	@Produces(MediaType.APPLICATION_JSON)
+	public ReplicationStatus status() {
+		long sequence = replicationLog.getLastSequence();
+		return new ReplicationStatus("leader", replicationLog.getEpoch(), sequence, sequence, 0);
+	}
+
+	public static class ReplicationStatus {
+		public final String role;
+		public final String epoch;
+		/**
+		 * The sequence number of the last change which has been applied on this node.
+		 */
+		public final long sequence;
+		/**
+		 * The sequence number of the last change on the leader, as far as this node knows.
+		 */
+		public final long leaderSequence;
+		/**
+		 * The time between the leader accepting the last applied change and this node applying it.
+		 */
+		public final long lagMillis;
+
+		public ReplicationStatus(String role, String epoch, long sequence, long leaderSequence, long lagMillis) {
+			this.role = role;
+			this.epoch = epoch;
+			this.sequence = sequence;
+			this.leaderSequence = leaderSequence;
+			this.lagMillis = lagMillis;
+		}
+	}
+
+	public static class ChangePage {
+		/**
+		 * The sequence number of the last change in the log, which may be after the changes in this page.
+		 */
+		public final long lastSequence;
+		public final List<Change> changes;
+
+		public ChangePage(long lastSequence, List<Change> changes) {
+			this.lastSequence = lastSequence;
+			this.changes = changes;
+		}
+	}
+}
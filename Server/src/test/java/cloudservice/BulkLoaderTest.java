@@ -0,0 +1,139 @@
+package cloudservice;
+
+import cloudservice.Database.SynonymEntry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BulkLoaderTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	void loadJson() throws IOException {
+		Path file = write("synonyms.ndjson",
+				"{\"word\": \"a\", \"synonyms\": [\"b\"]}\n" +
+				"{\"word\": \"\", \"synonyms\": [\"x\"]}\n" +
+				"\n" +
+				"{\"word\": \"c\", \"synonyms\": [\"B\", \"b\", \"c\"]}\n" +
+				"{\"word\": \"x\", \"synonyms\": [\"y\"]}");
+		Database database = new Database();
+		BulkLoader.Result result = new BulkLoader(2, 16).load(file, database);
+		assertEquals(3, result.entries);
+		assertEquals(1, result.skipped);
+		assertEquals(6, result.words);
+		assertEquals(2, result.groups);
+		assertEquals(4, result.synonyms);
+
+		assertEquals(ImmutableList.of(ImmutableList.of("a", "B", "b", "c"), ImmutableList.of("x", "y")),
+				database.getSortedGroups());
+		assertEquals(ImmutableList.of("a", "B", "b"), database.getSynonyms("c", 10).synonyms);
+		assertEquals(ImmutableList.of("a"), database.suggest("a", 10));
+		// The edges are loaded as well, so synonyms can be removed
+		assertFalse(database.removeSynonym("a", "c"));
+		assertTrue(database.removeSynonym("a", "b"));
+		assertEquals(ImmutableList.of(), database.getSynonyms("a", 10).synonyms);
+		assertEquals(ImmutableList.of("B", "c"), database.getSynonyms("b", 10).synonyms);
+		// And the database keeps working as usual
+		database.addSynonyms("y", ImmutableSet.of("a"));
+		assertEquals(ImmutableList.of("x", "y"), database.getSynonyms("a", 10).synonyms);
+	}
+
+	@Test
+	void loadCsv() throws IOException {
+		Path file = write("synonyms.csv", "a, b,c\r\n\"d, e\",\"say \"\"hi\"\"\",\n lonely \n f,,a\n");
+		Database database = new Database();
+		BulkLoader.Result result = new BulkLoader(1).load(file, database);
+		assertEquals(3, result.entries);
+		assertEquals(1, result.skipped);
+		assertEquals(ImmutableList.of(ImmutableList.of("a", "b", "c", "f"), ImmutableList.of("d, e", "say \"hi\"")),
+				database.getSortedGroups());
+	}
+
+	@Test
+	void parseCsvLine() {
+		assertEquals(ImmutableList.of("a", "b", ""), BulkLoader.parseCsvLine("a , b,"));
+		assertEquals(ImmutableList.of("a,b", " c", "\"", ""), BulkLoader.parseCsvLine("\"a,b\",\" c\" ,\"\"\"\",\"\""));
+		assertEquals(ImmutableList.of(""), BulkLoader.parseCsvLine(""));
+	}
+
+	/**
+	 * Loads random synonyms in many small chunks with several threads, and compares the result with adding the same
+	 * entries to a database one at a time.
+	 */
+	@Test
+	void sameAsAddingEntries() throws IOException {
+		Random random = new Random(0);
+		List<SynonymEntry> entries = new ArrayList<>();
+		StringBuilder file = new StringBuilder();
+		for (int i = 0; i < 20_000; i++) {
+			Set<String> synonyms = new LinkedHashSet<>();
+			for (int j = random.nextInt(3); j >= 0; j--) {
+				synonyms.add("w" + random.nextInt(30_000));
+			}
+			String word = "w" + random.nextInt(30_000);
+			entries.add(new SynonymEntry(word, synonyms));
+			file.append(word).append(',').append(String.join(",", synonyms)).append('\n');
+		}
+		Database expected = new Database();
+		for (SynonymEntry entry : entries) {
+			expected.addSynonyms(entry.word, entry.synonyms);
+		}
+
+		Database database = new Database();
+		BulkLoader.Result result = new BulkLoader(4, 4096).load(write("random.csv", file.toString()), database);
+		assertEquals(entries.size(), result.entries);
+		assertEquals(expected.getSortedGroups(), database.getSortedGroups());
+		assertEquals(expected.getSortedGroups().size(), result.groups);
+		for (int i = 0; i < 100; i++) {
+			String word = "w" + random.nextInt(30_000);
+			assertEquals(expected.getSynonyms(word, 10).synonyms, database.getSynonyms(word, 10).synonyms);
+		}
+
+		// Removing edges must split the groups in the same way
+		for (SynonymEntry entry : entries.subList(0, 1000)) {
+			for (String synonym : entry.synonyms) {
+				assertEquals(expected.removeSynonym(entry.word, synonym), database.removeSynonym(entry.word, synonym));
+			}
+		}
+		assertEquals(expected.getSortedGroups(), database.getSortedGroups());
+	}
+
+	@Test
+	void onlyIntoEmptyDatabase() throws IOException {
+		Path file = write("synonyms.csv", "a,b\n");
+		Database database = new Database();
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		assertThrows(IllegalStateException.class, () -> new BulkLoader(1).load(file, database));
+	}
+
+	@Test
+	void malformedJson() throws IOException {
+		Path file = write("synonyms.ndjson", "{\"word\": \"a\", \"synonyms\": [\"b\"]}\n{\"word\"\n");
+		Database database = new Database();
+		assertThrows(IOException.class, () -> new BulkLoader(2).load(file, database));
+		assertEquals(0, database.getWordCount());
+	}
+
+	private Path write(String name, String content) throws IOException {
+		Path file = directory.resolve(name);
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
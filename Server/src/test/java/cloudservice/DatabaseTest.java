@@ -1,12 +1,32 @@
 package cloudservice;
 
+import cloudservice.Database.Group;
+import cloudservice.Database.SynonymEntry;
 import cloudservice.Database.SynonymPage;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class DatabaseTest {
 	private Database database;
@@ -21,6 +41,27 @@ public class DatabaseTest {
 		assertEquals(ImmutableList.of(), database.getSynonyms("non existing", 10).synonyms);
 	}
 
+	@Test
+	void metrics() {
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		database.addSynonyms("c", ImmutableSet.of("d"));
+		database.addSynonyms("b", ImmutableSet.of("c"));
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		database.addSynonyms(ImmutableList.of(new SynonymEntry("x", ImmutableSet.of("y"))));
+
+		assertEquals(4, database.getMetrics().stateReadLockWait.getCount());
+		assertEquals(4, database.getMetrics().stateReadLockHold.getCount());
+		assertEquals(4, database.getMetrics().rootLockWait.getCount());
+		assertEquals(1, database.getMetrics().stateWriteLockHold.getCount());
+		// The batch merges through the same path, the last addition doesn't merge anything
+		assertEquals(4, database.getMetrics().mergeSize.getCount());
+		assertEquals(2 + 2 + 4 + 2, database.getMetrics().mergeSize.getSum());
+
+		assertEquals(2, database.getGroupSizes().getCount());
+		assertEquals(6, database.getGroupSizes().getSum());
+		assertEquals(6, database.getWordCount());
+	}
+
 	@Test
 	void addSingle() {
 		database.addSynonyms("a", ImmutableSet.of("b"));
@@ -103,10 +144,531 @@ public class DatabaseTest {
 		assertEquals(ImmutableList.of(), actual.synonyms);
 	}
 
+	@Test
+	void offset() {
+		database.addSynonyms("c", ImmutableSet.of("a", "b", "d", "e"));
+		assertEquals(ImmutableList.of("a", "b"), database.getSynonyms("c", 0, 2).synonyms);
+		assertEquals(ImmutableList.of("b", "d"), database.getSynonyms("c", 1, 2).synonyms);
+		assertEquals(ImmutableList.of("d", "e"), database.getSynonyms("c", 2, 2).synonyms);
+		assertEquals(ImmutableList.of("e"), database.getSynonyms("c", 3, 2).synonyms);
+		assertEquals(ImmutableList.of(), database.getSynonyms("c", 4, 2).synonyms);
+		assertEquals(4, database.getSynonyms("c", 4, 2).total);
+	}
+
+	@Test
+	void cursor() {
+		database.addSynonyms("c", ImmutableSet.of("a", "b", "d", "e"));
+
+		SynonymPage page = database.getSynonyms("c", 2);
+		assertEquals(ImmutableList.of("a", "b"), page.synonyms);
+		page = database.getSynonymsAfter("c", page.next, 2);
+		assertEquals(ImmutableList.of("d", "e"), page.synonyms);
+		assertNull(page.next);
+	}
+
+	@Test
+	void cursorAfterMerge() {
+		database.addSynonyms("a", ImmutableSet.of("c", "e"));
+
+		SynonymPage page = database.getSynonyms("a", 1);
+		assertEquals(ImmutableList.of("c"), page.synonyms);
+
+		database.addSynonyms("x", ImmutableSet.of("b", "d"));
+		database.addSynonyms("x", ImmutableSet.of("e"));
+
+		page = database.getSynonymsAfter("a", page.next, 10);
+		assertEquals(ImmutableList.of("d", "e", "x"), page.synonyms);
+		assertEquals(5, page.total);
+	}
+
+	@Test
+	void invalidCursor() {
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		assertThrows(IllegalArgumentException.class, () -> database.getSynonymsAfter("a", "%%%", 10));
+	}
+
+	@Test
+	void addBatch() {
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		database.addSynonyms(ImmutableList.of(
+				new SynonymEntry("a", ImmutableSet.of("b")),
+				new SynonymEntry("c", ImmutableSet.of("d")),
+				new SynonymEntry("b", ImmutableSet.of("c", "y")),
+				new SynonymEntry("e", ImmutableSet.of("f")),
+				new SynonymEntry("e", ImmutableSet.of("e"))));
+		assertEquals(ImmutableList.of("b", "c", "d", "x", "y"), database.getSynonyms("a", 10).synonyms);
+		assertEquals(ImmutableList.of("e"), database.getSynonyms("f", 10).synonyms);
+		assertEquals(2, database.getPartition().groups.size());
+
+		database.addSynonyms(ImmutableList.of());
+		database.addSynonyms(ImmutableList.of(new SynonymEntry("f", ImmutableSet.of("x"))));
+		assertEquals(7, database.getSynonyms("a", 10).total);
+		assertEquals(1, database.getPartition().groups.size());
+	}
+
+	/**
+	 * Adding in a batch must give the same groups as adding the entries one at a time.
+	 */
+	@Test
+	void addBatchSameAsSingle() {
+		Random random = new Random(0);
+		List<SynonymEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 20_000; i++) {
+			entries.add(new SynonymEntry("w" + random.nextInt(30_000), ImmutableSet.of("w" + random.nextInt(30_000))));
+		}
+
+		Database single = new Database();
+		for (SynonymEntry entry : entries) {
+			single.addSynonyms(entry.word, entry.synonyms);
+		}
+		for (List<SynonymEntry> batch : Lists.partition(entries, 3000)) {
+			database.addSynonyms(batch);
+		}
+
+		for (int i = 0; i < 30_000; i += 7) {
+			SynonymPage expected = single.getSynonyms("w" + i, Integer.MAX_VALUE);
+			SynonymPage actual = database.getSynonyms("w" + i, Integer.MAX_VALUE);
+			assertEquals(expected.total, actual.total);
+			assertEquals(expected.synonyms, actual.synonyms);
+		}
+		assertEquals(single.getPartition().groups.size(), database.getPartition().groups.size());
+	}
+
+	@Test
+	void groupVersions() {
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		String tagA = database.getVersionTag(database.getGroup("a"));
+		String tagX = database.getVersionTag(database.getGroup("x"));
+		assertEquals(tagA, database.getVersionTag(database.getGroup("b")));
+		assertNotEquals(tagA, tagX);
+		assertNotEquals(tagA, database.getVersionTag(null));
+
+		database.addSynonyms("b", ImmutableSet.of("c"));
+		String newTagA = database.getVersionTag(database.getGroup("a"));
+		assertNotEquals(tagA, newTagA);
+		assertEquals(newTagA, database.getVersionTag(database.getGroup("c")));
+		assertEquals(tagX, database.getVersionTag(database.getGroup("x")));
+
+		// Adding synonyms which are already in the group doesn't change anything
+		database.addSynonyms("a", ImmutableSet.of("c"));
+		assertEquals(newTagA, database.getVersionTag(database.getGroup("a")));
+
+		// A new database never gives the same tags, even with the same history
+		Database other = new Database();
+		other.addSynonyms("a", ImmutableSet.of("b"));
+		assertNotEquals(tagA, other.getVersionTag(other.getGroup("a")));
+	}
+
 	@Test
 	void returnedCountsUnknownWord() {
 		SynonymPage actual = database.getSynonyms("x", 10);
 		assertEquals(0, actual.total);
 		assertEquals(ImmutableList.of(), actual.synonyms);
 	}
+
+	@Test
+	void findClosestWord() {
+		database.addSynonyms("synonym", ImmutableSet.of("thesaurus", "cat", "Dog"));
+		database.addSynonyms("synonyms", ImmutableSet.of("car"));
+		assertEquals("synonym", database.findClosestWord("synonym"));
+		assertEquals("synonym", database.findClosestWord("synomym"));
+		assertEquals("synonym", database.findClosestWord("snynoym")); // Two transpositions
+		assertEquals("thesaurus", database.findClosestWord("Thesarus"));
+		assertEquals("Dog", database.findClosestWord("dgo"));
+		assertEquals("cat", database.findClosestWord("cat"));
+		assertEquals("car", database.findClosestWord("caar"));
+		assertNull(database.findClosestWord("ct")); // Too short to allow any edits
+		assertNull(database.findClosestWord("dgoo")); // Only one edit is allowed for short words
+		assertNull(database.findClosestWord("thsaurs2"));
+	}
+
+	@Test
+	void removeSynonym() {
+		database.addSynonyms("a", ImmutableSet.of("b", "c"));
+		database.addSynonyms("b", ImmutableSet.of("c"));
+		assertTrue(database.removeSynonym("a", "b"));
+		assertEquals(ImmutableList.of("b", "c"), database.getSynonyms("a", 10).synonyms); // Still connected through 'c'
+
+		long version = database.getGroup("a").version;
+		assertTrue(database.removeSynonym("c", "a"));
+		assertEquals(0, database.getSynonyms("a", 10).total);
+		assertEquals(ImmutableList.of("c"), database.getSynonyms("b", 10).synonyms);
+		assertEquals(ImmutableList.of("b"), database.getSynonyms("c", 10).synonyms);
+		assertNotEquals(version, database.getGroup("b").version);
+
+		// The removed words can be added again
+		database.addSynonyms("a", ImmutableSet.of("c"));
+		assertEquals(ImmutableList.of("a", "b"), database.getSynonyms("c", 10).synonyms);
+	}
+
+	@Test
+	void removeNotAdded() {
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		database.addSynonyms("b", ImmutableSet.of("c"));
+		assertFalse(database.removeSynonym("a", "c")); // Only synonyms by transitivity
+		assertFalse(database.removeSynonym("a", "a"));
+		assertFalse(database.removeSynonym("a", "x"));
+		assertFalse(database.removeSynonym("x", "y"));
+		assertTrue(database.removeSynonym("a", "b"));
+		assertFalse(database.removeSynonym("a", "b"));
+		assertEquals(ImmutableList.of("c"), database.getSynonyms("b", 10).synonyms);
+	}
+
+	@Test
+	void removeSplitsLargeGroup() {
+		// Two chains connected by a single edge, the root can be on either side depending on the order of the unions
+		for (int i = 0; i < 1000; i++) {
+			database.addSynonyms("l" + i, ImmutableSet.of("l" + (i + 1)));
+			database.addSynonyms("r" + i, ImmutableSet.of("r" + (i + 1)));
+		}
+		database.addSynonyms("l500", ImmutableSet.of("r500"));
+		assertEquals(2001, database.getSynonyms("l0", 1).total);
+
+		assertTrue(database.removeSynonym("r500", "l500"));
+		assertEquals(1000, database.getSynonyms("l0", 1).total);
+		assertEquals(1000, database.getSynonyms("r1000", 1).total);
+		assertEquals(ImmutableList.of("l1"), database.getSynonyms("l0", 1).synonyms);
+		assertEquals(ImmutableList.of("r1"), database.getSynonyms("r0", 1).synonyms);
+		assertEquals(2, database.getPartition().groups.size());
+
+		// Splitting off a single word from the end
+		assertTrue(database.removeSynonym("l999", "l1000"));
+		assertEquals(0, database.getSynonyms("l1000", 1).total);
+		assertEquals(999, database.getSynonyms("l0", 1).total);
+	}
+
+	/**
+	 * Splits and merges a group over and over while reading it, a reader should always see either the whole group or
+	 * one of the halves.
+	 */
+	@Test
+	void queriesDuringSplits() throws InterruptedException {
+		for (int i = 0; i < 500; i++) {
+			database.addSynonyms("l" + i, ImmutableSet.of("l" + (i + 1)));
+			database.addSynonyms("r" + i, ImmutableSet.of("r" + (i + 1)));
+		}
+
+		AtomicBoolean done = new AtomicBoolean();
+		List<Integer> unexpected = Collections.synchronizedList(new ArrayList<>());
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				for (String word : ImmutableList.of("l0", "l250", "r0", "r500")) {
+					SynonymPage page = database.getSynonyms(word, 1);
+					if (page.total != 500 && page.total != 1001) {
+						unexpected.add(page.total);
+					}
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < 200; i++) {
+			database.addSynonyms("l" + (i % 500), ImmutableSet.of("r" + (i % 500)));
+			assertTrue(database.removeSynonym("l" + (i % 500), "r" + (i % 500)));
+		}
+		done.set(true);
+		reader.join();
+		assertEquals(ImmutableList.of(), unexpected);
+	}
+
+	@Test
+	void sortedGroups() {
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		database.addSynonyms("c", ImmutableSet.of("D", "b"));
+		database.addSynonyms("A", ImmutableSet.of("\u00e4"));
+		database.addSynonyms("m", ImmutableSet.of("n"));
+		assertTrue(database.removeSynonym("m", "n")); // Words without synonyms are left out
+
+		List<MemberList> groups = database.getSortedGroups();
+		assertEquals(ImmutableList.of(ImmutableList.of("A", "\u00e4"), ImmutableList.of("b", "c", "D"),
+				ImmutableList.of("x", "y")), groups);
+		assertEquals(ImmutableList.of(), new Database().getSortedGroups());
+	}
+
+	/**
+	 * Merges and splits groups while taking views of them, every view must contain each word exactly once and the
+	 * pairs that are being merged must be either both whole or both split.
+	 */
+	@Test
+	void sortedGroupsDuringWrites() throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			database.addSynonyms("l" + i, ImmutableSet.of("l" + i + "a"));
+			database.addSynonyms("r" + i, ImmutableSet.of("r" + i + "a"));
+		}
+
+		AtomicBoolean done = new AtomicBoolean();
+		List<String> unexpected = Collections.synchronizedList(new ArrayList<>());
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				List<MemberList> groups = database.getSortedGroups();
+				int words = 0;
+				for (MemberList group : groups) {
+					words += group.size();
+					if (group.size() != 2 && group.size() != 4) {
+						unexpected.add(group.toString());
+					}
+				}
+				if (words != 400) {
+					unexpected.add(words + " words in " + groups.size() + " groups");
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < 500; i++) {
+			database.addSynonyms("l" + (i % 100), ImmutableSet.of("r" + (i % 100)));
+			assertTrue(database.removeSynonym("l" + (i % 100), "r" + (i % 100)));
+		}
+		done.set(true);
+		reader.join();
+		assertEquals(ImmutableList.of(), unexpected);
+	}
+
+	/**
+	 * Takes checkpoints and exports while two large groups are merged and split, every word must be in exactly one
+	 * group of each. The groups are large so that the splits take a while.
+	 */
+	@Test
+	void partitionDuringWrites() throws InterruptedException {
+		for (int i = 1; i < 500; i++) {
+			database.addSynonyms("l" + i, ImmutableSet.of("l" + (i - 1)));
+			database.addSynonyms("r" + i, ImmutableSet.of("r" + (i - 1)));
+		}
+		database.addSynonyms("single", ImmutableSet.of());
+
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean done = new AtomicBoolean();
+		List<String> unexpected = Collections.synchronizedList(new ArrayList<>());
+		Thread reader = new Thread(() -> {
+			started.countDown();
+			for (int i = 0; !done.get(); i++) {
+				// The partition includes the words without synonyms, the export doesn't
+				List<MemberList> groups = i % 2 == 0 ? database.getPartition().groups : database.getSortedGroups();
+				Set<String> words = new HashSet<>();
+				for (MemberList group : groups) {
+					for (String word : group) {
+						if (!words.add(word)) {
+							unexpected.add(word + " is in more than one group");
+						}
+					}
+					if (group.size() != 500 && group.size() != 1000 && !group.contains("single")) {
+						unexpected.add(group.size() + " words in a group");
+					}
+				}
+				if (words.size() != (i % 2 == 0 ? 1001 : 1000)) {
+					unexpected.add(words.size() + " words");
+				}
+			}
+		});
+		reader.start();
+		started.await();
+		for (int i = 0; i < 500; i++) {
+			database.addSynonyms("l0", ImmutableSet.of("r0"));
+			assertTrue(database.removeSynonym("l0", "r0"));
+		}
+		done.set(true);
+		reader.join();
+		assertEquals(ImmutableList.of(), unexpected);
+	}
+
+	@Test
+	void synonymsOfWords() {
+		database.addSynonyms("a", ImmutableSet.of("b", "c"));
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		Map<String, SynonymPage> pages = database.getSynonyms(ImmutableList.of("c", "missing", "x", "a"), 1);
+		assertEquals(ImmutableList.of("c", "missing", "x", "a"), new ArrayList<>(pages.keySet()));
+		assertEquals(2, pages.get("c").total);
+		assertEquals(ImmutableList.of("a"), pages.get("c").synonyms);
+		assertNotNull(pages.get("c").next);
+		assertEquals(0, pages.get("missing").total);
+		assertEquals(ImmutableList.of("y"), pages.get("x").synonyms);
+		assertEquals(ImmutableList.of("b"), pages.get("a").synonyms);
+
+		// Words in the same group share the snapshot of it
+		Map<String, Group> groups = database.getGroups(ImmutableList.of("a", "b", "y"));
+		assertSame(groups.get("a"), groups.get("b"));
+		assertEquals(database.getGroup("a").version, groups.get("a").version);
+		assertEquals(ImmutableList.of("x", "y"), groups.get("y").members);
+	}
+
+	/**
+	 * Merges and splits two groups while looking up words from both of them, each lookup must see the groups either
+	 * merged or split, which isn't the case when the words are looked up one at a time.
+	 */
+	@Test
+	void synonymsOfWordsDuringWrites() throws InterruptedException {
+		database.addSynonyms("l", ImmutableSet.of("la"));
+		database.addSynonyms("r", ImmutableSet.of("ra"));
+
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean done = new AtomicBoolean();
+		List<String> unexpected = Collections.synchronizedList(new ArrayList<>());
+		Thread reader = new Thread(() -> {
+			started.countDown();
+			while (!done.get()) {
+				Map<String, SynonymPage> pages = database.getSynonyms(ImmutableList.of("la", "ra"), 10);
+				if (pages.get("la").total != pages.get("ra").total) {
+					unexpected.add(pages.get("la").synonyms + " and " + pages.get("ra").synonyms);
+				}
+			}
+		});
+		reader.start();
+		started.await();
+		for (int i = 0; i < 20_000; i++) {
+			database.addSynonyms("l", ImmutableSet.of("r"));
+			assertTrue(database.removeSynonym("l", "r"));
+		}
+		done.set(true);
+		reader.join();
+		assertEquals(ImmutableList.of(), unexpected);
+	}
+
+	/**
+	 * Adds and removes random synonyms and compares the groups with the connected components of the edges that are
+	 * left, computed from scratch.
+	 */
+	@Test
+	void randomRemovals() {
+		final int nWords = 300;
+		Random random = new Random(0);
+		List<List<Integer>> edges = new ArrayList<>();
+		for (int i = 0; i < nWords; i++) {
+			edges.add(new ArrayList<>());
+		}
+		for (int round = 0; round < 3000; round++) {
+			int w1 = random.nextInt(nWords);
+			int w2 = random.nextInt(nWords);
+			if (w1 == w2) {
+				continue;
+			}
+			if (edges.get(w1).contains(w2)) {
+				assertTrue(database.removeSynonym("w" + w1, "w" + w2));
+				edges.get(w1).remove((Integer) w2);
+				edges.get(w2).remove((Integer) w1);
+			} else if (random.nextInt(3) > 0) {
+				database.addSynonyms("w" + w1, ImmutableSet.of("w" + w2));
+				edges.get(w1).add(w2);
+				edges.get(w2).add(w1);
+			} else {
+				assertFalse(database.removeSynonym("w" + w1, "w" + w2));
+			}
+
+			if (round % 100 == 0) {
+				for (int i = 0; i < nWords; i++) {
+					List<String> expected = new ArrayList<>();
+					List<Integer> queue = new ArrayList<>(ImmutableList.of(i));
+					boolean[] visited = new boolean[nWords];
+					visited[i] = true;
+					while (!queue.isEmpty()) {
+						for (int neighbor : edges.get(queue.remove(queue.size() - 1))) {
+							if (!visited[neighbor]) {
+								visited[neighbor] = true;
+								queue.add(neighbor);
+								expected.add("w" + neighbor);
+							}
+						}
+					}
+					expected.remove("w" + i);
+					expected.sort(MemberList.ORDER);
+					assertEquals(expected, database.getSynonyms("w" + i, nWords).synonyms, "Synonyms of w" + i + " after round " + round);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs queries while another thread keeps merging new words into one large group (the worst case). Every query
+	 * must see the group as it was after some write, so the group never shrinks and the page matches its total. How
+	 * long the queries take meanwhile is measured by <code>DatabaseBenchmarks.queriesDuringWrites</code>, since
+	 * timings are too noisy on build machines to assert on.
+	 */
+	@Test
+	void queriesDuringWrites() throws InterruptedException {
+		final int nWords = 3_000;
+		for (int i = 0; i < 100; i++) {
+			database.addSynonyms(Integer.toString(i), ImmutableSet.of(Integer.toString(i + 1)));
+		}
+
+		Thread writer = new Thread(() -> {
+			for (int i = 100; i < nWords; i++) {
+				database.addSynonyms(Integer.toString(i), ImmutableSet.of(Integer.toString(i + 1)));
+			}
+		});
+		writer.start();
+
+		int lastTotal = 0;
+		int idx = 0;
+		do { // At least one query even if the writer has already finished
+			SynonymPage page = database.getSynonyms(Integer.toString(idx++ % 100), 100);
+			assertTrue(page.total >= lastTotal, "The group shrank from " + lastTotal + " to " + page.total);
+			assertEquals(Math.min(page.total, 100), page.synonyms.size());
+			lastTotal = page.total;
+		} while (writer.isAlive());
+		writer.join();
+
+		assertEquals(nWords, database.getSynonyms("0", 10).total);
+	}
+
+	/**
+	 * Several writers add overlapping synonyms at the same time, the result must be the same as when adding them one
+	 * at a time, and readers must never see a group shrink.
+	 */
+	@Test
+	void concurrentWrites() throws InterruptedException {
+		final int nThreads = 8;
+		final int nWords = 4_000;
+		List<List<SynonymEntry>> work = new ArrayList<>();
+		Random random = new Random(0);
+		Database single = new Database();
+		for (int t = 0; t < nThreads; t++) {
+			List<SynonymEntry> entries = new ArrayList<>();
+			for (int i = 0; i < 2_000; i++) {
+				SynonymEntry entry = new SynonymEntry("w" + random.nextInt(nWords),
+						ImmutableSet.of("w" + random.nextInt(nWords), "w" + random.nextInt(nWords)));
+				entries.add(entry);
+				single.addSynonyms(entry.word, entry.synonyms);
+			}
+			work.add(entries);
+		}
+
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicBoolean shrunk = new AtomicBoolean();
+		Thread reader = new Thread(() -> {
+			int[] lastTotals = new int[nWords];
+			while (!done.get()) {
+				for (int i = 0; i < nWords; i += 97) {
+					int total = database.getSynonyms("w" + i, 1).total;
+					if (total < lastTotals[i]) {
+						shrunk.set(true);
+					}
+					lastTotals[i] = total;
+				}
+			}
+		});
+		reader.start();
+
+		List<Thread> writers = new ArrayList<>();
+		for (List<SynonymEntry> entries : work) {
+			Thread writer = new Thread(() -> {
+				for (SynonymEntry entry : entries) {
+					database.addSynonyms(entry.word, entry.synonyms);
+				}
+			});
+			writer.start();
+			writers.add(writer);
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		done.set(true);
+		reader.join();
+
+		assertFalse(shrunk.get(), "A reader saw a group shrink");
+		for (int i = 0; i < nWords; i++) {
+			SynonymPage expected = single.getSynonyms("w" + i, Integer.MAX_VALUE);
+			SynonymPage actual = database.getSynonyms("w" + i, Integer.MAX_VALUE);
+			assertEquals(expected.total, actual.total);
+			assertEquals(expected.synonyms, actual.synonyms);
+		}
+		assertEquals(single.getPartition().groups.size(), database.getPartition().groups.size());
+	}
 }
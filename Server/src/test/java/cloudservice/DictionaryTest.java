@@ -0,0 +1,112 @@
+package cloudservice;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DictionaryTest {
+	@Test
+	void intern() {
+		Dictionary dictionary = new Dictionary();
+		assertEquals(-1, dictionary.lookup("a"));
+		assertEquals(0, dictionary.intern("a"));
+		assertEquals(1, dictionary.intern("b"));
+		assertEquals(0, dictionary.intern("a"));
+		assertEquals(1, dictionary.lookup("b"));
+		assertEquals("b", dictionary.word(1));
+		assertEquals(2, dictionary.size());
+	}
+
+	@Test
+	void internMany() {
+		Dictionary dictionary = new Dictionary();
+		for (int i = 0; i < 100_000; i++) {
+			assertEquals(i, dictionary.intern("word" + i));
+		}
+		for (int i = 0; i < 100_000; i++) {
+			assertEquals(i, dictionary.lookup("word" + i));
+			assertEquals("word" + i, dictionary.word(i));
+		}
+		assertEquals(-1, dictionary.lookup("word100000"));
+	}
+
+	@Test
+	void addAll() {
+		Dictionary dictionary = new Dictionary();
+		dictionary.intern("apple");
+		String[] words = new String[2000];
+		byte[][] keys = new byte[words.length][];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = "word" + i;
+			keys[i] = Dictionary.collationKey(words[i]);
+		}
+		List<Integer> sorted = new ArrayList<>();
+		for (int i = 0; i < words.length; i++) {
+			sorted.add(i);
+		}
+		sorted.sort((i1, i2) -> MemberList.ORDER.compare(words[i1], words[i2]));
+		dictionary.addAll(words, keys, sorted.stream().mapToInt(Integer::intValue).toArray());
+
+		assertEquals(2001, dictionary.size());
+		assertEquals(0, dictionary.lookup("apple"));
+		assertEquals(1235, dictionary.lookup("word1234"));
+		assertEquals("word1999", dictionary.word(2000));
+		assertEquals(ImmutableList.of("word1", "word10", "word100"), dictionary.suggest("word1", 3));
+		assertEquals("word1234", dictionary.findClosest("wrod1234"));
+		assertEquals(2001, dictionary.intern("banana"));
+	}
+
+	@Test
+	void suggest() {
+		Dictionary dictionary = new Dictionary();
+		for (String word : ImmutableList.of("banana", "Apricot", "apple", "app", "application", "\u00e5sna", "asp")) {
+			dictionary.intern(word);
+		}
+		assertEquals(ImmutableList.of("app", "apple", "application", "Apricot"), dictionary.suggest("ap", 10));
+		assertEquals(ImmutableList.of("app", "apple"), dictionary.suggest("AP", 2));
+		assertEquals(ImmutableList.of("apple"), dictionary.suggest("apple", 10));
+		assertEquals(ImmutableList.of("\u00e5sna", "asp"), dictionary.suggest("as", 10)); // Accents are ignored
+		assertEquals(ImmutableList.of(), dictionary.suggest("c", 10));
+		assertEquals(ImmutableList.of(), dictionary.suggest("b\u00f6", 10));
+	}
+
+	/**
+	 * The compact keys must give the same order as the collator, including for characters which need more than one
+	 * byte per weight.
+	 */
+	@Test
+	void sameOrderAsCollator() {
+		Collator collator = Collator.getInstance();
+		collator.setStrength(Collator.PRIMARY);
+
+		Random random = new Random(0);
+		String alphabet = "aAbBzZ019 -\u00e5\u00e4\u00f6\u00c5\u00e9\u00df\u03b1\u0416\u4e2d\u6587";
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder word = new StringBuilder();
+			int length = random.nextInt(6);
+			for (int j = 0; j < length; j++) {
+				word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			words.add(word.toString());
+		}
+
+		Dictionary dictionary = new Dictionary();
+		for (String w1 : words.subList(0, 200)) {
+			for (String w2 : words) {
+				int expected = Integer.signum(collator.compare(w1, w2));
+				if (expected == 0) {
+					expected = Integer.signum(w1.compareTo(w2));
+				}
+				assertEquals(expected, Integer.signum(dictionary.compare(dictionary.intern(w1), dictionary.intern(w2))), w1 + " vs. " + w2);
+				assertEquals(expected, Integer.signum(dictionary.compare(dictionary.intern(w1), Dictionary.collationKey(w2), w2)), w1 + " vs. " + w2);
+			}
+		}
+	}
+}
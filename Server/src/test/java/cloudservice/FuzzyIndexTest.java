@@ -0,0 +1,74 @@
+package cloudservice;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class FuzzyIndexTest {
+	@Test
+	void distance() {
+		assertEquals(0, distance("word", "word"));
+		assertEquals(1, distance("word", "wrd"));
+		assertEquals(1, distance("word", "words"));
+		assertEquals(1, distance("word", "ward"));
+		assertEquals(1, distance("word", "wrod"));
+		assertEquals(2, distance("word", "owrds"));
+		assertEquals(4, distance("word", "xyz"));
+		assertEquals(3, distance("", "abc"));
+	}
+
+	@Test
+	void distanceStopsAtMax() {
+		assertEquals(3, FuzzyIndex.distance(weights("abcdef"), weights("uvwxyz"), 2));
+		assertEquals(3, FuzzyIndex.distance(weights("a"), weights("abcdef"), 2));
+	}
+
+	@Test
+	void weightsIgnoreCaseAndAccents() {
+		assertEquals(0, distance("Ord", "\u00f6rd"));
+		assertEquals(1, distance("\u00e5\u00e4\u00f6", "\u20ac\u00e4\u00f6"));
+	}
+
+	@Test
+	void findClosestAmongMany() {
+		Dictionary dictionary = new Dictionary();
+		for (int i = 0; i < 100_000; i++) {
+			dictionary.intern("word" + i);
+		}
+		assertEquals("word12345", dictionary.findClosest("wrod12345"));
+		assertEquals("word12345", dictionary.findClosest("word1234x5"));
+	}
+
+	/**
+	 * A transposition changes four trigrams, which in short words can be all of them.
+	 */
+	@Test
+	void findClosestWithTransposition() {
+		Dictionary dictionary = new Dictionary();
+		for (String word : ImmutableList.of("house", "dog", "word", "garden", "synonym", "notebook", "cat", "mouse")) {
+			dictionary.intern(word);
+		}
+		for (int i = 0; i < 10_000; i++) {
+			dictionary.intern("filler" + i);
+		}
+		assertEquals("house", dictionary.findClosest("huose"));
+		assertEquals("house", dictionary.findClosest("hosue"));
+		assertEquals("dog", dictionary.findClosest("odg"));
+		assertEquals("dog", dictionary.findClosest("dgo"));
+		assertEquals("word", dictionary.findClosest("wrod"));
+		assertEquals("garden", dictionary.findClosest("gadren"));
+		assertEquals("synonym", dictionary.findClosest("snyonym"));
+		assertEquals("notebook", dictionary.findClosest("ntoeboko")); // Two transpositions
+		assertNull(dictionary.findClosest("ohsue"));
+	}
+
+	private static int distance(String s, String t) {
+		return FuzzyIndex.distance(weights(s), weights(t), 10);
+	}
+
+	private static int[] weights(String word) {
+		return FuzzyIndex.weights(Dictionary.collationKey(word));
+	}
+}
@@ -0,0 +1,136 @@
+package cloudservice;
+
+import cloudservice.Database.SynonymEntry;
+import cloudservice.Database.SynonymPage;
+import cloudservice.SynonymResource.LookupResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JsonIOTest {
+	private static final Type SET_TYPE = new TypeToken<Set<String>>() {}.getType();
+
+	private final JsonIO jsonIO = new JsonIO();
+	private final Gson gson = new Gson();
+
+	@Test
+	void writePage() throws IOException {
+		assertEquals("{\"total\":3,\"synonyms\":[\"a\",\"b\"],\"next\":\"Yg\"}",
+				write(new SynonymPage(3, ImmutableList.of("a", "b"), "Yg")));
+		assertEquals("{\"total\":0,\"synonyms\":[]}", write(new SynonymPage(0, ImmutableList.of())));
+		assertEquals("{\"total\":1,\"synonyms\":[\"a\"],\"match\":\"b\"}",
+				write(new SynonymPage(1, ImmutableList.of("a"), null, "b")));
+	}
+
+	@Test
+	void writePageSpecialCharacters() throws IOException {
+		List<String> words = ImmutableList.of("\"quoted\"", "back\\slash", "new\nline\t\u0001", "\u00e5\u00e4\u00f6",
+				"\u20ac\u2028\u2029", "\ud83d\ude00", "unpaired \ud83d", "<html>&'=");
+		SynonymPage read = gson.fromJson(write(new SynonymPage(-1234, words, null)), SynonymPage.class);
+		assertEquals(-1234, read.total);
+		assertEquals(Arrays.asList("\"quoted\"", "back\\slash", "new\nline\t\u0001", "\u00e5\u00e4\u00f6",
+				"\u20ac\u2028\u2029", "\ud83d\ude00", "unpaired ?", "<html>&'="), read.synonyms);
+		assertNull(read.next);
+	}
+
+	@Test
+	void writeLookup() throws IOException {
+		LookupResult result = new LookupResult(ImmutableMap.of(
+				"b", new SynonymPage(2, ImmutableList.of("a"), "YQ"),
+				"\"\u00e5\"", new SynonymPage(0, ImmutableList.of())));
+		String json = write(result);
+		assertEquals("{\"pages\":{\"b\":{\"total\":2,\"synonyms\":[\"a\"],\"next\":\"YQ\"},\"\\\"\u00e5\\\"\":{\"total\":0,\"synonyms\":[]}}}", json);
+		LookupResult read = gson.fromJson(json, LookupResult.class);
+		assertEquals(ImmutableList.of("b", "\"\u00e5\""), new ArrayList<>(read.pages.keySet()));
+		assertEquals(ImmutableList.of("a"), read.pages.get("b").synonyms);
+	}
+
+	/**
+	 * Each group is written as a batch entry on its own line, and the buffer is reused for all of them.
+	 */
+	@Test
+	void writeGroups() throws IOException {
+		Database database = new Database();
+		database.addSynonyms("a", ImmutableSet.of("b\n", "\u00e5"));
+		List<String> large = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			large.add("large" + i);
+		}
+		database.addSynonyms("x", ImmutableSet.copyOf(large));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonIO.writeGroups(database.getSortedGroups(), out);
+		String[] lines = out.toString(StandardCharsets.UTF_8).split("\n", -1);
+		assertEquals(3, lines.length);
+		assertEquals("{\"word\":\"a\",\"synonyms\":[\"\u00e5\",\"b\\n\"]}", lines[0]);
+		try (SynonymBatchReader reader = new SynonymBatchReader(new StringReader(lines[1]))) {
+			assertTrue(reader.hasNext());
+			SynonymEntry entry = reader.next();
+			assertEquals("large0", entry.word);
+			assertEquals(database.getSynonyms("large0", 10_000).synonyms, new ArrayList<>(entry.synonyms));
+		}
+		assertEquals("", lines[2]);
+	}
+
+	/**
+	 * Pages which are larger than the buffer must be written in several parts.
+	 */
+	@Test
+	void writeLargePage() throws IOException {
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			words.add("word\u00e5" + i);
+		}
+		SynonymPage page = new SynonymPage(Integer.MAX_VALUE, words, "next");
+		assertEquals(gson.toJson(page), write(page));
+	}
+
+	@Test
+	void readSet() throws IOException {
+		assertEquals(ImmutableSet.of("a", "\u00e5", "b"), read("[\"a\", \"\u00e5\", \"b\", \"a\"]"));
+		assertEquals(ImmutableSet.of(), read("[]"));
+		assertEquals(Arrays.asList("a", null), new ArrayList<>(read("[\"a\", null]")));
+		assertNull(read("null"));
+		assertNull(read(""));
+		assertEquals(ImmutableSet.of("a"), read(" [\"a\"]\n"));
+	}
+
+	@Test
+	void readSetWithTrailingContent() {
+		assertThrows(JsonSyntaxException.class, () -> read("[\"a\",\"b\"] garbage"));
+		assertThrows(JsonSyntaxException.class, () -> read("[\"a\"][\"b\"]"));
+		assertThrows(JsonSyntaxException.class, () -> read("null 1"));
+	}
+
+	private String write(Object o) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		jsonIO.writeTo(o, o.getClass(), o.getClass(), null, null, null, out);
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Set<String> read(String json) throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+		return (Set<String>) jsonIO.readFrom(Object.class, SET_TYPE, null, null, null, in);
+	}
+}
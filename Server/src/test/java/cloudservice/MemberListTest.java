@@ -0,0 +1,156 @@
+package cloudservice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MemberListTest {
+	private final Dictionary dictionary = new Dictionary();
+
+	private MemberList of(String word) {
+		return MemberList.of(dictionary, dictionary.intern(word));
+	}
+
+	private MemberList fromWords(List<String> words) {
+		return MemberList.fromIds(dictionary, words.stream().mapToInt(dictionary::intern).toArray(), words.size());
+	}
+
+	@Test
+	void empty() {
+		assertEquals(0, MemberList.empty().size());
+		assertEquals(ImmutableList.of(), ImmutableList.copyOf(MemberList.empty()));
+	}
+
+	@Test
+	void mergeSmall() {
+		MemberList list = of("b").merge(of("a")).merge(of("c"));
+		assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(list));
+	}
+
+	@Test
+	void sortOrder() {
+		MemberList list = MemberList.empty();
+		for (String word : ImmutableList.of("x", "d", "D", "c", "e", "1")) {
+			list = list.merge(of(word));
+		}
+		assertEquals(ImmutableList.of("1", "c", "D", "d", "e", "x"), ImmutableList.copyOf(list));
+	}
+
+	@Test
+	void mergeDuplicate() {
+		assertThrows(IllegalStateException.class, () -> of("a").merge(of("a")));
+	}
+
+	@Test
+	void fromWords() {
+		MemberList list = fromWords(ImmutableList.of("x", "d", "D", "c", "e", "1"));
+		assertEquals(ImmutableList.of("1", "c", "D", "d", "e", "x"), ImmutableList.copyOf(list));
+		assertThrows(IllegalStateException.class, () -> fromWords(ImmutableList.of("a", "b", "a")));
+	}
+
+	@Test
+	void fromWordsLarge() {
+		Random random = new Random(0);
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			words.add((random.nextBoolean() ? "W" : "w") + random.nextInt(1_000_000) + "\u00e5" + i);
+		}
+		MemberList list = fromWords(words);
+		words.sort(MemberList.ORDER);
+		assertEquals(words, ImmutableList.copyOf(list));
+	}
+
+	@Test
+	void mergeIsPersistent() {
+		MemberList original = of("a").merge(of("c"));
+		MemberList merged = original.merge(of("b"));
+		assertEquals(ImmutableList.of("a", "c"), ImmutableList.copyOf(original));
+		assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(merged));
+	}
+
+	@Test
+	void indexAfter() {
+		MemberList list = MemberList.empty();
+		for (String word : ImmutableList.of("b", "d", "f")) {
+			list = list.merge(of(word));
+		}
+		assertEquals(0, list.indexAfter("a"));
+		assertEquals(1, list.indexAfter("b"));
+		assertEquals(1, list.indexAfter("c"));
+		assertEquals(3, list.indexAfter("f"));
+		assertEquals(3, list.indexAfter("g"));
+		assertEquals(0, MemberList.empty().indexAfter("a"));
+	}
+
+	@Test
+	void randomMerges() {
+		Random random = new Random(0);
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 20_000; i++) {
+			words.add("w" + i);
+		}
+
+		// Mix of single words, small groups and groups of similar size, which use different merge strategies
+		List<MemberList> groups = new ArrayList<>();
+		for (List<String> chunk : Lists.partition(words, 50)) {
+			MemberList group = MemberList.empty();
+			for (String word : chunk) {
+				group = group.merge(of(word));
+			}
+			groups.add(group);
+		}
+		while (groups.size() > 1) {
+			MemberList l1 = groups.remove(random.nextInt(groups.size()));
+			MemberList l2 = groups.remove(random.nextInt(groups.size()));
+			groups.add(l1.merge(l2));
+		}
+
+		MemberList result = groups.get(0);
+		words.sort(MemberList.ORDER);
+		assertEquals(words, ImmutableList.copyOf(result));
+		for (int i = 0; i < words.size(); i += 997) {
+			assertEquals(words.get(i), result.get(i));
+
+			Iterator<String> iterator = result.iterator(i);
+			assertEquals(words.subList(i, words.size()), ImmutableList.copyOf(iterator));
+			assertEquals(i + 1, result.indexAfter(words.get(i)));
+		}
+	}
+
+	/**
+	 * Adding a single word should not get noticeably slower as the group grows.
+	 */
+	@Test
+	void mergeSingleIntoLargeList() {
+		long smallTime = timeSingleMerges(10_000);
+		long largeTime = timeSingleMerges(1_000_000);
+		assertTrue(largeTime < smallTime * 5, "Merge into 10k: " + smallTime / 1000 + "us, into 1M: " + largeTime / 1000 + "us");
+	}
+
+	private long timeSingleMerges(int size) {
+		String[] words = new String[size];
+		for (int i = 0; i < size; i++) {
+			words[i] = Integer.toString(100_000_000 + i * 2);
+		}
+		int[] ids = new int[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = dictionary.intern(words[i]);
+		}
+		MemberList list = MemberList.fromSorted(dictionary, ids, size);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			list = list.merge(of(Integer.toString(100_000_000 + i * (size / 1000) * 2 + 1)));
+		}
+		return System.nanoTime() - start;
+	}
+}
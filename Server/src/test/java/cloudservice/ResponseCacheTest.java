@@ -0,0 +1,165 @@
+package cloudservice;
+
+import cloudservice.ResponseCache.FrequencySketch;
+import cloudservice.ResponseCache.Key;
+import cloudservice.ResponseCache.Stats;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResponseCacheTest {
+	private final Database database = new Database();
+
+	@Test
+	void hit() {
+		ResponseCache cache = new ResponseCache(1024 * 1024);
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		Key key = new Key("a", 0, null, 10);
+
+		assertNull(cache.get(key, database.getGroup("a").members));
+		cache.put(key, database.getGroup("a").members, new byte[] { 1, 2, 3 });
+		assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get(new Key("a", 0, null, 10), database.getGroup("a").members));
+		assertNull(cache.get(new Key("a", 0, null, 11), database.getGroup("a").members));
+		assertNull(cache.get(new Key("a", 0, "Yg", 10), database.getGroup("a").members));
+
+		Stats stats = cache.getStats();
+		assertEquals(1, stats.hits);
+		assertEquals(3, stats.misses);
+		assertEquals(1, stats.entries);
+		assertTrue(stats.usedBytes > 3);
+	}
+
+	@Test
+	void compressedEntries() throws IOException {
+		ResponseCache cache = new ResponseCache(1024 * 1024, 100);
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		byte[] small = "{\"total\":1,\"synonyms\":[\"b\"]}".getBytes(StandardCharsets.UTF_8);
+		byte[] large = ("{\"total\":1,\"synonyms\":[\"" + "b".repeat(1000) + "\"]}").getBytes(StandardCharsets.UTF_8);
+
+		assertArrayEquals(small, cache.compress(small));
+		assertFalse(ResponseCache.isCompressed(small));
+		byte[] compressed = cache.compress(large);
+		assertTrue(ResponseCache.isCompressed(compressed));
+		assertTrue(compressed.length < large.length / 10);
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			assertArrayEquals(large, in.readAllBytes());
+		}
+
+		cache.put(new Key("a", 0, null, 10, true), database.getGroup("a").members, compressed);
+		assertNull(cache.get(new Key("a", 0, null, 10), database.getGroup("a").members));
+		assertArrayEquals(compressed, cache.get(new Key("a", 0, null, 10, true), database.getGroup("a").members));
+
+		ResponseCache uncompressed = new ResponseCache(1024 * 1024);
+		assertFalse(uncompressed.isCompressionEnabled());
+		assertArrayEquals(large, uncompressed.compress(large));
+	}
+
+	@Test
+	void invalidatedWhenGroupChanges() {
+		ResponseCache cache = new ResponseCache(1024 * 1024);
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		cache.put(new Key("a", 0, null, 10), database.getGroup("a").members, new byte[1]);
+		cache.put(new Key("x", 0, null, 10), database.getGroup("x").members, new byte[1]);
+
+		database.addSynonyms("b", ImmutableSet.of("c"));
+		assertNull(cache.get(new Key("a", 0, null, 10), database.getGroup("a").members));
+		assertNotNull(cache.get(new Key("x", 0, null, 10), database.getGroup("x").members));
+
+		Stats stats = cache.getStats();
+		assertEquals(1, stats.invalidations);
+		assertEquals(1, stats.entries);
+	}
+
+	/**
+	 * When the cache is full, popular entries should stay even if there are many requests for other words.
+	 */
+	@Test
+	void frequencyBasedAdmission() {
+		ResponseCache cache = new ResponseCache(10 * 1300);
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		MemberList group = database.getGroup("a").members;
+
+		for (int i = 0; i < 10; i++) {
+			Key key = new Key("popular" + i, 0, null, 10);
+			for (int j = 0; j < 5; j++) {
+				if (cache.get(key, group) == null) {
+					cache.put(key, group, new byte[1000]);
+				}
+			}
+		}
+		for (int i = 0; i < 1000; i++) {
+			Key key = new Key("rare" + i, 0, null, 10);
+			if (cache.get(key, group) == null) {
+				cache.put(key, group, new byte[1000]);
+			}
+		}
+
+		int popularHits = 0;
+		for (int i = 0; i < 10; i++) {
+			if (cache.get(new Key("popular" + i, 0, null, 10), group) != null) {
+				popularHits++;
+			}
+		}
+		assertTrue(popularHits >= 9, "Popular hits: " + popularHits);
+		assertTrue(cache.getStats().rejections > 900, "Rejections: " + cache.getStats().rejections);
+		assertTrue(cache.getStats().usedBytes <= 10 * 1300);
+	}
+
+	@Test
+	void frequencySketch() {
+		FrequencySketch sketch = new FrequencySketch(1024);
+		for (int i = 0; i < 20; i++) {
+			sketch.increment(42);
+		}
+		sketch.increment(43);
+		assertEquals(15, sketch.frequency(42));
+		assertEquals(1, sketch.frequency(43));
+		assertEquals(0, sketch.frequency(44));
+
+		// The counters are halved regularly
+		for (int i = 0; i < 10 * 1024; i++) {
+			sketch.increment(1000 + i);
+		}
+		assertTrue(sketch.frequency(42) < 15);
+	}
+
+	/**
+	 * Concurrent increments of a saturated counter must not carry over into the neighboring counters.
+	 */
+	@Test
+	void frequencySketchConcurrentIncrements() throws InterruptedException {
+		FrequencySketch sketch = new FrequencySketch(1024);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					sketch.increment(42);
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(15, sketch.frequency(42));
+		for (int hash = 0; hash < 1000; hash++) {
+			if (hash != 42) {
+				assertEquals(0, sketch.frequency(hash), "Hash " + hash);
+			}
+		}
+	}
+}
@@ -1,13 +1,20 @@
 package cloudservice;
 
+import cloudservice.Database.SynonymEntry;
 import cloudservice.Database.SynonymPage;
+import cloudservice.SynonymResource.BatchResult;
+import cloudservice.SynonymResource.LookupResult;
+import cloudservice.SynonymResource.Suggestions;
 import cloudservice.util.JUnit5JerseyTest;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Application;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import org.glassfish.jersey.client.ClientConfig;
@@ -15,16 +22,23 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SynonymApiTest extends JUnit5JerseyTest {
 	@Override
 	protected Application configure() {
-		return new ApiResourceConfig();
+		// Only pages of at least 1KB are compressed, and only if the request accepts gzip
+		return new ApiResourceConfig(new Database(), new ResponseCache(ResponseCache.DEFAULT_MAX_BYTES, 1024));
 	}
 
 	@Override
@@ -88,6 +102,95 @@ public class SynonymApiTest extends JUnit5JerseyTest {
 		assertEquals(ImmutableList.of("a", "b"), synonymPage.synonyms);
 	}
 
+	@Test
+	void getCachedAfterChange() {
+		addSynonyms("a", ImmutableSet.of("b"));
+		assertEquals(ImmutableList.of("b"), getSynonyms("a", 10).synonyms);
+		assertEquals(ImmutableList.of("b"), getSynonyms("a", 10).synonyms);
+
+		addSynonyms("b", ImmutableSet.of("c"));
+		assertEquals(ImmutableList.of("b", "c"), getSynonyms("a", 10).synonyms);
+
+		ResponseCache.Stats stats = target().path("synonyms/cache").request().get(ResponseCache.Stats.class);
+		assertEquals(1, stats.hits);
+		assertEquals(1, stats.invalidations);
+		assertEquals(1, stats.entries);
+	}
+
+	@Test
+	void getNotModified() {
+		addSynonyms("a", ImmutableSet.of("b"));
+		Response response = target().path("synonyms").queryParam("word", "a").queryParam("limit", 10).request().get();
+		assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		EntityTag tag = response.getEntityTag();
+		assertNotNull(tag);
+		assertEquals("public, no-cache", response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+
+		response = target().path("synonyms").queryParam("word", "a").queryParam("limit", 10).request()
+				.header(HttpHeaders.IF_NONE_MATCH, tag.toString())
+				.get();
+		assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+
+		addSynonyms("b", ImmutableSet.of("c"));
+		response = target().path("synonyms").queryParam("word", "a").queryParam("limit", 10).request()
+				.header(HttpHeaders.IF_NONE_MATCH, tag.toString())
+				.get();
+		assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		assertNotEquals(tag, response.getEntityTag());
+		assertEquals(ImmutableList.of("b", "c"), response.readEntity(SynonymPage.class).synonyms);
+	}
+
+	@Test
+	void getCompressedNotModified() {
+		Set<String> synonyms = new HashSet<>();
+		for (int i = 0; i < 200; i++) {
+			synonyms.add("synonym" + i);
+		}
+		addSynonyms("a", synonyms);
+		Response response = target().path("synonyms").queryParam("word", "a").queryParam("limit", 200).request()
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+				.get();
+		assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		assertEquals("gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		EntityTag gzipTag = response.getEntityTag();
+		assertTrue(gzipTag.getValue().endsWith("--gzip"));
+
+		response = target().path("synonyms").queryParam("word", "a").queryParam("limit", 200).request().get();
+		assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		EntityTag tag = response.getEntityTag();
+		assertEquals(gzipTag.getValue(), tag.getValue() + "--gzip");
+
+		// The compressed tag must not match the uncompressed page, but both tags match for a client accepting gzip
+		response = target().path("synonyms").queryParam("word", "a").queryParam("limit", 200).request()
+				.header(HttpHeaders.IF_NONE_MATCH, gzipTag.toString())
+				.get();
+		assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		for (EntityTag ifNoneMatch : List.of(tag, gzipTag)) {
+			response = target().path("synonyms").queryParam("word", "a").queryParam("limit", 200).request()
+					.header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+					.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch.toString())
+					.get();
+			assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+		}
+	}
+
+	@Test
+	void getFuzzy() {
+		addSynonyms("synonym", ImmutableSet.of("thesaurus"));
+		assertEquals(0, getSynonyms("synonim", 10).total);
+
+		SynonymPage page = target().path("synonyms")
+				.queryParam("word", "synonim")
+				.queryParam("limit", 10)
+				.queryParam("fuzzy", true)
+				.request()
+				.get(SynonymPage.class);
+		assertEquals("synonym", page.match);
+		assertEquals(ImmutableList.of("thesaurus"), page.synonyms);
+		assertNull(getSynonyms("synonym", 10).match);
+	}
+
 	@Test
 	void getMissingWordArgument() {
 		BadRequestException exception = assertThrows(BadRequestException.class, () -> getSynonyms("", 10));
@@ -119,6 +222,207 @@ public class SynonymApiTest extends JUnit5JerseyTest {
 		assertEquals(ImmutableList.of("b", "c", "d"), synonymPage.synonyms);
 	}
 
+	@Test
+	void getWithOffset() {
+		addSynonyms("a", ImmutableSet.of("b", "c", "d"));
+
+		SynonymPage synonymPage = getSynonyms(target().path("synonyms").queryParam("offset", 1), "a", 1);
+		assertEquals(3, synonymPage.total);
+		assertEquals(ImmutableList.of("c"), synonymPage.synonyms);
+	}
+
+	@Test
+	void getWithCursor() {
+		addSynonyms("a", ImmutableSet.of("b", "c", "d"));
+
+		SynonymPage synonymPage = getSynonyms("a", 2);
+		assertEquals(ImmutableList.of("b", "c"), synonymPage.synonyms);
+		assertNotNull(synonymPage.next);
+
+		synonymPage = getSynonyms(target().path("synonyms").queryParam("cursor", synonymPage.next), "a", 2);
+		assertEquals(3, synonymPage.total);
+		assertEquals(ImmutableList.of("d"), synonymPage.synonyms);
+		assertNull(synonymPage.next);
+	}
+
+	@Test
+	void getWithInvalidCursor() {
+		BadRequestException exception = assertThrows(BadRequestException.class,
+				() -> getSynonyms(target().path("synonyms").queryParam("cursor", "%%%"), "a", 10));
+		assertTrue(exception.getMessage().contains("Invalid 'cursor' argument"), "Was: " + exception.getMessage());
+	}
+
+	@Test
+	void getWithOffsetAndCursor() {
+		BadRequestException exception = assertThrows(BadRequestException.class,
+				() -> getSynonyms(target().path("synonyms").queryParam("cursor", "YQ").queryParam("offset", 1), "a", 10));
+		assertTrue(exception.getMessage().contains("The 'offset' and 'cursor' arguments can't be combined"),
+				"Was: " + exception.getMessage());
+	}
+
+	@Test
+	void addBatch() {
+		String body = "{\"word\": \"a\", \"synonyms\": [\"b\"]}\n" +
+				"{\"word\": \"\", \"synonyms\": [\"x\"]}\n" +
+				"{\"word\": \"b\", \"synonyms\": [\"c\", \"d\"]}\n";
+		BatchResult result = target().path("synonyms/batch")
+				.request()
+				.post(Entity.entity(body, SynonymResource.NDJSON), BatchResult.class);
+		assertEquals(2, result.added);
+		assertEquals(1, result.failed);
+		assertEquals(1, result.errors.get(0).index);
+		assertEquals("Missing 'word'", result.errors.get(0).message);
+
+		SynonymPage synonymPage = getSynonyms("a", 10);
+		assertEquals(ImmutableList.of("b", "c", "d"), synonymPage.synonyms);
+	}
+
+	@Test
+	void addBatchArray() {
+		List<SynonymEntry> body = ImmutableList.of(
+				new SynonymEntry("a", ImmutableSet.of("b")),
+				new SynonymEntry("c", ImmutableSet.of("b")));
+		BatchResult result = target().path("synonyms/batch")
+				.request()
+				.post(Entity.json(body), BatchResult.class);
+		assertEquals(2, result.added);
+		assertEquals(0, result.failed);
+		assertEquals(ImmutableList.of("b", "c"), getSynonyms("a", 10).synonyms);
+	}
+
+	@Test
+	void addBatchMalformed() {
+		Response response = target().path("synonyms/batch")
+				.request()
+				.post(Entity.entity("{\"word\": \"a\", \"synonyms\": [\"b\"]}\n{\"word\"", SynonymResource.NDJSON));
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+		BatchResult result = response.readEntity(BatchResult.class);
+		assertEquals(1, result.added);
+		assertEquals(1, result.malformed.index);
+		assertTrue(result.malformed.message.contains("at line 2 column"), "Was: " + result.malformed.message);
+		assertEquals(ImmutableList.of("b"), getSynonyms("a", 10).synonyms);
+	}
+
+	@Test
+	void export() {
+		addSynonyms("c", ImmutableSet.of("d"));
+		addSynonyms("a", ImmutableSet.of("b", "B"));
+		Response response = target().path("synonyms/export").request().get();
+		assertEquals(Status.OK.getStatusCode(), response.getStatus());
+		assertEquals(SynonymResource.NDJSON, response.getMediaType().toString());
+		String body = response.readEntity(String.class);
+		assertEquals("{\"word\":\"a\",\"synonyms\":[\"B\",\"b\"]}\n{\"word\":\"c\",\"synonyms\":[\"d\"]}\n", body);
+
+		// The export can be imported again as a batch
+		BatchResult result = target().path("synonyms/batch")
+				.request()
+				.post(Entity.entity(body, SynonymResource.NDJSON), BatchResult.class);
+		assertEquals(2, result.added);
+		assertEquals(0, result.failed);
+	}
+
+	@Test
+	void remove() {
+		addSynonyms("a", ImmutableSet.of("b"));
+		addSynonyms("b", ImmutableSet.of("c"));
+		Response response = removeSynonym("b", "a");
+		assertEquals(Status.NO_CONTENT.getStatusCode(), response.getStatus());
+		assertEquals(0, getSynonyms("a", 10).total);
+		assertEquals(ImmutableList.of("c"), getSynonyms("b", 10).synonyms);
+	}
+
+	@Test
+	void removeNotAdded() {
+		addSynonyms("a", ImmutableSet.of("b"));
+		addSynonyms("b", ImmutableSet.of("c"));
+		Response response = removeSynonym("a", "c");
+		assertEquals(Status.NOT_FOUND.getStatusCode(), response.getStatus());
+		assertTrue(response.getStatusInfo().getReasonPhrase().contains("'c' hasn't been added as a synonym of 'a'"),
+				"Was: " + response.getStatusInfo().getReasonPhrase());
+		assertEquals(2, getSynonyms("a", 10).total);
+	}
+
+	@Test
+	void removeMissingSynonymArgument() {
+		Response response = target().path("synonyms").queryParam("word", "a").request().delete();
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+		assertTrue(response.getStatusInfo().getReasonPhrase().contains("Missing 'synonym' argument"),
+				"Was: " + response.getStatusInfo().getReasonPhrase());
+	}
+
+	@Test
+	void suggest() {
+		addSynonyms("apple", ImmutableSet.of("Apricot", "banana"));
+		addSynonyms("application", ImmutableSet.of("app"));
+		Suggestions suggestions = target().path("synonyms/suggest")
+				.queryParam("prefix", "ap")
+				.queryParam("limit", 3)
+				.request()
+				.get(Suggestions.class);
+		assertEquals(ImmutableList.of("app", "apple", "application"), suggestions.words);
+	}
+
+	@Test
+	void suggestMissingPrefix() {
+		Response response = target().path("synonyms/suggest").queryParam("limit", 3).request().get();
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+		assertTrue(response.getStatusInfo().getReasonPhrase().contains("Missing 'prefix' argument"),
+				"Was: " + response.getStatusInfo().getReasonPhrase());
+	}
+
+	@Test
+	void lookup() {
+		addSynonyms("a", ImmutableSet.of("b", "c"));
+		addSynonyms("x", ImmutableSet.of("y"));
+		LookupResult result = target().path("synonyms/lookup")
+				.queryParam("limit", 1)
+				.request()
+				.post(Entity.json(ImmutableList.of("x", "missing", "c", "a")), LookupResult.class);
+		assertEquals(ImmutableList.of("x", "missing", "c", "a"), ImmutableList.copyOf(result.pages.keySet()));
+		assertEquals(ImmutableList.of("y"), result.pages.get("x").synonyms);
+		assertEquals(0, result.pages.get("missing").total);
+		assertEquals(ImmutableList.of("a"), result.pages.get("c").synonyms);
+		assertEquals(2, result.pages.get("a").total);
+		assertEquals(ImmutableList.of("c"), getSynonyms(target().path("synonyms").queryParam("cursor", result.pages.get("a").next), "a", 10).synonyms);
+	}
+
+	@Test
+	void lookupInvalidArguments() {
+		Response response = target().path("synonyms/lookup").request().post(Entity.json(ImmutableList.of("a")));
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+		assertTrue(response.getStatusInfo().getReasonPhrase().contains("The 'limit' must be larger than 0"),
+				"Was: " + response.getStatusInfo().getReasonPhrase());
+
+		response = target().path("synonyms/lookup").queryParam("limit", 10).request().post(Entity.json(ImmutableList.of()));
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+		assertTrue(response.getStatusInfo().getReasonPhrase().contains("Missing word list body"),
+				"Was: " + response.getStatusInfo().getReasonPhrase());
+	}
+
+	@Test
+	void acceptsGzip() {
+		assertTrue(SynonymResource.acceptsGzip("gzip"));
+		assertTrue(SynonymResource.acceptsGzip("deflate, gzip;q=1.0, br"));
+		assertTrue(SynonymResource.acceptsGzip("*"));
+		assertFalse(SynonymResource.acceptsGzip("gzip;q=0"));
+		assertFalse(SynonymResource.acceptsGzip("br, gzip; q=0.00"));
+		assertFalse(SynonymResource.acceptsGzip("identity"));
+		assertFalse(SynonymResource.acceptsGzip(null));
+	}
+
+	@Test
+	void metrics() {
+		addSynonyms("a", ImmutableSet.of("b", "c"));
+		getSynonyms("a", 10);
+		String metrics = target().path("metrics").request().get(String.class);
+		assertTrue(metrics.contains("synonyms_request_duration_seconds_count{endpoint=\"POST /synonyms\"} 1\n"), metrics);
+		assertTrue(metrics.contains("synonyms_request_duration_seconds_count{endpoint=\"GET /synonyms\"} 1\n"), metrics);
+		assertTrue(metrics.contains("synonyms_json_encoding_seconds_count 1\n"), metrics);
+		assertTrue(metrics.contains("synonyms_group_size_words_bucket{le=\"2\"} 0\n"), metrics);
+		assertTrue(metrics.contains("synonyms_group_size_words_bucket{le=\"4\"} 1\n"), metrics);
+		assertTrue(metrics.contains("synonyms_words 3\n"), metrics);
+	}
+
 	private Response addSynonyms(String word, Set<String> synonyms) {
 		Entity<Set<String>> body = null;
 		if (synonyms != null) {
@@ -130,8 +434,20 @@ public class SynonymApiTest extends JUnit5JerseyTest {
 						.post(body);
 	}
 
-	private SynonymPage getSynonyms(String word, int limit) {
+	private Response removeSynonym(String word, String synonym) {
 		return target().path("synonyms")
+				.queryParam("word", word)
+				.queryParam("synonym", synonym)
+				.request()
+				.delete();
+	}
+
+	private SynonymPage getSynonyms(String word, int limit) {
+		return getSynonyms(target().path("synonyms"), word, limit);
+	}
+
+	private SynonymPage getSynonyms(WebTarget target, String word, int limit) {
+		return target
 				.queryParam("word", word)
 				.queryParam("limit", limit)
 				.request()
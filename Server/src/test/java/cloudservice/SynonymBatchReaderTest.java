@@ -0,0 +1,117 @@
+package cloudservice;
+
+import cloudservice.Database.SynonymEntry;
+import cloudservice.SynonymBatchReader.InvalidEntryException;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SynonymBatchReaderTest {
+	@Test
+	void readArray() throws IOException {
+		SynonymBatchReader reader = new SynonymBatchReader(new StringReader(
+				"[{\"word\": \"a\", \"synonyms\": [\"b\", \"c\"]}, {\"synonyms\": [\"e\"], \"word\": \"d\"}]"));
+		assertEntry("a", ImmutableSet.of("b", "c"), reader.next());
+		assertEntry("d", ImmutableSet.of("e"), reader.next());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	void readNdjson() throws IOException {
+		SynonymBatchReader reader = new SynonymBatchReader(new StringReader(
+				"{\"word\": \"a\", \"synonyms\": [\"b\"]}\n{\"word\": \"c\", \"synonyms\": [\"d\"], \"other\": {}}\n"));
+		assertTrue(reader.hasNext());
+		assertEntry("a", ImmutableSet.of("b"), reader.next());
+		assertTrue(reader.hasNext());
+		assertEntry("c", ImmutableSet.of("d"), reader.next());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	void readEmpty() throws IOException {
+		assertFalse(new SynonymBatchReader(new StringReader("")).hasNext());
+		assertFalse(new SynonymBatchReader(new StringReader("[]")).hasNext());
+	}
+
+	@Test
+	void invalidEntries() throws IOException {
+		SynonymBatchReader reader = new SynonymBatchReader(new StringReader("{\"synonyms\": [\"b\"]}\n" +
+				"{\"word\": \"a\"}\n" +
+				"{\"word\": \"a\", \"synonyms\": [\"b\", null]}\n" +
+				"{\"word\": \"a\", \"synonyms\": [\" \"]}\n" +
+				"[\"a\"]\n" +
+				"{\"word\": \"a\", \"synonyms\": [\"b\"]}\n"));
+		assertInvalid(reader, 0, "Missing 'word'");
+		assertInvalid(reader, 1, "Missing 'synonyms'");
+		assertInvalid(reader, 2, "Entry contains synonym which is null or empty");
+		assertInvalid(reader, 3, "Entry contains synonym which is null or empty");
+		assertInvalid(reader, 4, "Entry is not an object");
+		assertEntry("a", ImmutableSet.of("b"), reader.next());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	void malformedJson() throws IOException {
+		SynonymBatchReader reader = new SynonymBatchReader(new StringReader("[{\"word\": \"a\", \"synonyms\": [\"b\"]}, {\"word\""));
+		assertEntry("a", ImmutableSet.of("b"), reader.next());
+		assertThrows(IOException.class, () -> {
+			while (reader.hasNext()) {
+				reader.next();
+			}
+		});
+	}
+
+	@Test
+	void malformedNdjsonLine() throws IOException {
+		SynonymBatchReader reader = new SynonymBatchReader(new StringReader("\n{\"word\": \"a\", \"synonyms\": [\"b\"]}\n\n" +
+				"{\"word\": \"c\", \"synonyms\": [\"d\"]} {\"word\": \"e\"}\n"));
+		assertEntry("a", ImmutableSet.of("b"), reader.next());
+		IOException exception = assertThrows(IOException.class, reader::next);
+		assertTrue(exception.getMessage().contains("at line 4 column"), exception.getMessage());
+		assertEquals(1, reader.getIndex());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {
+			"{word: \"a\", \"synonyms\": [\"b\"]}",
+			"{\"word\": a, \"synonyms\": [\"b\"]}",
+			"{'word': 'a', 'synonyms': ['b']}",
+			"{\"word\": \"a\", \"synonyms\": [\"b\"]} // comment",
+			"# comment\n{\"word\": \"a\", \"synonyms\": [\"b\"]}",
+			"{\"word\" = \"a\", \"synonyms\": [\"b\"]}",
+			"{\"word\": \"a\"; \"synonyms\": [\"b\"]}",
+			"{\"word\": \"a\", \"synonyms\": [\"b\",, \"c\"]}",
+			"[{\"word\": \"a\", \"synonyms\": [\"b\"]}] /* comment */",
+			"[{\"word\": \"a\", \"synonyms\": [\"b\"]}][]",
+	})
+	void rejectsLenientJson(String json) {
+		SynonymBatchReader reader = new SynonymBatchReader(new StringReader(json));
+		IOException exception = assertThrows(IOException.class, () -> {
+			while (reader.hasNext()) {
+				reader.next();
+			}
+		});
+		assertFalse(exception.getMessage().contains("JsonReader"), exception.getMessage());
+	}
+
+	private static void assertInvalid(SynonymBatchReader reader, int index, String message) throws IOException {
+		assertTrue(reader.hasNext());
+		InvalidEntryException exception = assertThrows(InvalidEntryException.class, reader::next);
+		assertEquals(message, exception.getMessage());
+		assertEquals(index, reader.getIndex());
+	}
+
+	private static void assertEntry(String word, ImmutableSet<String> synonyms, SynonymEntry entry) {
+		assertEquals(word, entry.word);
+		assertEquals(synonyms, entry.synonyms);
+	}
+}
@@ -0,0 +1,133 @@
+package cloudservice;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WritePipelineTest {
+	@Test
+	void direct() {
+		Database database = new Database();
+		try (WritePipeline pipeline = new WritePipeline(database)) {
+			assertTrue(pipeline.addSynonyms("a", ImmutableSet.of("b")).isDone());
+			assertEquals(ImmutableList.of("b"), database.getSynonyms("a", 10).synonyms);
+		}
+	}
+
+	/**
+	 * Writes from many threads at the same time, every write must be visible as soon as its future is completed.
+	 */
+	@Test
+	void readYourWrites() throws InterruptedException {
+		Database database = new Database();
+		List<Throwable> errors = new ArrayList<>();
+		try (WritePipeline pipeline = new WritePipeline(database, 16, 8)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				String prefix = "t" + t + "-";
+				threads.add(new Thread(() -> {
+					for (int i = 1; i < 500; i++) {
+						pipeline.addSynonyms(prefix + i, ImmutableSet.of(prefix + (i - 1))).join();
+						if (database.getSynonyms(prefix + 0, 1).total != i) {
+							synchronized (errors) {
+								errors.add(new AssertionError("Missing the write of " + prefix + i));
+							}
+						}
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+		assertEquals(ImmutableList.of(), errors);
+		assertEquals(8, database.getPartition().groups.size());
+	}
+
+	@Test
+	void closeAppliesQueuedWrites() {
+		Database database = new Database();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		WritePipeline pipeline = new WritePipeline(database, 1000, 10);
+		for (int i = 0; i < 100; i++) {
+			futures.add(pipeline.addSynonyms("w" + i, ImmutableSet.of("w" + (i + 1))));
+		}
+		pipeline.close();
+		futures.forEach(future -> assertTrue(future.isDone() && !future.isCompletedExceptionally()));
+		assertEquals(100, database.getSynonyms("w0", 1).total);
+
+		assertThrows(CompletionException.class, () -> pipeline.addSynonyms("a", ImmutableSet.of("b")).join());
+	}
+
+	/**
+	 * Closes the pipeline while writes are being added from many threads. Each of them must either be applied or
+	 * fail, none may be left waiting forever, which could happen to a write that was put on the queue after the
+	 * pipeline had closed.
+	 */
+	@Test
+	void closeWhileWriting() throws Exception {
+		for (int round = 0; round < 50; round++) {
+			WritePipeline pipeline = new WritePipeline(new Database(), 2, 1);
+			List<CompletableFuture<Void>> futures = Collections.synchronizedList(new ArrayList<>());
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				String prefix = "t" + t + "-";
+				threads.add(new Thread(() -> {
+					for (int i = 0; ; i++) {
+						CompletableFuture<Void> future = pipeline.addSynonyms(prefix + i, ImmutableSet.of(prefix + (i + 1)));
+						futures.add(future);
+						if (future.isCompletedExceptionally()) {
+							return;
+						}
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+			Thread.sleep(2);
+			pipeline.close();
+			for (Thread thread : threads) {
+				thread.join(10_000);
+				assertFalse(thread.isAlive());
+			}
+			for (CompletableFuture<Void> future : futures) {
+				future.handle((ignored, e) -> null).get(10, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	@Test
+	void failedBatch() {
+		Database database = new Database() {
+			@Override
+			public CompletableFuture<Void> addSynonymsAsync(List<SynonymEntry> entries) {
+				return CompletableFuture.failedFuture(new IllegalStateException("Failed"));
+			}
+
+			@Override
+			public CompletableFuture<Void> addSynonymsAsync(String word, Set<String> synonyms) {
+				return CompletableFuture.failedFuture(new IllegalStateException("Failed"));
+			}
+		};
+		try (WritePipeline pipeline = new WritePipeline(database, 10, 10)) {
+			CompletionException e = assertThrows(CompletionException.class, () -> pipeline.addSynonyms("a", ImmutableSet.of("b")).join());
+			assertEquals("Failed", e.getCause().getMessage());
+		}
+		try (WritePipeline pipeline = new WritePipeline(database)) {
+			assertTrue(pipeline.addSynonyms("a", ImmutableSet.of("b")).isCompletedExceptionally());
+		}
+	}
+}
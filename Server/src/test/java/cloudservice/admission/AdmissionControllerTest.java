@@ -0,0 +1,68 @@
+package cloudservice.admission;
+
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class AdmissionControllerTest {
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private final AdmissionController controller = new AdmissionController(new AimdLimit(2, 4, 0.5),
+			new AimdLimit(1, 4, 0.5), 100, 1000, 1);
+
+	@Test
+	void slowReadsShedWritesFirst() {
+		long start = System.nanoTime();
+		assertNull(controller.admit(true));
+		controller.complete(true, start, start + SLOW);
+		assertEquals(4, controller.getReads().getLimit());
+		assertEquals(2, controller.getWrites().getLimit());
+
+		start = System.nanoTime();
+		assertNull(controller.admit(true));
+		controller.complete(true, start, start + SLOW);
+		assertEquals(4, controller.getReads().getLimit());
+		assertEquals(1, controller.getWrites().getLimit());
+
+		// Only when the writes can't give way any more are the reads limited too
+		start = System.nanoTime();
+		assertNull(controller.admit(true));
+		controller.complete(true, start, start + SLOW);
+		assertEquals(2, controller.getReads().getLimit());
+		assertEquals(1, controller.getWrites().getLimit());
+	}
+
+	@Test
+	void slowWritesOnlyLimitWrites() {
+		long start = System.nanoTime();
+		assertNull(controller.admit(false));
+		controller.complete(false, start, start + TimeUnit.SECONDS.toNanos(2));
+		assertEquals(4, controller.getReads().getLimit());
+		assertEquals(2, controller.getWrites().getLimit());
+		assertEquals(0, controller.getWrites().getInFlight());
+	}
+
+	@Test
+	void rejectWhenLimitReached() {
+		for (int i = 0; i < 4; i++) {
+			assertNull(controller.admit(false));
+		}
+		Response rejection = controller.admit(false);
+		assertNotNull(rejection);
+		assertEquals(503, rejection.getStatus());
+		assertEquals("1", rejection.getHeaderString("Retry-After"));
+		assertEquals(1, controller.getWrites().getRejected());
+		// Reads have their own limit
+		assertNull(controller.admit(true));
+
+		StringBuilder out = new StringBuilder();
+		controller.write(out);
+		assertEquals(true, out.toString().contains("synonyms_admission_rejected_total{kind=\"write\"} 1\n"), out.toString());
+		assertEquals(true, out.toString().contains("synonyms_admission_in_flight{kind=\"write\"} 4\n"), out.toString());
+	}
+}
@@ -0,0 +1,117 @@
+package cloudservice.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AimdLimitTest {
+	@Test
+	void acquireUpToLimit() {
+		AimdLimit limit = new AimdLimit(1, 3, 0.5);
+		assertTrue(limit.tryAcquire());
+		assertTrue(limit.tryAcquire());
+		assertTrue(limit.tryAcquire());
+		assertFalse(limit.tryAcquire());
+		assertEquals(3, limit.getInFlight());
+		assertEquals(1, limit.getRejected());
+
+		limit.release();
+		assertTrue(limit.tryAcquire());
+	}
+
+	@Test
+	void decreaseOncePerRound() {
+		AimdLimit limit = new AimdLimit(1, 100, 0.5);
+		long start = System.nanoTime();
+		assertTrue(limit.decrease(start));
+		assertEquals(50, limit.getLimit());
+		// Requests which started before the cut don't cut it again
+		assertFalse(limit.decrease(start));
+		assertEquals(50, limit.getLimit());
+
+		assertTrue(limit.decrease(System.nanoTime()));
+		assertEquals(25, limit.getLimit());
+	}
+
+	@Test
+	void decreaseToMinimum() {
+		AimdLimit limit = new AimdLimit(10, 16, 0.5);
+		assertTrue(limit.decrease(System.nanoTime()));
+		assertEquals(10, limit.getLimit());
+		assertTrue(limit.isAtMinimum());
+		assertFalse(limit.decrease(System.nanoTime()));
+	}
+
+	@Test
+	void increaseOnlyWhileUsed() {
+		AimdLimit limit = new AimdLimit(1, 100, 0.5);
+		limit.decrease(System.nanoTime());
+		limit.decrease(System.nanoTime());
+		assertEquals(25, limit.getLimit());
+
+		for (int i = 0; i < 100; i++) {
+			limit.increase();
+		}
+		assertEquals(25, limit.getLimit());
+
+		for (int i = 0; i < 20; i++) {
+			limit.tryAcquire();
+		}
+		// Grows by about one for every round of requests
+		for (int i = 0; i < 26; i++) {
+			limit.increase();
+		}
+		assertEquals(26, limit.getLimit());
+		// Stops growing when less than half of it is used
+		for (int i = 0; i < 10_000; i++) {
+			limit.increase();
+		}
+		assertEquals(40, limit.getLimit());
+	}
+
+	/**
+	 * Increases don't take a lock, but none of them may be lost when they race.
+	 */
+	@Test
+	void concurrentIncreases() throws InterruptedException {
+		AimdLimit limit = new AimdLimit(1, 100, 0.5);
+		AimdLimit expected = new AimdLimit(1, 100, 0.5);
+		for (AimdLimit l : new AimdLimit[] {limit, expected}) {
+			l.decrease(System.nanoTime());
+			for (int i = 0; i < 50; i++) {
+				l.tryAcquire();
+			}
+		}
+		for (int i = 0; i < 8 * 100; i++) {
+			expected.increase();
+		}
+
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 100; i++) {
+					limit.increase();
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(64, expected.getLimit());
+		assertEquals(expected.getLimit(), limit.getLimit());
+	}
+
+	@Test
+	void invalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new AimdLimit(0, 10, 0.5));
+		assertThrows(IllegalArgumentException.class, () -> new AimdLimit(10, 5, 0.5));
+		assertThrows(IllegalArgumentException.class, () -> new AimdLimit(1, 10, 1));
+	}
+}
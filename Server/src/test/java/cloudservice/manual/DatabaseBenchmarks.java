@@ -0,0 +1,290 @@
+package cloudservice.manual;
+
+import cloudservice.Database;
+import cloudservice.WritePipeline;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * These tests are utilities for measuring the performance of the database, not normal unit tests.
+ */
+@Disabled("Comment out this when running benchmarks locally")
+public class DatabaseBenchmarks {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseBenchmarks.class);
+
+	/**
+	 * Measures the write throughput with an increasing number of threads, where each thread adds synonyms to its own
+	 * groups of 100 words. Since the groups are disjoint the throughput should scale with the number of cores.
+	 */
+	@Test
+	void writeScaling() throws InterruptedException {
+		final int nAddsPerThread = 200_000;
+		final int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+		for (int round = 0; round < 2; round++) { // The first round is warm up
+			for (int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+				Database database = new Database();
+				List<Thread> threads = new ArrayList<>();
+				for (int t = 0; t < nThreads; t++) {
+					String prefix = "t" + t + "-";
+					threads.add(new Thread(() -> {
+						for (int i = 0; i < nAddsPerThread; i++) {
+							int group = i / 100;
+							database.addSynonyms(prefix + i, ImmutableSet.of(prefix + (group * 100)));
+						}
+					}));
+				}
+
+				long start = System.nanoTime();
+				threads.forEach(Thread::start);
+				for (Thread thread : threads) {
+					thread.join();
+				}
+				long time = System.nanoTime() - start;
+				LOGGER.warn("{} threads: {} adds/s", nThreads, nThreads * nAddsPerThread * 1_000_000_000L / time);
+			}
+		}
+	}
+
+	/**
+	 * Measures the throughput and latency when 10 threads add words to the same group, like the worst case in the
+	 * Javadoc of {@link Database}, both with writes applied by the request threads and with a {@link WritePipeline}.
+	 */
+	@Test
+	void contendedWrites() throws InterruptedException {
+		final int nThreads = 10;
+		final int nAddsPerThread = 50_000;
+
+		for (int round = 0; round < 2; round++) { // The first round is warm up
+			for (int capacity : new int[] {0, 1024}) {
+				Database database = new Database();
+				long[][] times = new long[nThreads][nAddsPerThread];
+				List<Thread> threads = new ArrayList<>();
+				try (WritePipeline pipeline = new WritePipeline(database, capacity, 1000)) {
+					for (int t = 0; t < nThreads; t++) {
+						String prefix = "t" + t + "-";
+						long[] threadTimes = times[t];
+						threads.add(new Thread(() -> {
+							for (int i = 0; i < nAddsPerThread; i++) {
+								long start = System.nanoTime();
+								pipeline.addSynonyms(prefix + i, ImmutableSet.of("root")).join();
+								threadTimes[i] = System.nanoTime() - start;
+							}
+						}));
+					}
+
+					long start = System.nanoTime();
+					threads.forEach(Thread::start);
+					for (Thread thread : threads) {
+						thread.join();
+					}
+					long time = System.nanoTime() - start;
+					long[] allTimes = Arrays.stream(times).flatMapToLong(Arrays::stream).sorted().toArray();
+					LOGGER.warn("{}: {} adds/s, median {}us, p99 {}us", capacity > 0 ? "Single writer" : "Direct",
+							nThreads * nAddsPerThread * 1_000_000_000L / time, allTimes[allTimes.length / 2] / 1000,
+							allTimes[allTimes.length * 99 / 100] / 1000);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures the latency of queries while another thread keeps merging new words into one large group (the worst
+	 * case). Queries never wait for the writes, so the 99th percentile should stay below 1ms.
+	 */
+	@Test
+	void queriesDuringWrites() throws InterruptedException {
+		final int nWords = 100_000;
+
+		for (int round = 0; round < 2; round++) { // The first round is warm up
+			Database database = new Database();
+			for (int i = 0; i < 100; i++) {
+				database.addSynonyms(Integer.toString(i), ImmutableSet.of(Integer.toString(i + 1)));
+			}
+
+			Thread writer = new Thread(() -> {
+				for (int i = 100; i < nWords; i++) {
+					database.addSynonyms(Integer.toString(i), ImmutableSet.of(Integer.toString(i + 1)));
+				}
+			});
+			writer.start();
+
+			List<Long> times = new ArrayList<>();
+			int idx = 0;
+			while (writer.isAlive()) {
+				long start = System.nanoTime();
+				database.getSynonyms(Integer.toString(idx++ % 100), 100);
+				times.add(System.nanoTime() - start);
+				LockSupport.parkNanos(10_000); // Spread the queries over the whole write period
+			}
+			writer.join();
+
+			if (times.isEmpty()) {
+				LOGGER.warn("The writes finished before any query was made");
+				continue;
+			}
+			Collections.sort(times);
+			LOGGER.warn("{} queries during writes: median {}us, p99 {}us, max {}us", times.size(),
+					times.get(times.size() / 2) / 1000, times.get(times.size() * 99 / 100) / 1000,
+					times.get(times.size() - 1) / 1000);
+		}
+	}
+
+	/**
+	 * Adds 2M words in groups of 10 and measures how much heap the database uses per word.
+	 */
+	@Test
+	void memoryPerWord() {
+		final int nWords = 2_000_000;
+
+		long before = usedMemory();
+		Database database = new Database();
+		for (int i = 0; i < nWords; i += 10) {
+			Set<String> synonyms = new HashSet<>();
+			for (int j = 1; j < 10; j++) {
+				synonyms.add("synonym" + (i + j));
+			}
+			database.addSynonyms("synonym" + i, synonyms);
+		}
+		long used = usedMemory() - before;
+		LOGGER.warn("{} words use {}MB, {} bytes/word", nWords, used / 1024 / 1024, used / nWords);
+		LOGGER.info("Synonyms of synonym0: {}", database.getSynonyms("synonym0", 10).synonyms); // Keeps the database alive
+	}
+
+	private static long usedMemory() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	/**
+	 * Measures how fast words are merged into groups, both when adding one word at a time to a large group (mostly
+	 * binary searches) and when merging groups of similar size (linear merges).
+	 */
+	@Test
+	void mergeSpeed() {
+		for (int round = 0; round < 2; round++) { // The first round is warm up
+			Database database = new Database();
+			long start = System.nanoTime();
+			for (int i = 0; i < 200_000; i++) {
+				database.addSynonyms("word" + i, ImmutableSet.of("word" + (i + 1)));
+			}
+			long time = System.nanoTime() - start;
+			LOGGER.warn("Single words into one group: {} adds/s", 200_000 * 1_000_000_000L / time);
+
+			database = new Database();
+			final int groupSize = 1000;
+			for (int i = 0; i < 1_000_000; i += groupSize) {
+				Set<String> synonyms = new HashSet<>();
+				for (int j = 1; j < groupSize; j++) {
+					synonyms.add("w" + (i + j));
+				}
+				database.addSynonyms("w" + i, synonyms);
+			}
+			start = System.nanoTime();
+			for (int size = groupSize; size < 1_000_000; size *= 2) { // Merge pairs of equal size until there is one group
+				for (int i = 0; i + size < 1_000_000; i += size * 2) {
+					database.addSynonyms("w" + i, ImmutableSet.of("w" + (i + size)));
+				}
+			}
+			time = System.nanoTime() - start;
+			LOGGER.warn("Merging groups of equal size: {} words/s", 10 * 1_000_000 * 1_000_000_000L / time);
+		}
+	}
+
+	/**
+	 * Measures the latency of removing synonyms from a group of 1M words, where every word is connected to the next
+	 * one and to a random earlier word. Most removals leave the group connected, but removing the edge to a leaf
+	 * splits off a single word.
+	 */
+	@Test
+	void removeSpeed() {
+		Random random = new Random(0);
+		Database database = new Database();
+		final int nWords = 1_000_000;
+		for (int i = 1; i < nWords; i++) {
+			database.addSynonyms("w" + i, ImmutableSet.of("w" + (i - 1), "w" + random.nextInt(i)));
+		}
+		int[] leafSynonyms = new int[10_000];
+		for (int i = 0; i < leafSynonyms.length; i++) {
+			leafSynonyms[i] = random.nextInt(nWords);
+			database.addSynonyms("leaf" + i, ImmutableSet.of("w" + leafSynonyms[i]));
+		}
+
+		long[] times = new long[10_000];
+		for (int i = 0; i < times.length; i++) {
+			int word = 1 + random.nextInt(nWords - 1);
+			long start = System.nanoTime();
+			database.removeSynonym("w" + word, "w" + (word - 1));
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		LOGGER.warn("Removals without split: median {}us, p99 {}us, max {}us", times[times.length / 2] / 1000,
+				times[times.length * 99 / 100] / 1000, times[times.length - 1] / 1000);
+
+		for (int i = 0; i < times.length; i++) {
+			long start = System.nanoTime();
+			database.removeSynonym("leaf" + i, "w" + leafSynonyms[i]);
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		LOGGER.warn("Removals splitting off one word: median {}us, p99 {}us, max {}us, group size {}", times[times.length / 2] / 1000,
+				times[times.length * 99 / 100] / 1000, times[times.length - 1] / 1000, database.getSynonyms("w0", 1).total + 1);
+	}
+
+	/**
+	 * Measures how long it takes to get 10 suggestions for random prefixes of 1-3 characters with 1M words in the
+	 * database.
+	 */
+	@Test
+	void suggestSpeed() {
+		Random random = new Random(0);
+		Database database = createRandomDatabase(random);
+
+		for (int round = 0; round < 2; round++) { // The first round is warm up
+			long start = System.nanoTime();
+			int found = 0;
+			for (int i = 0; i < 100_000; i++) {
+				found += database.suggest(randomWord(random, 1 + random.nextInt(3)), 10).size();
+			}
+			long time = System.nanoTime() - start;
+			LOGGER.warn("Suggestions: {}us/query, {} words/query", time / 100_000 / 1000.0, found / 100_000.0);
+		}
+	}
+
+	/**
+	 * Creates a database with 1M random words of 4-11 letters in groups of 10.
+	 */
+	private static Database createRandomDatabase(Random random) {
+		Database database = new Database();
+		for (int i = 0; i < 1_000_000; i += 10) {
+			Set<String> synonyms = new HashSet<>();
+			for (int j = 1; j < 10; j++) {
+				synonyms.add(randomWord(random, 4 + random.nextInt(8)));
+			}
+			database.addSynonyms(randomWord(random, 8), synonyms);
+		}
+		return database;
+	}
+
+	private static String randomWord(Random random, int length) {
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			word.append((char) ('a' + random.nextInt(26)));
+		}
+		return word.toString();
+	}
+}
@@ -0,0 +1,78 @@
+package cloudservice.manual;
+
+import cloudservice.Database.SynonymPage;
+import cloudservice.JsonIO;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * These tests are utilities for measuring the performance of the JSON serialization, not normal unit tests. They
+ * compare {@link JsonIO} with plain Gson, which is what it used before.
+ */
+@Disabled("Comment out this when running benchmarks locally")
+public class JsonBenchmarks {
+	private static final Logger LOGGER = LoggerFactory.getLogger(JsonBenchmarks.class);
+
+	private static final OutputStream NULL_STREAM = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private final JsonIO jsonIO = new JsonIO();
+	private final Gson gson = new Gson();
+
+	@Test
+	void writePages() throws IOException {
+		for (int size : new int[] { 100, 10_000 }) {
+			List<String> words = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				words.add("synonym" + (1_000_000 + i));
+			}
+			SynonymPage page = new SynonymPage(size * 10, words, "c3lub255bTE");
+			int iterations = 20_000_000 / size;
+
+			for (int round = 0; round < 3; round++) { // The first rounds are warm up
+				long gsonBytes = allocatedBytes();
+				long start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					try (OutputStreamWriter writer = new OutputStreamWriter(NULL_STREAM)) {
+						gson.toJson(page, SynonymPage.class, writer);
+					}
+				}
+				long gsonTime = System.nanoTime() - start;
+				gsonBytes = allocatedBytes() - gsonBytes;
+
+				long jsonIOBytes = allocatedBytes();
+				start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					jsonIO.writeTo(page, SynonymPage.class, SynonymPage.class, null, null, null, NULL_STREAM);
+				}
+				long jsonIOTime = System.nanoTime() - start;
+				jsonIOBytes = allocatedBytes() - jsonIOBytes;
+
+				LOGGER.warn("Page with {} synonyms - Gson: {} pages/s, {} bytes/page - JsonIO: {} pages/s, {} bytes/page",
+						size, iterations * 1_000_000_000L / gsonTime, gsonBytes / iterations,
+						iterations * 1_000_000_000L / jsonIOTime, jsonIOBytes / iterations);
+			}
+		}
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,64 @@
+package cloudservice.manual;
+
+import cloudservice.Database;
+import cloudservice.persistence.WriteAheadLog;
+import cloudservice.persistence.WriteAheadLog.FsyncPolicy;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * These tests are utilities for measuring the performance of the persistence, not normal unit tests.
+ */
+@Disabled("Comment out this when running benchmarks locally")
+public class PersistenceBenchmarks {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PersistenceBenchmarks.class);
+
+	@TempDir
+	Path directory;
+
+	/**
+	 * Writes a log with 2M entries, where every entry connects a number with the next number and two numbers of its
+	 * own so all the words end up in one group, and then measures how long it takes to replay it into a database.
+	 */
+	@Test
+	void replayLog() throws IOException {
+		final int nEntries = 2_000_000;
+
+		WriteAheadLog.Config config = new WriteAheadLog.Config(directory, FsyncPolicy.INTERVAL, 256, 2, 1000);
+		long start = System.nanoTime();
+		try (WriteAheadLog log = new WriteAheadLog(config)) {
+			log.replay(entry -> {});
+			for (int i = 0; i < nEntries; i++) {
+				log.append(Integer.toString(i), ImmutableSet.of(
+						Integer.toString(i + 1),
+						Integer.toString(nEntries + i * 2),
+						Integer.toString(nEntries + i * 2 + 1)));
+			}
+		}
+		LOGGER.warn("Wrote {} entries in {}ms", nEntries, (System.nanoTime() - start) / 1_000_000);
+
+		start = System.nanoTime();
+		int[] count = new int[1];
+		try (WriteAheadLog log = new WriteAheadLog(config)) {
+			log.replay(entry -> count[0]++);
+		}
+		long readTime = System.nanoTime() - start;
+		LOGGER.warn("Read {} entries in {}ms ({} entries/s)", count[0], readTime / 1_000_000, count[0] * 1_000_000_000L / readTime);
+
+		start = System.nanoTime();
+		try (WriteAheadLog log = new WriteAheadLog(config)) {
+			Database database = new Database(log);
+			log.replay(database::restore);
+		}
+		long replayTime = System.nanoTime() - start;
+		LOGGER.warn("Replayed {} entries into the database in {}ms ({} entries/s)", nEntries, replayTime / 1_000_000,
+				nEntries * 1_000_000_000L / replayTime);
+	}
+}
@@ -0,0 +1,76 @@
+package cloudservice.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HistogramTest {
+	@Test
+	void write() {
+		Histogram histogram = new Histogram(new long[] {1, 10, 100}, 1);
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(5);
+		histogram.record(100);
+		histogram.record(1000);
+
+		StringBuilder out = new StringBuilder();
+		histogram.write(out, "test", "kind=\"a\"");
+		assertEquals("test_bucket{kind=\"a\",le=\"1\"} 2\n"
+				+ "test_bucket{kind=\"a\",le=\"10\"} 3\n"
+				+ "test_bucket{kind=\"a\",le=\"100\"} 4\n"
+				+ "test_bucket{kind=\"a\",le=\"+Inf\"} 5\n"
+				+ "test_sum{kind=\"a\"} 1106\n"
+				+ "test_count{kind=\"a\"} 5\n", out.toString());
+		assertEquals(5, histogram.getCount());
+		assertEquals(1106, histogram.getSum());
+	}
+
+	@Test
+	void writeInUnitWithoutLabels() {
+		Histogram histogram = new Histogram(new long[] {1000, 2000}, 1000);
+		histogram.record(1500);
+
+		StringBuilder out = new StringBuilder();
+		histogram.write(out, "test_seconds", "");
+		assertEquals("test_seconds_bucket{le=\"1.0\"} 0\n"
+				+ "test_seconds_bucket{le=\"2.0\"} 1\n"
+				+ "test_seconds_bucket{le=\"+Inf\"} 1\n"
+				+ "test_seconds_sum 1.5\n"
+				+ "test_seconds_count 1\n", out.toString());
+	}
+
+	@Test
+	void durations() {
+		Histogram histogram = Histogram.durations();
+		histogram.record(1000);
+		histogram.record(1001);
+		StringBuilder out = new StringBuilder();
+		histogram.write(out, "test", "");
+		String text = out.toString();
+		assertEquals(true, text.startsWith("test_bucket{le=\"1.0E-6\"} 1\ntest_bucket{le=\"2.0E-6\"} 2\n"), text);
+	}
+
+	@Test
+	void concurrentRecording() throws InterruptedException {
+		Histogram histogram = Histogram.sizes();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < 100_000; j++) {
+					histogram.record(j);
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(400_000, histogram.getCount());
+		assertEquals(4L * 99_999 * 100_000 / 2, histogram.getSum());
+	}
+}
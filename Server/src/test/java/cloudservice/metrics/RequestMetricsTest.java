@@ -0,0 +1,21 @@
+package cloudservice.metrics;
+
+import cloudservice.SynonymResource;
+import cloudservice.replication.FollowerResource;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RequestMetricsTest {
+	@Test
+	void getEndpoint() throws NoSuchMethodException {
+		assertEquals("GET /synonyms/suggest", RequestMetrics.getEndpoint(SynonymResource.class,
+				SynonymResource.class.getMethod("suggest", String.class, int.class)));
+		assertEquals("GET /synonyms/cache", RequestMetrics.getEndpoint(SynonymResource.class,
+				SynonymResource.class.getMethod("cacheStats")));
+		assertEquals("GET /replication/status", RequestMetrics.getEndpoint(FollowerResource.class,
+				FollowerResource.class.getMethod("status")));
+		assertEquals("GET /metrics", RequestMetrics.getEndpoint(MetricsResource.class,
+				MetricsResource.class.getMethod("metrics")));
+	}
+}
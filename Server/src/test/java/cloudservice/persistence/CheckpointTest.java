@@ -0,0 +1,118 @@
+package cloudservice.persistence;
+
+import cloudservice.Database;
+import cloudservice.persistence.WriteAheadLog.FsyncPolicy;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CheckpointTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	void writeAndLoad() throws IOException {
+		Database database = new Database();
+		database.addSynonyms("a", ImmutableSet.of("b", "C", "c"));
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		database.addSynonyms("\u00e5\u00e4\u00f6", ImmutableSet.of("y"));
+		database.addSynonyms("alone", ImmutableSet.of());
+
+		Path file = directory.resolve("checkpoint.bin");
+		Checkpoint.write(file, database.getPartition());
+
+		Database restored = new Database();
+		assertEquals(0, Checkpoint.load(file, restored));
+		assertEquals(ImmutableList.of("b", "C", "c"), restored.getSynonyms("a", 10).synonyms);
+		assertEquals(ImmutableList.of("a", "C", "c"), restored.getSynonyms("b", 10).synonyms);
+		assertEquals(ImmutableList.of("\u00e5\u00e4\u00f6", "x"), restored.getSynonyms("y", 10).synonyms);
+		assertEquals(0, restored.getSynonyms("alone", 10).total);
+
+		// The restored groups can be merged like any other
+		restored.addSynonyms("c", ImmutableSet.of("x"));
+		assertEquals(6, restored.getSynonyms("a", 10).total);
+	}
+
+	@Test
+	void writeAndLoadEdges() throws IOException {
+		Database database = new Database();
+		database.addSynonyms("a", ImmutableSet.of("b", "c"));
+		database.addSynonyms("c", ImmutableSet.of("d"));
+		database.addSynonyms("x", ImmutableSet.of("y"));
+		database.removeSynonym("x", "y");
+
+		Path file = directory.resolve("checkpoint.bin");
+		Checkpoint.write(file, database.getPartition());
+		Database restored = new Database();
+		Checkpoint.load(file, restored);
+		assertEquals(0, restored.getSynonyms("x", 10).total);
+
+		// The edges decide how the restored group is split
+		assertFalse(restored.removeSynonym("b", "c"));
+		assertTrue(restored.removeSynonym("a", "c"));
+		assertEquals(ImmutableList.of("b"), restored.getSynonyms("a", 10).synonyms);
+		assertEquals(ImmutableList.of("d"), restored.getSynonyms("c", 10).synonyms);
+	}
+
+	@Test
+	void loadCorrupt() throws IOException {
+		Database database = new Database();
+		database.addSynonyms("a", ImmutableSet.of("b"));
+		Path file = directory.resolve("checkpoint.bin");
+		Checkpoint.write(file, database.getPartition());
+
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length / 2]++;
+		Files.write(file, bytes);
+		assertThrows(IOException.class, () -> Checkpoint.load(file, new Database()));
+	}
+
+	@Test
+	void checkpointTruncatesLog() throws IOException {
+		WriteAheadLog.Config config = new WriteAheadLog.Config(directory, FsyncPolicy.REQUEST, 64, 2, 10, 100);
+		try (WriteAheadLog log = new WriteAheadLog(config)) {
+			Database database = new Database(log);
+			log.replay(entry -> {});
+			for (int i = 0; i < 20; i++) {
+				database.addSynonyms(Integer.toString(i), ImmutableSet.of(Integer.toString(i + 1)));
+			}
+			int segmentsBefore = listSegments().size();
+			new Checkpointer(database, log, directory).checkpoint();
+			assertTrue(listSegments().size() < segmentsBefore, "Segments before: " + segmentsBefore + ", after: " + listSegments().size());
+
+			database.addSynonyms("x", ImmutableSet.of("y"));
+		}
+
+		try (WriteAheadLog log = new WriteAheadLog(config)) {
+			Database database = new Database(log);
+			long sequence = new Checkpointer(database, log, directory).restore();
+			assertEquals(20, sequence);
+			log.replay(sequence, database::restore);
+
+			assertEquals(20, database.getSynonyms("0", 10).total);
+			assertEquals(ImmutableList.of("y"), database.getSynonyms("x", 10).synonyms);
+
+			database.addSynonyms("y", ImmutableSet.of("z"));
+			assertEquals(22, log.getLastSequence());
+		}
+	}
+
+	private List<Path> listSegments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(p -> p.getFileName().toString().startsWith("wal-")).collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package cloudservice.persistence;
+
+import cloudservice.Database;
+import cloudservice.persistence.WriteAheadLog.Entry;
+import cloudservice.persistence.WriteAheadLog.FsyncPolicy;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteAheadLogTest {
+	@TempDir
+	Path directory;
+
+	@ParameterizedTest
+	@ValueSource(strings = {"REQUEST", "BATCH", "INTERVAL"})
+	void appendAndReplay(String policy) throws IOException {
+		try (WriteAheadLog log = openLog(FsyncPolicy.valueOf(policy), new ArrayList<>())) {
+			log.awaitDurable(log.append("a", ImmutableSet.of("b", "c")));
+			log.awaitDurable(log.append("d", ImmutableSet.of("e")));
+		}
+
+		List<Entry> entries = new ArrayList<>();
+		try (WriteAheadLog log = openLog(FsyncPolicy.valueOf(policy), entries)) {
+			assertEquals(3, log.append("x", ImmutableSet.of("y")));
+		}
+		assertEquals(2, entries.size());
+		assertEquals(1, entries.get(0).sequence);
+		assertEquals("a", entries.get(0).word);
+		assertEquals(ImmutableSet.of("b", "c"), entries.get(0).synonyms);
+		assertEquals(2, entries.get(1).sequence);
+		assertEquals("d", entries.get(1).word);
+		assertEquals(ImmutableSet.of("e"), entries.get(1).synonyms);
+
+		entries.clear();
+		openLog(FsyncPolicy.valueOf(policy), entries).close();
+		assertEquals(3, entries.size());
+	}
+
+	@Test
+	void replayDiscardsIncompleteEntry() throws IOException {
+		try (WriteAheadLog log = openLog(FsyncPolicy.REQUEST, new ArrayList<>())) {
+			log.awaitDurable(log.append("a", ImmutableSet.of("b")));
+			log.awaitDurable(log.append("c", ImmutableSet.of("d")));
+		}
+
+		// Simulate a crash in the middle of writing the last entry
+		Path segment = listFiles().get(0);
+		byte[] bytes = Files.readAllBytes(segment);
+		Files.write(segment, Arrays.copyOf(bytes, bytes.length - 3));
+
+		List<Entry> entries = new ArrayList<>();
+		try (WriteAheadLog log = openLog(FsyncPolicy.REQUEST, entries)) {
+			assertEquals(2, log.append("e", ImmutableSet.of("f")));
+		}
+		assertEquals(ImmutableList.of("a"), entries.stream().map(e -> e.word).collect(Collectors.toList()));
+
+		entries.clear();
+		openLog(FsyncPolicy.REQUEST, entries).close();
+		assertEquals(ImmutableList.of("a", "e"), entries.stream().map(e -> e.word).collect(Collectors.toList()));
+	}
+
+	@Test
+	void replayDiscardsCorruptEntry() throws IOException {
+		try (WriteAheadLog log = openLog(FsyncPolicy.REQUEST, new ArrayList<>())) {
+			log.awaitDurable(log.append("a", ImmutableSet.of("b")));
+		}
+		Files.write(listFiles().get(0), new byte[] { 0, 0, 0, 20, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+
+		List<Entry> entries = new ArrayList<>();
+		openLog(FsyncPolicy.REQUEST, entries).close();
+		assertEquals(1, entries.size());
+	}
+
+	/**
+	 * Only the last segment can end with a torn write, corruption in an earlier segment would silently drop entries
+	 * which were acknowledged, so the log refuses to start instead.
+	 */
+	@Test
+	void replayFailsOnCorruptionBeforeLastSegment() throws IOException {
+		WriteAheadLog.Config config = new WriteAheadLog.Config(directory, FsyncPolicy.REQUEST, 64, 2, 10, 100);
+		WriteAheadLog log = new WriteAheadLog(config);
+		log.replay(entry -> {});
+		try (log) {
+			for (int i = 0; i < 20; i++) {
+				log.awaitDurable(log.append("word" + i, ImmutableSet.of("synonym" + i)));
+			}
+		}
+		List<Path> segments = listFiles();
+		assertTrue(segments.size() > 2, "Segments: " + segments);
+
+		byte[] bytes = Files.readAllBytes(segments.get(0));
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(segments.get(0), bytes);
+		assertThrows(IOException.class, () -> new WriteAheadLog(config).replay(entry -> {}));
+		assertEquals(bytes.length, Files.size(segments.get(0))); // Nothing is truncated
+	}
+
+	@Test
+	void groupCommit() throws Exception {
+		final int nWorkers = 10;
+		final int nPerWorker = 100;
+		try (WriteAheadLog log = openLog(FsyncPolicy.BATCH, new ArrayList<>())) {
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < nWorkers; i++) {
+				int worker = i;
+				threads.add(new Thread(() -> {
+					for (int j = 0; j < nPerWorker; j++) {
+						try {
+							log.awaitDurable(log.append(worker + "-" + j, ImmutableSet.of("x")));
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			assertEquals(nWorkers * nPerWorker, log.getDurableSequence());
+			assertTrue(log.getFsyncCount() < nWorkers * nPerWorker, "Fsync count: " + log.getFsyncCount());
+		}
+	}
+
+	/**
+	 * Appending must not wake up the flusher with the interval policy, the entries are synced once per interval.
+	 */
+	@Test
+	void intervalPolicyWaitsForInterval() throws Exception {
+		WriteAheadLog log = new WriteAheadLog(new WriteAheadLog.Config(directory, FsyncPolicy.INTERVAL, 64, 2, 1000));
+		log.replay(entry -> {});
+		try (log) {
+			for (int round = 1; round <= 2; round++) {
+				long sequence = log.append("w" + round, ImmutableSet.of("x"));
+				Thread.sleep(200);
+				assertEquals(sequence - 1, log.getDurableSequence());
+
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+				while (log.getDurableSequence() < sequence && System.nanoTime() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(sequence, log.getDurableSequence());
+			}
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"REQUEST", "BATCH"})
+	void whenDurable(String policy) throws Exception {
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		try (WriteAheadLog log = openLog(FsyncPolicy.valueOf(policy), new ArrayList<>())) {
+			for (int i = 0; i < 100; i++) {
+				futures.add(log.whenDurable(log.append("w" + i, ImmutableSet.of("x"))));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+			assertEquals(100, log.getDurableSequence());
+			assertTrue(log.whenDurable(1).isDone());
+		}
+	}
+
+	@Test
+	void whenDurableAfterClose() throws IOException {
+		WriteAheadLog log = openLog(FsyncPolicy.BATCH, new ArrayList<>());
+		long sequence = log.append("a", ImmutableSet.of("b"));
+		CompletableFuture<Void> future = log.whenDurable(sequence);
+		log.close();
+		// Closing flushes what has been appended
+		assertTrue(future.isDone() && !future.isCompletedExceptionally());
+		assertTrue(log.whenDurable(sequence + 1).isCompletedExceptionally());
+	}
+
+	@Test
+	void restoreDatabase() throws IOException {
+		try (WriteAheadLog log = openLog(FsyncPolicy.BATCH, new ArrayList<>())) {
+			Database database = new Database(log);
+			database.addSynonyms("a", ImmutableSet.of("b"));
+			database.addSynonyms("b", ImmutableSet.of("c"));
+			database.addSynonyms("x", ImmutableSet.of("y"));
+		}
+
+		WriteAheadLog log = new WriteAheadLog(config(FsyncPolicy.BATCH));
+		Database database = new Database(log);
+		log.replay(database::restore);
+		try (log) {
+			assertEquals(ImmutableList.of("b", "c"), database.getSynonyms("a", 10).synonyms);
+			assertEquals(ImmutableList.of("y"), database.getSynonyms("x", 10).synonyms);
+		}
+	}
+
+	@Test
+	void restoreRemovals() throws IOException {
+		try (WriteAheadLog log = openLog(FsyncPolicy.BATCH, new ArrayList<>())) {
+			Database database = new Database(log);
+			database.addSynonyms("a", ImmutableSet.of("b", "c"));
+			database.removeSynonym("a", "b");
+			database.addSynonyms("b", ImmutableSet.of("x"));
+			assertFalse(database.removeSynonym("a", "x")); // Not logged
+		}
+
+		List<Entry> entries = new ArrayList<>();
+		try (WriteAheadLog log = openLog(FsyncPolicy.BATCH, entries)) {
+			assertEquals(3, entries.size());
+			assertTrue(entries.get(1).removal);
+			assertEquals("a", entries.get(1).word);
+			assertEquals(ImmutableSet.of("b"), entries.get(1).synonyms);
+			assertFalse(entries.get(2).removal);
+		}
+
+		WriteAheadLog log = new WriteAheadLog(config(FsyncPolicy.BATCH));
+		Database database = new Database(log);
+		log.replay(database::restore);
+		try (log) {
+			assertEquals(ImmutableList.of("c"), database.getSynonyms("a", 10).synonyms);
+			assertEquals(ImmutableList.of("x"), database.getSynonyms("b", 10).synonyms);
+		}
+	}
+
+	private WriteAheadLog openLog(FsyncPolicy policy, List<Entry> entries) throws IOException {
+		WriteAheadLog log = new WriteAheadLog(config(policy));
+		log.replay(entries::add);
+		return log;
+	}
+
+	private WriteAheadLog.Config config(FsyncPolicy policy) {
+		return new WriteAheadLog.Config(directory, policy, 64, 2, 10);
+	}
+
+	private List<Path> listFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package cloudservice.replication;
+
+import cloudservice.Database;
+import cloudservice.Database.Partition;
+import cloudservice.persistence.Checkpoint;
+import cloudservice.replication.ReplicationLog.Change;
+import cloudservice.replication.ReplicationResource.ChangePage;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a follower against a leader served by the JDK's HTTP server, which answers like {@link ReplicationResource}.
+ */
+public class FollowerTest {
+	private ReplicationLog replicationLog;
+	private Database leader;
+	private HttpServer server;
+	/**
+	 * The log requests wait for this, so that the tests can make changes while the follower is between requests.
+	 */
+	private volatile CountDownLatch logPaused = new CountDownLatch(0);
+	/**
+	 * Bodies the log requests answer with before the real changes, one per request.
+	 */
+	private final Queue<String> fakeResponses = new ConcurrentLinkedQueue<>();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		startLeader(1000, 0);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+	}
+
+	private void startLeader(int capacity, int port) throws IOException {
+		replicationLog = new ReplicationLog(capacity);
+		leader = new Database(null, replicationLog);
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/api/replication/snapshot", this::snapshot);
+		server.createContext("/api/replication/log", this::log);
+		server.start();
+	}
+
+	private void snapshot(HttpExchange exchange) throws IOException {
+		Partition partition = leader.getPartition();
+		exchange.getResponseHeaders().add(ReplicationResource.EPOCH_HEADER, replicationLog.getEpoch());
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			Checkpoint.write(out, partition, partition.replicationSequence);
+		}
+	}
+
+	private void log(HttpExchange exchange) throws IOException {
+		Map<String, String> query = new HashMap<>();
+		for (String parameter : exchange.getRequestURI().getQuery().split("&")) {
+			String[] parts = parameter.split("=");
+			query.put(parts[0], parts[1]);
+		}
+		List<Change> changes = null;
+		if (replicationLog.getEpoch().equals(query.get("epoch"))) {
+			try {
+				logPaused.await();
+				changes = replicationLog.read(Long.parseLong(query.get("after")), Integer.parseInt(query.get("limit")), 100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (changes == null) {
+			exchange.sendResponseHeaders(410, -1);
+			exchange.close();
+			return;
+		}
+		String fake = fakeResponses.poll();
+		byte[] body = fake != null ? fake.getBytes(StandardCharsets.UTF_8) : new Gson().toJson(new ChangePage(replicationLog.getLastSequence(), changes)).getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private URI getLeaderUri() {
+		return URI.create("http://localhost:" + server.getAddress().getPort());
+	}
+
+	@Test
+	void followLeader() throws InterruptedException {
+		leader.addSynonyms("a", ImmutableSet.of("b", "c"));
+		leader.addSynonyms("x", ImmutableSet.of("y"));
+
+		Database database = new Database();
+		Follower follower = new Follower(database, getLeaderUri(), () -> {});
+		follower.start();
+		try {
+			assertEquals(2, follower.getStatus().sequence);
+			assertEquals(ImmutableList.of("b", "c"), database.getSynonyms("a", 10).synonyms);
+
+			leader.addSynonyms("c", ImmutableSet.of("d"));
+			leader.removeSynonym("a", "b");
+			leader.addSynonyms(ImmutableList.of(new Database.SynonymEntry("y", ImmutableSet.of("z"))));
+			awaitSequence(follower, 5);
+
+			assertEquals(ImmutableList.of("c", "d"), database.getSynonyms("a", 10).synonyms);
+			assertEquals(0, database.getSynonyms("b", 10).total);
+			assertEquals(ImmutableList.of("y", "z"), database.getSynonyms("x", 10).synonyms);
+			assertEquals(5, follower.getStatus().leaderSequence);
+			assertEquals(replicationLog.getEpoch(), follower.getStatus().epoch);
+
+			// Removals need the edges from the snapshot
+			leader.removeSynonym("x", "y");
+			awaitSequence(follower, 6);
+			assertEquals(ImmutableList.of("z"), database.getSynonyms("y", 10).synonyms);
+			assertEquals(0, database.getSynonyms("x", 10).total);
+		} finally {
+			follower.close();
+		}
+	}
+
+	@Test
+	void snapshotNeededAfterLeaderRestart() throws Exception {
+		leader.addSynonyms("a", ImmutableSet.of("b"));
+
+		CountDownLatch snapshotNeeded = new CountDownLatch(1);
+		Follower follower = new Follower(new Database(), getLeaderUri(), snapshotNeeded::countDown);
+		follower.start();
+		try {
+			server.stop(0);
+			startLeader(1000, follower.getLeader().getPort());
+			assertTrue(snapshotNeeded.await(10, TimeUnit.SECONDS));
+		} finally {
+			follower.close();
+		}
+	}
+
+	@Test
+	void snapshotNeededWhenTooFarBehind() throws Exception {
+		server.stop(0);
+		startLeader(10, 0);
+		leader.addSynonyms("a", ImmutableSet.of("b"));
+
+		CountDownLatch snapshotNeeded = new CountDownLatch(1);
+		Database database = new Database();
+		Follower follower = new Follower(database, getLeaderUri(), snapshotNeeded::countDown);
+		logPaused = new CountDownLatch(1);
+		follower.start();
+		try {
+			for (int i = 0; i < 11; i++) {
+				leader.addSynonyms("w" + i, ImmutableSet.of("w" + (i + 1)));
+			}
+			logPaused.countDown();
+			assertTrue(snapshotNeeded.await(10, TimeUnit.SECONDS));
+			assertEquals(1, follower.getStatus().sequence);
+			assertEquals(0, database.getSynonyms("w0", 10).total);
+		} finally {
+			follower.close();
+		}
+	}
+
+	@Test
+	void retryUnparsableChanges() throws InterruptedException {
+		leader.addSynonyms("a", ImmutableSet.of("b"));
+
+		Database database = new Database();
+		CountDownLatch snapshotNeeded = new CountDownLatch(1);
+		Follower follower = new Follower(database, getLeaderUri(), snapshotNeeded::countDown);
+		fakeResponses.add("{\"lastSequence\":2,\"changes\":[");
+		fakeResponses.add("");
+		follower.start();
+		try {
+			leader.addSynonyms("b", ImmutableSet.of("c"));
+			awaitSequence(follower, 2);
+			assertEquals(ImmutableList.of("b", "c"), database.getSynonyms("a", 10).synonyms);
+			assertEquals(1, snapshotNeeded.getCount());
+		} finally {
+			follower.close();
+		}
+	}
+
+	@Test
+	void snapshotNeededWhenChangeCantBeApplied() throws Exception {
+		leader.addSynonyms("a", ImmutableSet.of("b"));
+
+		CountDownLatch snapshotNeeded = new CountDownLatch(1);
+		Follower follower = new Follower(new Database(), getLeaderUri(), snapshotNeeded::countDown);
+		// A change without synonyms can't be restored
+		fakeResponses.add("{\"lastSequence\":2,\"changes\":[{\"sequence\":2,\"timeMillis\":0,\"word\":\"a\"}]}");
+		follower.start();
+		try {
+			assertTrue(snapshotNeeded.await(10, TimeUnit.SECONDS));
+			assertEquals(1, follower.getStatus().sequence);
+		} finally {
+			follower.close();
+		}
+	}
+
+	private static void awaitSequence(Follower follower, long sequence) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (follower.getStatus().sequence < sequence && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(sequence, follower.getStatus().sequence);
+	}
+}
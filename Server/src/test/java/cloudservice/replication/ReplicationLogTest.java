@@ -0,0 +1,71 @@
+package cloudservice.replication;
+
+import cloudservice.replication.ReplicationLog.Change;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReplicationLogTest {
+	@Test
+	void appendAndRead() throws InterruptedException {
+		ReplicationLog log = new ReplicationLog(100);
+		Set<String> synonyms = new HashSet<>(ImmutableSet.of("b"));
+		assertEquals(1, log.append("a", synonyms, false));
+		synonyms.add("c"); // The log must keep its own copy
+		assertEquals(2, log.append("a", ImmutableSet.of("b"), true));
+
+		List<Change> changes = log.read(0, 10, 0);
+		assertEquals(2, changes.size());
+		assertEquals(1, changes.get(0).sequence);
+		assertEquals("a", changes.get(0).word);
+		assertEquals(ImmutableSet.of("b"), changes.get(0).synonyms);
+		assertEquals(false, changes.get(0).removal);
+		assertEquals(true, changes.get(1).removal);
+
+		assertEquals(1, log.read(0, 1, 0).size());
+		assertEquals(2, log.read(1, 10, 0).get(0).sequence);
+		assertEquals(0, log.read(2, 10, 0).size());
+	}
+
+	@Test
+	void readWaitsForChanges() throws InterruptedException {
+		ReplicationLog log = new ReplicationLog(100);
+		Thread writer = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				return;
+			}
+			log.append("a", ImmutableSet.of("b"), false);
+		});
+		writer.start();
+		long start = System.nanoTime();
+		List<Change> changes = log.read(0, 10, 10_000);
+		assertEquals(1, changes.size());
+		assertTrue(System.nanoTime() - start < 5_000_000_000L);
+		writer.join();
+	}
+
+	@Test
+	void readOverwrittenChanges() throws InterruptedException {
+		ReplicationLog log = new ReplicationLog(10);
+		for (int i = 0; i < 25; i++) {
+			log.append("w" + i, ImmutableSet.of("x"), false);
+		}
+		assertNull(log.read(0, 10, 0));
+		assertNull(log.read(14, 10, 0));
+		List<Change> changes = log.read(15, 100, 0);
+		assertEquals(10, changes.size());
+		assertEquals("w15", changes.get(0).word);
+		assertEquals("w24", changes.get(9).word);
+
+		assertNull(log.read(26, 10, 0)); // From some other log
+	}
+}